@@ -30,8 +30,10 @@ import java.awt.Insets;
 import java.awt.KeyEventDispatcher;
 import java.awt.KeyboardFocusManager;
 import java.awt.event.KeyEvent;
+import java.util.concurrent.Future;
 import javax.swing.JLayeredPane;
 import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
 
 /**
  * @author Dmitry Repchevsky
@@ -69,6 +71,36 @@ public class BlockablePanel extends JLayeredPane implements KeyEventDispatcher {
         glass.setVisible(false);
     }
 
+    /**
+     * Shows the message (i.e. the task progress) while the panel is blocked.
+     * 
+     * @param message the message to show
+     */
+    public void setMessage(String message) {
+        glass.setMessage(message);
+    }
+
+    /**
+     * Blocks the panel until the background task is finished (or cancelled).
+     * 
+     * @param task the task to wait for
+     */
+    public void block(final Future<?> task) {
+        block();
+        new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() throws Exception {
+                task.get();
+                return null;
+            }
+
+            @Override
+            protected void done() {
+                unblock();
+            }
+        }.execute();
+    }
+
     @Override
     public boolean dispatchKeyEvent(KeyEvent e) {
         return SwingUtilities.isDescendingFrom(e.getComponent(), this);
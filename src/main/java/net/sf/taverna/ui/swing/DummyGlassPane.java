@@ -38,7 +38,11 @@ import net.sf.taverna.ui.swing.painter.WaitPainter;
  */
 
 public class DummyGlassPane extends JComponent implements ComponentListener {
+    private final static int MESSAGE_X = 56;
+    private final static int MESSAGE_Y = 16;
+
     private final WaitPainter painter;
+    private String message;
 
     public DummyGlassPane() {
       this.setOpaque(false);
@@ -50,10 +54,27 @@ public class DummyGlassPane extends JComponent implements ComponentListener {
       painter = new WaitPainter(this);
     }
 
+    /**
+     * Sets the message (i.e. the progress of the task) shown next to the wait indicator.
+     * 
+     * @param message the message to show or null
+     */
+    public void setMessage(String message) {
+        this.message = message;
+        repaint();
+    }
+
     @Override
     public void paint(Graphics g) {
         super.paint(g);
-        painter.paint(g);
+
+        final String text = message;
+        if (text != null && painter.isRunning()) {
+            g.setColor(getForeground());
+            g.drawString(text, MESSAGE_X, g.getFontMetrics().getAscent() + MESSAGE_Y);
+        }
+
+        painter.paint(g); // disposes the graphics
     }
 
     @Override
@@ -65,6 +86,7 @@ public class DummyGlassPane extends JComponent implements ComponentListener {
     @Override
     public void componentHidden(ComponentEvent e) {
         painter.stop();
+        message = null;
         super.setCursor(Cursor.getPredefinedCursor(Cursor.DEFAULT_CURSOR));
     }
 
@@ -24,13 +24,10 @@
 
 package net.sf.taverna.xml.schema.parser;
 
-import javax.xml.bind.DatatypeConverter;
 import javax.xml.namespace.QName;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamWriter;
-import org.apache.ws.commons.schema.XmlSchema;
 import org.apache.ws.commons.schema.XmlSchemaAttribute;
-import org.apache.ws.commons.schema.XmlSchemaCollection;
 import org.apache.ws.commons.schema.XmlSchemaType;
 import org.apache.ws.commons.schema.XmlSchemaUse;
 
@@ -39,7 +36,10 @@ import org.apache.ws.commons.schema.XmlSchemaUse;
  */
 
 public class XSAttribute<T,V extends T> extends XSComponent<T, V, XmlSchemaAttribute> {
-    
+
+    private QName name;
+    private XmlSchemaType type;
+
     public XSAttribute(XmlSchemaAttribute attribute) {
         this(attribute, null);
     }
@@ -50,29 +50,24 @@ public class XSAttribute<T,V extends T> extends XSComponent<T, V, XmlSchemaAttri
 
     @Override
     public XmlSchemaType getType() {
-        XmlSchemaType simpleType = component.getSchemaType();
-        if (simpleType == null) {
-            QName typeName = component.getSchemaTypeName();
-            XmlSchema schema = component.getParent();
-            XmlSchemaCollection schemaCollection = schema.getParent();
-            if (schemaCollection != null) {
-                simpleType = schemaCollection.getTypeByQName(typeName);
-            } else {
-                simpleType = schema.getTypeByName(typeName);
-            }
+        if (type == null) {
+            type = XSTypeHierarchy.getType(component);
         }
-        return simpleType;
+        return type;
     }
 
     @Override
     public QName getName() {
-        return component.getWireName();
+        if (name == null) {
+            name = XSSymbolTable.intern(component.getWireName());
+        }
+        return name;
     }
 
     @Override
-    public Boolean validate() {
+    protected Boolean computeValidity() {
         if (getUserObject() != null) {
-            return Boolean.TRUE;
+            return isValidValue() ? Boolean.TRUE : Boolean.FALSE;
         }    
         return XmlSchemaUse.REQUIRED == component.getUse() ? Boolean.FALSE : null;
     }
@@ -80,13 +75,9 @@ public class XSAttribute<T,V extends T> extends XSComponent<T, V, XmlSchemaAttri
     @Override
     public void write(XMLStreamWriter stream) throws XMLStreamException {
         QName type = getTypeName();
-        Object object = getUserObject();
-
-        if (object != null) {
-            if (object instanceof QName) {
-                object = DatatypeConverter.printQName((QName)object, stream.getNamespaceContext());
-            }
+        String text = getLexicalValue(stream.getNamespaceContext());
 
+        if (text != null) {
             setPrefix(stream);
             
             final QName name = getName();
@@ -94,9 +85,9 @@ public class XSAttribute<T,V extends T> extends XSComponent<T, V, XmlSchemaAttri
             final String namespace = name.getNamespaceURI();
 
             if (namespace != null && namespace.length() > 0) {
-                stream.writeAttribute(namespace, localName, object.toString());
+                stream.writeAttribute(namespace, localName, text);
             } else {
-                stream.writeAttribute(localName, object.toString());
+                stream.writeAttribute(localName, text);
             }
         } else if (XmlSchemaUse.REQUIRED == component.getUse()) {
             throw new XMLStreamException("Required attribute missing: " + type.toString());
@@ -106,15 +97,11 @@ public class XSAttribute<T,V extends T> extends XSComponent<T, V, XmlSchemaAttri
     @Override
     public String getXPath() {
         final XSComponent parent = (XSComponent)getParent();
-        final StringBuilder xpath = new StringBuilder(parent.getXPath());
-        final QName qname = getName();
-        final String localpart = qname.getLocalPart();
-        final String namespace = qname.getNamespaceURI();
-        if (namespace.isEmpty()) {
-            xpath.append("/@").append(localpart);
-        } else {
-            xpath.append("/@[namespace-uri()='").append(namespace).append("' and local-name()='").append(localpart).append("']");
-        }
-        return xpath.toString();
+        return parent.getXPath() + getXPathStep();
+    }
+
+    @Override
+    protected String createXPathStep() {
+        return createXPathStep(getName(), true);
     }
 }
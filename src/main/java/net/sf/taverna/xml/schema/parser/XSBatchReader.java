@@ -0,0 +1,206 @@
+/**
+ * *****************************************************************************
+ * Copyright (C) 2014 Spanish National Bioinformatics Institute (INB),
+ * Barcelona Supercomputing Center and The University of Manchester
+ *
+ * Modifications to the initial code base are copyright of their respective
+ * authors, or their employers as appropriate.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ *****************************************************************************
+ */
+
+package net.sf.taverna.xml.schema.parser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.stream.StreamSource;
+
+/**
+ * Reads many documents into independent models in parallel.
+ * All the models share the schemas and the settings of the template model, 
+ * so the compiled types, content models and other schema caches are built 
+ * once and are shared by all the reading threads.
+ * 
+ * @param <M> the type of the models
+ * 
+ * @author Dmitry Repchevsky
+ */
+
+public class XSBatchReader<M extends XSModel<?,?>> {
+    private final XSModel<?,?> template;
+    private final ModelFactory<M> factory;
+    private final ExecutorService executor;
+    private final XMLInputFactory inputFactory;
+
+    private XSProjection projection;
+
+    /**
+     * @param template the model which schemas and settings are used to read the documents
+     * @param factory the factory of the (empty) models the documents are read into
+     * @param executor the executor to read the documents on
+     */
+    public XSBatchReader(XSModel<?,?> template, ModelFactory<M> factory, ExecutorService executor) {
+        this.template = template;
+        this.factory = factory;
+        this.executor = executor;
+
+        inputFactory = XMLInputFactory.newInstance();
+    }
+
+    /**
+     * Sets the parts of the documents to be read. 
+     * 
+     * @param projection the XPaths of the nodes to read (null to read the whole documents)
+     */
+    public void setProjection(XSProjection projection) {
+        this.projection = projection;
+    }
+
+    /**
+     * Reads the documents and waits for all of them to be read.
+     * The sources are either the streams (which are closed after the reading) 
+     * or the system ids (URLs) of the documents.
+     * 
+     * @param sources the documents to read
+     * 
+     * @return the results in the order of the sources
+     * 
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    public List<Result<M>> read(List<? extends StreamSource> sources) throws InterruptedException {
+        // compile the schemas once for all the readers
+        template.warmUp();
+
+        final List<ReadTask> tasks = new ArrayList<>(sources.size());
+        for (StreamSource source : sources) {
+            tasks.add(new ReadTask(source));
+        }
+
+        final List<Future<M>> futures = executor.invokeAll(tasks);
+
+        final List<Result<M>> results = new ArrayList<>(futures.size());
+        for (int i = 0, n = futures.size(); i < n; i++) {
+            final StreamSource source = sources.get(i);
+            try {
+                results.add(new Result<>(source, futures.get(i).get(), null));
+            } catch(ExecutionException ex) {
+                results.add(new Result<M>(source, null, ex.getCause()));
+            }
+        }
+        return results;
+    }
+
+    private M read(StreamSource source) throws IOException, XMLStreamException {
+        final M model = factory.newModel();
+        model.copySettings(template);
+
+        final Reader characters = source.getReader();
+        InputStream in = source.getInputStream();
+        if (in == null && characters == null) {
+            in = new URL(source.getSystemId()).openStream();
+        }
+
+        try {
+            final XMLStreamReader reader = in != null ? 
+                    inputFactory.createXMLStreamReader(source.getSystemId(), in) :
+                    inputFactory.createXMLStreamReader(source.getSystemId(), characters);
+            try {
+                model.read(reader, null, projection);
+            } finally {
+                reader.close();
+            }
+        } finally {
+            if (in != null) {
+                in.close();
+            } else {
+                characters.close();
+            }
+        }
+        return model;
+    }
+
+    /**
+     * The factory of the models the documents are read into.
+     * 
+     * @param <M> the type of the models
+     */
+    public interface ModelFactory<M extends XSModel<?,?>> {
+        M newModel();
+    }
+
+    /**
+     * The result of the document reading: either the model or the error.
+     * 
+     * @param <M> the type of the model
+     */
+    public final static class Result<M> {
+        private final StreamSource source;
+        private final M model;
+        private final Throwable error;
+
+        private Result(StreamSource source, M model, Throwable error) {
+            this.source = source;
+            this.model = model;
+            this.error = error;
+        }
+
+        public StreamSource getSource() {
+            return source;
+        }
+
+        /**
+         * @return the model of the document or null if the document wasn't read.
+         */
+        public M getModel() {
+            return model;
+        }
+
+        /**
+         * @return the error the document reading failed with or null if the document was read.
+         */
+        public Throwable getError() {
+            return error;
+        }
+
+        public boolean isSuccess() {
+            return error == null;
+        }
+    }
+
+    private class ReadTask implements Callable<M> {
+        private final StreamSource source;
+
+        private ReadTask(StreamSource source) {
+            this.source = source;
+        }
+
+        @Override
+        public M call() throws Exception {
+            return read(source);
+        }
+    }
+}
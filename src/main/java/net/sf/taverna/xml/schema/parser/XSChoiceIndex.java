@@ -0,0 +1,298 @@
+/**
+ * *****************************************************************************
+ * Copyright (C) 2014 Spanish National Bioinformatics Institute (INB),
+ * Barcelona Supercomputing Center and The University of Manchester
+ *
+ * Modifications to the initial code base are copyright of their respective
+ * authors, or their employers as appropriate.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ *****************************************************************************
+ */
+
+package net.sf.taverna.xml.schema.parser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.xml.namespace.QName;
+import org.apache.ws.commons.schema.XmlSchemaAll;
+import org.apache.ws.commons.schema.XmlSchemaChoice;
+import org.apache.ws.commons.schema.XmlSchemaComplexType;
+import org.apache.ws.commons.schema.XmlSchemaElement;
+import org.apache.ws.commons.schema.XmlSchemaGroupRef;
+import org.apache.ws.commons.schema.XmlSchemaObject;
+import org.apache.ws.commons.schema.XmlSchemaParticle;
+import org.apache.ws.commons.schema.XmlSchemaSequence;
+import org.apache.ws.commons.schema.XmlSchemaSequenceMember;
+import org.apache.ws.commons.schema.XmlSchemaSimpleType;
+import org.apache.ws.commons.schema.XmlSchemaType;
+
+/**
+ * Immutable index of the choice branches.
+ * For every branch it keeps the set of the elements the branch may start with
+ * and the label to display, so the branch could be found by the element name
+ * without walking the particles.
+ * 
+ * The index is built once per choice and memoized in the choice meta info.
+ * 
+ * @author Dmitry Repchevsky
+ */
+
+public final class XSChoiceIndex {
+
+    private final List<XmlSchemaParticle> branches;
+    private final List<Set<QName>> firstElements;
+    private final List<String> labels;
+    private final Map<QName, Integer> starts;
+    private final Map<XmlSchemaObject, Integer> positions;
+    private final Map<XmlSchemaObject, Integer> members;
+
+    private XSChoiceIndex(XmlSchemaChoice choice) {
+        final List<XmlSchemaParticle> branchList = new ArrayList<>();
+        final List<Set<QName>> firstList = new ArrayList<>();
+        final List<String> labelList = new ArrayList<>();
+
+        starts = new IdentityHashMap<>();
+        positions = new IdentityHashMap<>();
+        members = new IdentityHashMap<>();
+
+        for (XmlSchemaObject item : choice.getItems()) {
+            if (!(item instanceof XmlSchemaParticle)) {
+                continue;
+            }
+            final XmlSchemaParticle particle = (XmlSchemaParticle)item;
+            final Integer position = branchList.size();
+
+            final Set<QName> first = new LinkedHashSet<>();
+            addFirstElements(first, particle);
+            for (QName symbol : first) {
+                // the first branch wins if the choice is ambiguous
+                if (!starts.containsKey(symbol)) {
+                    starts.put(symbol, position);
+                }
+            }
+
+            branchList.add(particle);
+            firstList.add(Collections.unmodifiableSet(first));
+            labelList.add(getLabel(particle, first));
+            positions.put(particle, position);
+            addMembers(particle, position);
+        }
+
+        branches = Collections.unmodifiableList(branchList);
+        firstElements = Collections.unmodifiableList(firstList);
+        labels = Collections.unmodifiableList(labelList);
+    }
+
+    /**
+     * Returns the branches index of the choice.
+     * The index is built on the first call and reused afterwards.
+     * 
+     * @param choice the choice
+     * 
+     * @return the index of the choice branches
+     */
+    public static XSChoiceIndex get(XmlSchemaChoice choice) {
+        synchronized(choice) {
+            final Map<Object, Object> metaInfo = choice.getMetaInfoMap();
+            XSChoiceIndex index = metaInfo == null ? null : (XSChoiceIndex)metaInfo.get(XSChoiceIndex.class);
+            if (index == null) {
+                index = new XSChoiceIndex(choice);
+                choice.addMetaInfo(XSChoiceIndex.class, index);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * @return the choice branches in the schema order.
+     */
+    public List<XmlSchemaParticle> getBranches() {
+        return branches;
+    }
+
+    /**
+     * @return the branch that is used when no other is chosen or null for an empty choice.
+     */
+    public XmlSchemaParticle getDefaultBranch() {
+        return branches.isEmpty() ? null : branches.get(0);
+    }
+
+    /**
+     * @param branch the choice branch
+     * 
+     * @return the position of the branch in the choice or -1 if there is no such branch.
+     */
+    public int indexOf(Object branch) {
+        final Integer position = positions.get(branch);
+        return position == null ? -1 : position;
+    }
+
+    /**
+     * Finds the branch that starts with the element.
+     * 
+     * @param symbol the interned element name (see XSSymbolTable)
+     * 
+     * @return the position of the branch or -1 if no branch starts with the element.
+     */
+    public int getBranch(QName symbol) {
+        final Integer position = starts.get(symbol);
+        return position == null ? -1 : position;
+    }
+
+    /**
+     * Finds the branch the component content currently belongs to.
+     * The particles which are not of the choice (i.e. inherited from the base 
+     * type of the extension) are ignored.
+     * 
+     * @param component the component which content is the choice
+     * 
+     * @return the position of the branch or -1 if the content matches no branch.
+     */
+    public int getBranch(XSComponent component) {
+        for (int i = 0, n = component.getChildCount(); i < n; i++) {
+            final Object child = component.getChildAt(i);
+            if (child instanceof XSParticle) {
+                final Integer position = members.get(((XSParticle)child).getXSComponent());
+                if (position != null) {
+                    return position;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param branch the position of the branch
+     * 
+     * @return the names (interned) of the elements the branch may start with.
+     */
+    public Set<QName> getFirstElements(int branch) {
+        return firstElements.get(branch);
+    }
+
+    /**
+     * @param branch the position of the branch
+     * 
+     * @return the text to display for the branch.
+     */
+    public String getLabel(int branch) {
+        return labels.get(branch);
+    }
+
+    /**
+     * Collects the elements the particle may start with.
+     * 
+     * @return true if the particle may be empty
+     */
+    private static boolean addFirstElements(Set<QName> first, XmlSchemaParticle particle) {
+        boolean optional;
+        if (particle instanceof XmlSchemaElement) {
+            final XmlSchemaElement element = XSModel.getElement((XmlSchemaElement)particle);
+            first.add(XSSymbolTable.intern(XSModel.getWireName(element)));
+            optional = false;
+        } else if (particle instanceof XmlSchemaSequence) {
+            optional = true;
+            for (XmlSchemaSequenceMember item : ((XmlSchemaSequence)particle).getItems()) {
+                if (!addFirstElements(first, (XmlSchemaParticle)item)) {
+                    optional = false;
+                    break;
+                }
+            }
+        } else if (particle instanceof XmlSchemaChoice) {
+            optional = false;
+            for (XmlSchemaObject item : ((XmlSchemaChoice)particle).getItems()) {
+                optional |= addFirstElements(first, (XmlSchemaParticle)item);
+            }
+        } else if (particle instanceof XmlSchemaAll) {
+            optional = true;
+            for (XmlSchemaElement element : ((XmlSchemaAll)particle).getItems()) {
+                optional &= addFirstElements(first, element);
+            }
+        } else if (particle instanceof XmlSchemaGroupRef) {
+            final XmlSchemaParticle group = ((XmlSchemaGroupRef)particle).getParticle();
+            optional = group == null || addFirstElements(first, group);
+        } else {
+            // xs:any
+            optional = false;
+        }
+        return optional || particle.getMinOccurs() == 0;
+    }
+
+    /**
+     * Maps all the element particles of the branch (both the references and 
+     * the referenced elements) to the branch position.
+     */
+    private void addMembers(XmlSchemaParticle particle, Integer position) {
+        if (particle instanceof XmlSchemaElement) {
+            putMember(particle, position);
+            putMember(XSModel.getElement((XmlSchemaElement)particle), position);
+        } else if (particle instanceof XmlSchemaSequence) {
+            for (XmlSchemaSequenceMember item : ((XmlSchemaSequence)particle).getItems()) {
+                addMembers((XmlSchemaParticle)item, position);
+            }
+        } else if (particle instanceof XmlSchemaChoice) {
+            for (XmlSchemaObject item : ((XmlSchemaChoice)particle).getItems()) {
+                addMembers((XmlSchemaParticle)item, position);
+            }
+        } else if (particle instanceof XmlSchemaAll) {
+            for (XmlSchemaElement element : ((XmlSchemaAll)particle).getItems()) {
+                addMembers(element, position);
+            }
+        } else if (particle instanceof XmlSchemaGroupRef) {
+            final XmlSchemaParticle group = ((XmlSchemaGroupRef)particle).getParticle();
+            if (group != null) {
+                addMembers(group, position);
+            }
+        }
+    }
+
+    private void putMember(XmlSchemaObject member, Integer position) {
+        // the first branch wins if the choice is ambiguous
+        if (!members.containsKey(member)) {
+            members.put(member, position);
+        }
+    }
+
+    private static String getLabel(XmlSchemaParticle particle, Set<QName> first) {
+        if (particle instanceof XmlSchemaElement) {
+            final XmlSchemaElement element = XSModel.getElement((XmlSchemaElement)particle);
+            final XmlSchemaType type = XSTypeHierarchy.getType(element);
+            final String name = element.getName();
+            if (type instanceof XmlSchemaSimpleType) {
+                // simple type branches are shown by their type names
+                return type.getName() != null ? type.getName() : name;
+            }
+            if (type instanceof XmlSchemaComplexType && type.getName() != null) {
+                return name + " (" + type.getName() + ")";
+            }
+            return name;
+        }
+
+        final StringBuilder label = new StringBuilder();
+        for (QName symbol : first) {
+            if (label.length() > 0) {
+                label.append(", ");
+            }
+            label.append(symbol.getLocalPart());
+        }
+        return label.append(" ...").toString();
+    }
+}
@@ -0,0 +1,358 @@
+/**
+ * *****************************************************************************
+ * Copyright (C) 2014 Spanish National Bioinformatics Institute (INB),
+ * Barcelona Supercomputing Center and The University of Manchester
+ *
+ * Modifications to the initial code base are copyright of their respective
+ * authors, or their employers as appropriate.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ *****************************************************************************
+ */
+
+package net.sf.taverna.xml.schema.parser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.xml.namespace.QName;
+import org.apache.ws.commons.schema.XmlSchema;
+import org.apache.ws.commons.schema.XmlSchemaAll;
+import org.apache.ws.commons.schema.XmlSchemaAttribute;
+import org.apache.ws.commons.schema.XmlSchemaAttributeGroup;
+import org.apache.ws.commons.schema.XmlSchemaAttributeGroupMember;
+import org.apache.ws.commons.schema.XmlSchemaAttributeGroupRef;
+import org.apache.ws.commons.schema.XmlSchemaAttributeOrGroupRef;
+import org.apache.ws.commons.schema.XmlSchemaChoice;
+import org.apache.ws.commons.schema.XmlSchemaCollection;
+import org.apache.ws.commons.schema.XmlSchemaComplexContentExtension;
+import org.apache.ws.commons.schema.XmlSchemaComplexContentRestriction;
+import org.apache.ws.commons.schema.XmlSchemaComplexType;
+import org.apache.ws.commons.schema.XmlSchemaContent;
+import org.apache.ws.commons.schema.XmlSchemaContentModel;
+import org.apache.ws.commons.schema.XmlSchemaElement;
+import org.apache.ws.commons.schema.XmlSchemaGroup;
+import org.apache.ws.commons.schema.XmlSchemaGroupRef;
+import org.apache.ws.commons.schema.XmlSchemaParticle;
+import org.apache.ws.commons.schema.XmlSchemaSequence;
+import org.apache.ws.commons.schema.XmlSchemaSimpleContentExtension;
+import org.apache.ws.commons.schema.XmlSchemaSimpleType;
+import org.apache.ws.commons.schema.XmlSchemaType;
+import org.apache.ws.commons.schema.utils.XmlSchemaObjectBase;
+import org.apache.ws.commons.schema.utils.XmlSchemaRef;
+
+/**
+ * Immutable "compiled" view of the complex type content model.
+ * It holds everything the model needs to know about the complex type
+ * (flattened elements and attributes, content particles, simple content type)
+ * so the particle / extension / attribute group graph is walked only once.
+ *
+ * The compiled type is memoized in the XML Schema type meta info, so it lives
+ * as long as the type itself.
+ *
+ * @author Dmitry Repchevsky
+ */
+
+public final class XSCompiledType {
+
+    private final XmlSchemaComplexType complexType;
+
+    private final Map<QName, XmlSchemaElement> elements;
+    private final Map<QName, XmlSchemaAttribute> attributes;
+    private final Map<QName, XmlSchemaElement> elementSymbols;
+    private final Map<QName, XmlSchemaAttribute> attributeSymbols;
+    private final List<XmlSchemaParticle> particles;
+    private final List<XmlSchemaElement> contentElements;
+    private final XmlSchemaParticle particle;
+    private final XmlSchemaSimpleType simpleType;
+    private final boolean mixed;
+
+    private XSCompiledType(XmlSchemaComplexType complexType) {
+        this.complexType = complexType;
+
+        final Map<QName, XmlSchemaElement> elementsMap = new LinkedHashMap<>();
+        final Map<QName, XmlSchemaAttribute> attributesMap = new LinkedHashMap<>();
+        final List<XmlSchemaParticle> particlesList = new ArrayList<>();
+        final List<XmlSchemaElement> contentElementsList = new ArrayList<>();
+
+        XmlSchemaParticle contentParticle = complexType.getParticle();
+        XmlSchemaSimpleType contentSimpleType = null;
+
+        final XmlSchemaContentModel contentModel = complexType.getContentModel();
+        final XmlSchemaContent content = contentModel == null ? null : contentModel.getContent();
+        final XmlSchemaType baseType = XSTypeHierarchy.getBaseType(complexType);
+
+        if (content instanceof XmlSchemaComplexContentExtension) {
+            XmlSchemaComplexContentExtension complexContentExtension = (XmlSchemaComplexContentExtension)content;
+
+            if (baseType instanceof XmlSchemaComplexType) {
+                final XSCompiledType base = get((XmlSchemaComplexType)baseType);
+                elementsMap.putAll(base.elements);
+                attributesMap.putAll(base.attributes);
+                particlesList.addAll(base.particles);
+                contentElementsList.addAll(base.contentElements);
+                contentSimpleType = base.simpleType;
+            } else if (baseType instanceof XmlSchemaSimpleType) {
+                contentSimpleType = (XmlSchemaSimpleType)baseType;
+            }
+            addAttributes(attributesMap, complexContentExtension.getAttributes());
+
+            if (contentParticle == null) {
+                contentParticle = complexContentExtension.getParticle();
+            }
+        } else if (content instanceof XmlSchemaComplexContentRestriction) {
+            XmlSchemaComplexContentRestriction complexContentRestriction = (XmlSchemaComplexContentRestriction)content;
+
+            contentSimpleType = XSTypeHierarchy.getSimpleType(baseType);
+
+            addAttributes(attributesMap, complexContentRestriction.getAttributes());
+
+            if (contentParticle == null) {
+                contentParticle = complexContentRestriction.getParticle();
+            }
+        } else if (content instanceof XmlSchemaSimpleContentExtension) {
+            XmlSchemaSimpleContentExtension simpleContentExtension = (XmlSchemaSimpleContentExtension)content;
+
+            contentSimpleType = XSTypeHierarchy.getSimpleType(baseType);
+
+            addAttributes(attributesMap, simpleContentExtension.getAttributes());
+        }
+
+        addAttributes(attributesMap, complexType.getAttributes());
+
+        if (contentParticle != null) {
+            particlesList.add(contentParticle);
+            addElements(elementsMap, contentParticle);
+            addContentElements(contentElementsList, contentParticle);
+        }
+
+        this.elements = Collections.unmodifiableMap(elementsMap);
+        this.attributes = Collections.unmodifiableMap(attributesMap);
+        this.elementSymbols = new IdentityHashMap<>(elementsMap);
+        this.attributeSymbols = new IdentityHashMap<>(attributesMap);
+        this.particles = Collections.unmodifiableList(particlesList);
+        this.contentElements = Collections.unmodifiableList(contentElementsList);
+        this.particle = contentParticle;
+        this.simpleType = contentSimpleType;
+        this.mixed = complexType.isMixed();
+    }
+
+    /**
+     * Returns the compiled content model of the complex type.
+     * The compiled type is built on the first call and reused afterwards.
+     *
+     * @param complexType the complex type to get the compiled content model for
+     *
+     * @return the compiled content model of the type
+     */
+    public static XSCompiledType get(XmlSchemaComplexType complexType) {
+        synchronized(complexType) {
+            final Map<Object, Object> metaInfo = complexType.getMetaInfoMap();
+            XSCompiledType compiledType = metaInfo == null ? null : (XSCompiledType)metaInfo.get(XSCompiledType.class);
+            if (compiledType == null) {
+                compiledType = new XSCompiledType(complexType);
+                complexType.addMetaInfo(XSCompiledType.class, compiledType);
+            }
+            return compiledType;
+        }
+    }
+
+    public XmlSchemaComplexType getComplexType() {
+        return complexType;
+    }
+
+    /**
+     * @return all the elements that may appear in the type content (including inherited ones).
+     */
+    public Map<QName, XmlSchemaElement> getElements() {
+        return elements;
+    }
+
+    /**
+     * @return all the attributes of the type (including inherited ones).
+     * Inherited attributes go first.
+     */
+    public Map<QName, XmlSchemaAttribute> getAttributes() {
+        return attributes;
+    }
+
+    /**
+     * Finds the content element by its name.
+     * 
+     * @param symbol the interned element name (see XSSymbolTable)
+     * 
+     * @return the element or null if the type has no such element
+     */
+    public XmlSchemaElement getElement(QName symbol) {
+        return elementSymbols.get(symbol);
+    }
+
+    /**
+     * Finds the attribute by its name.
+     * 
+     * @param symbol the interned attribute name (see XSSymbolTable)
+     * 
+     * @return the attribute or null if the type has no such attribute
+     */
+    public XmlSchemaAttribute getAttribute(QName symbol) {
+        return attributeSymbols.get(symbol);
+    }
+
+    /**
+     * @return the content particles in the document order (base type particles go first).
+     */
+    public List<XmlSchemaParticle> getParticles() {
+        return particles;
+    }
+
+    /**
+     * Returns the element particles of the type content in the document order 
+     * (base type particles go first). Unlike getElements() the particles are 
+     * not resolved (the element references are kept as they are) and every 
+     * particle is included, so the position of the particle identifies it.
+     * 
+     * @return the element particles of the type content
+     */
+    public List<XmlSchemaElement> getContentElements() {
+        return contentElements;
+    }
+
+    /**
+     * @return the particle defined by the type itself (not inherited one) or null.
+     */
+    public XmlSchemaParticle getParticle() {
+        return particle;
+    }
+
+    /**
+     * @return the simple type of the type content or null if the content is not simple.
+     */
+    public XmlSchemaSimpleType getSimpleType() {
+        return simpleType;
+    }
+
+    public boolean isMixed() {
+        return mixed;
+    }
+
+    private static void addAttributes(Map<QName, XmlSchemaAttribute> attributes, List<XmlSchemaAttributeOrGroupRef> attributeOrGroupRefs) {
+        for (XmlSchemaAttributeOrGroupRef attributeOrGroupRef : attributeOrGroupRefs) {
+            addAttributes(attributes, (XmlSchemaAttributeGroupMember)attributeOrGroupRef);
+        }
+    }
+
+    private static void addAttributes(Map<QName, XmlSchemaAttribute> attributes, XmlSchemaAttributeGroupMember attributeGroupMember) {
+        if (attributeGroupMember instanceof XmlSchemaAttribute) {
+            XmlSchemaAttribute attribute = getAttribute((XmlSchemaAttribute)attributeGroupMember);
+            attributes.put(XSSymbolTable.intern(attribute.getWireName()), attribute);
+        } else {
+            XmlSchemaAttributeGroup attributeGroup;
+            if (attributeGroupMember instanceof XmlSchemaAttributeGroup) {
+                attributeGroup = (XmlSchemaAttributeGroup)attributeGroupMember;
+            }
+            else {
+                XmlSchemaAttributeGroupRef attributeGroupRef = (XmlSchemaAttributeGroupRef)attributeGroupMember;
+                XmlSchemaRef<XmlSchemaAttributeGroup> ref = attributeGroupRef.getRef();
+                attributeGroup = ref.getTarget();
+            }
+
+            List<XmlSchemaAttributeGroupMember> attributeGroupMembers = attributeGroup.getAttributes();
+            for (XmlSchemaAttributeGroupMember xmlSchemaAttributeGroupMember : attributeGroupMembers) {
+                addAttributes(attributes, xmlSchemaAttributeGroupMember);
+            }
+        }
+    }
+
+    private static void addElements(Map<QName, XmlSchemaElement> elements, XmlSchemaObjectBase item) {
+        if (item instanceof XmlSchemaElement) {
+            XmlSchemaElement element = XSModel.getElement((XmlSchemaElement)item);
+            elements.put(XSSymbolTable.intern(XSModel.getWireName(element)), element);
+        } else if(item instanceof XmlSchemaSequence) {
+            final XmlSchemaSequence sequence = (XmlSchemaSequence)item;
+            addElements(elements, sequence.getItems());
+        } else if (item instanceof XmlSchemaChoice) {
+            XmlSchemaChoice choice = (XmlSchemaChoice)item;
+            addElements(elements, choice.getItems());
+        } else if (item instanceof XmlSchemaGroup) {
+            XmlSchemaGroup group = (XmlSchemaGroup)item;
+            addElements(elements, group.getParticle());
+        } else if (item instanceof XmlSchemaGroupRef) {
+            XmlSchemaGroupRef groupRef = (XmlSchemaGroupRef)item;
+            addElements(elements, groupRef.getParticle());
+        }
+    }
+
+    private static void addElements(Map<QName, XmlSchemaElement> elements, List<? extends XmlSchemaObjectBase> items) {
+        for (XmlSchemaObjectBase item : items) {
+            addElements(elements, item);
+        }
+    }
+
+    private static void addContentElements(List<XmlSchemaElement> elements, XmlSchemaObjectBase item) {
+        if (item instanceof XmlSchemaElement) {
+            elements.add((XmlSchemaElement)item);
+        } else if (item instanceof XmlSchemaSequence) {
+            for (XmlSchemaObjectBase member : ((XmlSchemaSequence)item).getItems()) {
+                addContentElements(elements, member);
+            }
+        } else if (item instanceof XmlSchemaChoice) {
+            for (XmlSchemaObjectBase member : ((XmlSchemaChoice)item).getItems()) {
+                addContentElements(elements, member);
+            }
+        } else if (item instanceof XmlSchemaAll) {
+            for (XmlSchemaObjectBase member : ((XmlSchemaAll)item).getItems()) {
+                addContentElements(elements, member);
+            }
+        } else if (item instanceof XmlSchemaGroup) {
+            addContentElements(elements, ((XmlSchemaGroup)item).getParticle());
+        } else if (item instanceof XmlSchemaGroupRef) {
+            addContentElements(elements, ((XmlSchemaGroupRef)item).getParticle());
+        }
+    }
+
+    /**
+     * Finds the attribute declaration.
+     * <xs:attribute name="surname" type="xs:string" />
+     * ...
+     * <xs:attribute ref="surname"/>
+     *
+     *
+     * @param attribute the attribute for which is declaration is needed
+     *
+     * @return attribute declaration which is either a referred attribute or
+     * attribute itself.
+     */
+    private static XmlSchemaAttribute getAttribute(XmlSchemaAttribute attribute) {
+        if (attribute.isRef()) {
+            XmlSchemaRef<XmlSchemaAttribute> ref = attribute.getRef();
+            XmlSchemaAttribute refAttribute = ref.getTarget();
+            if (refAttribute != null) {
+                return refAttribute;
+            }
+            QName targetName = ref.getTargetQName();
+            XmlSchema schema = attribute.getParent();
+            XmlSchemaCollection schemaCollection = schema.getParent();
+            if (schemaCollection != null) {
+                attribute = schemaCollection.getAttributeByQName(targetName);
+            } else {
+                attribute = schema.getAttributeByName(targetName);
+            }
+        }
+        return attribute;
+    }
+}
@@ -24,6 +24,7 @@
 
 package net.sf.taverna.xml.schema.parser;
 
+import java.util.concurrent.atomic.AtomicLong;
 import javax.xml.XMLConstants;
 import javax.xml.namespace.NamespaceContext;
 import javax.xml.namespace.QName;
@@ -31,6 +32,7 @@ import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamWriter;
 import org.apache.ws.commons.schema.XmlSchema;
 import org.apache.ws.commons.schema.XmlSchemaObject;
+import org.apache.ws.commons.schema.XmlSchemaSimpleType;
 import org.apache.ws.commons.schema.XmlSchemaType;
 import org.apache.ws.commons.schema.utils.NamespacePrefixList;
 import org.apache.ws.commons.schema.utils.XmlSchemaNamed;
@@ -42,7 +44,27 @@ import org.apache.ws.commons.schema.utils.XmlSchemaNamed;
  */
 
 public abstract class XSComponent<T,V extends T, U extends XmlSchemaObject> extends XSNode<T,V> {
+    private final static AtomicLong VALIDATION_HITS = new AtomicLong();
+    private final static AtomicLong VALIDATION_MISSES = new AtomicLong();
+
+    // the shared counters are only updated when the statistics are enabled
+    private static volatile boolean validationStatistics;
+
     protected U component;
+
+    private Boolean valid;
+    private boolean validated;
+
+    private String xpathStep;
+
+    private XSModel loader;
+
+    private XmlSchemaSimpleType simpleType;
+    private boolean simpleTypeResolved;
+
+    // the bytes written for the node by XSUTF8Serializer and the plan they were written with
+    private byte[] written;
+    private Object writtenKey;
     
     public XSComponent(U component) {
         this(component, null);
@@ -62,16 +84,308 @@ public abstract class XSComponent<T,V extends T, U extends XmlSchemaObject> exte
         // the type could be anonymouse
         QName qname = type.getQName();
         
-        return qname != null ? new QName(qname.getNamespaceURI(), qname.getLocalPart()) : new QName("");
+        return qname != null ? XSSymbolTable.intern(qname) : XSSymbolTable.EMPTY;
     }
     
     public abstract QName getName();
     public abstract XmlSchemaType getType();
 
-    public abstract Boolean validate();
+    /**
+     * Returns the simple type of the component content.
+     * The type is resolved on the first call and reused afterwards.
+     * 
+     * @return the simple type or null if the component content is not simple.
+     */
+    public final XmlSchemaSimpleType getSimpleType() {
+        if (!simpleTypeResolved) {
+            final XmlSchemaType type = getType();
+            simpleType = type == null ? null : XSTypeHierarchy.getSimpleType(type);
+            simpleTypeResolved = true;
+        }
+        return simpleType;
+    }
+
+    /**
+     * Checks the node value against the facets of the node simple type.
+     * Typed values are checked in their canonical lexical form, QNames are not checked.
+     * The base64Binary values must be valid base64 ones: the large values 
+     * (which are not loaded into the memory) are only checked to have been decoded, 
+     * other large values are not checked at all.
+     * 
+     * @return false if the node value is not allowed by the type facets.
+     */
+    protected final boolean isValidValue() {
+        final Object value = getUserObject();
+        if (value instanceof XSLargeValue) {
+            // the base64Binary value which can't be decoded is kept as the text
+            final XmlSchemaSimpleType type = getSimpleType();
+            return ((XSLargeValue)value).isBinary() || type == null || !XSValueType.get(type).isBase64();
+        }
+        if (value != null && !(value instanceof QName)) {
+            final XmlSchemaSimpleType type = getSimpleType();
+            if (type == null) {
+                return true;
+            }
+            final String text = getLexicalValue(null);
+            if (value instanceof String && XSValueType.get(type).isBase64() && !XSLargeValue.isBase64(text)) {
+                return false;
+            }
+            return XSFacetValidator.get(type).isValid(text);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the node value in its lexical form.
+     * Typed values (see XSModel.setTypedValues()) are printed in the 
+     * canonical form of the node simple type.
+     * Large values (see XSModel.setLargeValueThreshold()) are loaded from their store.
+     * 
+     * @param context the namespace context to print QName prefixes (may be null)
+     * 
+     * @return the lexical value of the node or null if the node has no value.
+     */
+    public final String getLexicalValue(NamespaceContext context) {
+        final Object value = getUserObject();
+        if (value == null || value instanceof String) {
+            return (String)value;
+        }
+        final XmlSchemaSimpleType type = getSimpleType();
+        return type != null ? XSValueType.get(type).print(value, context) : value.toString();
+    }
+
+    /**
+     * Writes the node value as the element characters.
+     * Large values are streamed from their store chunk by chunk.
+     * 
+     * @param stream the stream to write the value to
+     * 
+     * @throws XMLStreamException 
+     */
+    protected final void writeValue(XMLStreamWriter stream) throws XMLStreamException {
+        final Object value = getUserObject();
+        if (value instanceof XSLargeValue) {
+            ((XSLargeValue)value).write(stream);
+        } else {
+            final String text = getLexicalValue(stream.getNamespaceContext());
+            if (text != null) {
+                stream.writeCharacters(text);
+            }
+        }
+    }
+
+    /**
+     * Validates the component subtree.
+     * The result is cached until the node value or the structure of its 
+     * subtree is changed.
+     * 
+     * @return TRUE if the component is valid, FALSE if it is not, 
+     * null if the component is empty.
+     */
+    public final Boolean validate() {
+        if (validated) {
+            if (validationStatistics) {
+                VALIDATION_HITS.incrementAndGet();
+            }
+        } else {
+            if (validationStatistics) {
+                VALIDATION_MISSES.incrementAndGet();
+            }
+            // the node which children are not created yet is empty
+            valid = loader != null ? null : computeValidity();
+            validated = true;
+        }
+        return valid;
+    }
+
+    /**
+     * Returns the bytes written for the node by XSUTF8Serializer if they 
+     * were written with the same namespace plan and the node (its subtree) 
+     * has not been changed since.
+     * 
+     * @param key the namespace plan signature
+     * 
+     * @return the cached bytes or null
+     */
+    final byte[] getWritten(Object key) {
+        return written != null && (key == writtenKey || key.equals(writtenKey)) ? written : null;
+    }
+
+    final void setWritten(Object key, byte[] bytes) {
+        writtenKey = key;
+        written = bytes;
+    }
+
+    /**
+     * Drops cached validity (and written bytes) of this node and all its ancestors.
+     */
+    public void invalidate() {
+        XSNode node = this;
+        while (node instanceof XSComponent) {
+            XSComponent component = (XSComponent)node;
+            // cached bytes are only kept for validated nodes
+            component.written = null;
+            component.writtenKey = null;
+            if (!component.validated) {
+                // ancestors of a node that has no cached validity have no cached one either
+                break;
+            }
+            component.validated = false;
+            component.valid = null;
+            node = (XSNode)node.getParent();
+        }
+    }
+
+    @Override
+    protected void nodeChanged() {
+        invalidate();
+    }
+
+    /**
+     * Sets the node value. The store of the replaced large value is deleted.
+     */
+    @Override
+    public void setUserObject(Object object) {
+        final Object value = getUserObject();
+        super.setUserObject(object);
+        if (value != object && value instanceof XSLargeValue) {
+            ((XSLargeValue)value).dispose();
+        }
+    }
+
+    /**
+     * Removes the child node and deletes the stores of the large values 
+     * kept in its subtree. The nodes that are moved to another parent 
+     * are detached by remove(V) which keeps their values.
+     */
+    @Override
+    public void remove(int index) {
+        final Object child = getChildAt(index);
+        super.remove(index);
+        XSModel.disposeValues(child);
+    }
+
+    @Override
+    public void setParent(V newParent) {
+        // the bytes were written for the element at the previous place
+        written = null;
+        writtenKey = null;
+        super.setParent(newParent);
+    }
+
+    /**
+     * Defers the creation of the node children until they are accessed.
+     * 
+     * @param loader the model that creates the children
+     */
+    void setLoader(XSModel loader) {
+        this.loader = loader;
+    }
+
+    /**
+     * @return false if node children are not created yet.
+     */
+    public boolean isMaterialized() {
+        return loader == null;
+    }
+
+    @Override
+    protected void materialize() {
+        if (loader != null) {
+            final XSModel model = loader;
+            loader = null;
+            model.materialize(this);
+        }
+    }
+
+    @Override
+    public boolean isLeaf() {
+        // do not create children just to know whether there are any
+        return loader == null && super.isLeaf();
+    }
+
+    /**
+     * Enables the counting of the validate() calls (see getValidationCacheHits() 
+     * and getValidationCacheMisses()). The counters are shared by all the 
+     * models, so they are disabled by default.
+     * 
+     * @param enabled whether the validate() calls should be counted
+     */
+    public static void setValidationCacheStatistics(boolean enabled) {
+        validationStatistics = enabled;
+    }
+
+    /**
+     * @return number of validate() calls that were served from the cache.
+     */
+    public static long getValidationCacheHits() {
+        return VALIDATION_HITS.get();
+    }
+
+    /**
+     * @return number of validate() calls that had to compute validity.
+     */
+    public static long getValidationCacheMisses() {
+        return VALIDATION_MISSES.get();
+    }
+
+    public static void resetValidationCacheStatistics() {
+        VALIDATION_HITS.set(0);
+        VALIDATION_MISSES.set(0);
+    }
+
+    /**
+     * Computes the validity of the component validating its children.
+     * 
+     * @return TRUE if the component is valid, FALSE if it is not, 
+     * null if the component is empty.
+     */
+    protected abstract Boolean computeValidity();
+
     public abstract void write(XMLStreamWriter stream) throws XMLStreamException;
     public abstract String getXPath();
 
+    @Override
+    protected final String getXPathStep() {
+        if (xpathStep == null) {
+            xpathStep = createXPathStep();
+        }
+        return xpathStep;
+    }
+
+    /**
+     * Creates the XPath step for the component that is identified by its name.
+     * 
+     * @return the XPath step or null if the component is identified by its position.
+     */
+    protected String createXPathStep() {
+        return null;
+    }
+
+    /**
+     * Builds the XPath step for the named node.
+     * 
+     * @param qname the name of the node
+     * @param attribute whether the node is an attribute or an element
+     * 
+     * @return XPath step i.e. "/name", "/@name" or "/*[namespace-uri()='ns' and local-name()='name']"
+     */
+    protected static String createXPathStep(QName qname, boolean attribute) {
+        final String localpart = qname.getLocalPart();
+        final String namespace = qname.getNamespaceURI();
+
+        final StringBuilder step = new StringBuilder(attribute ? "/@" : "/");
+        if (namespace.isEmpty()) {
+            step.append(localpart);
+        } else {
+            if (!attribute) {
+                step.append('*');
+            }
+            step.append("[namespace-uri()='").append(namespace).append("' and local-name()='").append(localpart).append("']");
+        }
+        return step.toString();
+    }
+
     protected void setPrefix(XMLStreamWriter stream) throws XMLStreamException {
         final QName qname = getName();
         final String namespace = qname.getNamespaceURI();
@@ -0,0 +1,285 @@
+/**
+ * *****************************************************************************
+ * Copyright (C) 2014 Spanish National Bioinformatics Institute (INB),
+ * Barcelona Supercomputing Center and The University of Manchester
+ *
+ * Modifications to the initial code base are copyright of their respective
+ * authors, or their employers as appropriate.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ *****************************************************************************
+ */
+
+package net.sf.taverna.xml.schema.parser;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.xml.namespace.QName;
+import org.apache.ws.commons.schema.XmlSchemaAll;
+import org.apache.ws.commons.schema.XmlSchemaAny;
+import org.apache.ws.commons.schema.XmlSchemaChoice;
+import org.apache.ws.commons.schema.XmlSchemaComplexType;
+import org.apache.ws.commons.schema.XmlSchemaElement;
+import org.apache.ws.commons.schema.XmlSchemaGroupRef;
+import org.apache.ws.commons.schema.XmlSchemaObject;
+import org.apache.ws.commons.schema.XmlSchemaParticle;
+import org.apache.ws.commons.schema.XmlSchemaSequence;
+import org.apache.ws.commons.schema.XmlSchemaSequenceMember;
+
+/**
+ * Deterministic automaton of the complex type content model.
+ * 
+ * Every element particle of the content model (including inherited ones) is 
+ * a state of the automaton, so the element that is read is placed exactly 
+ * where the content model expects it and the reader needs one table lookup 
+ * per element. The START state precedes the content.
+ * 
+ * Occurrences are counted as "optional" (minOccurs = 0) and "repeated" 
+ * (maxOccurs > 1) only. The xs:all group is treated as a repeated choice.
+ * 
+ * The automaton is built once per complex type and memoized in the type meta info.
+ * 
+ * @author Dmitry Repchevsky
+ */
+
+public final class XSContentModel {
+
+    public final static int START = 0;
+
+    private final List<XmlSchemaElement> elements;
+    private final List<Map<QName, Integer>> transitions;
+    private final int[] wildcards;
+    private final boolean[] finals;
+
+    private XSContentModel(XmlSchemaComplexType complexType) {
+        elements = new ArrayList<>();
+        elements.add(null); // START state
+
+        final List<BitSet> follow = new ArrayList<>();
+        follow.add(null);
+
+        // base type particles go first
+        final Fragment content = new Fragment();
+        for (XmlSchemaParticle particle : XSCompiledType.get(complexType).getParticles()) {
+            content.append(compile(particle, follow), follow);
+        }
+
+        final int size = elements.size();
+
+        finals = new boolean[size];
+        finals[START] = content.nullable;
+        for (int i = content.last.nextSetBit(0); i >= 0; i = content.last.nextSetBit(i + 1)) {
+            finals[i] = true;
+        }
+
+        wildcards = new int[size];
+        final List<Map<QName, Integer>> table = new ArrayList<>(size);
+        for (int state = 0; state < size; state++) {
+            final BitSet next = state == START ? content.first : follow.get(state);
+            final Map<QName, Integer> map = new IdentityHashMap<>();
+            wildcards[state] = -1;
+            for (int i = next.nextSetBit(0); i >= 0; i = next.nextSetBit(i + 1)) {
+                final XmlSchemaElement element = elements.get(i);
+                if (element == null) {
+                    if (wildcards[state] < 0) {
+                        wildcards[state] = i;
+                    }
+                } else {
+                    // the first (in the schema order) particle wins if the model is ambiguous
+                    final QName symbol = XSSymbolTable.intern(XSModel.getWireName(element));
+                    if (!map.containsKey(symbol)) {
+                        map.put(symbol, i);
+                    }
+                }
+            }
+            table.add(map.isEmpty() ? Collections.<QName, Integer>emptyMap() : map);
+        }
+        transitions = table;
+    }
+
+    /**
+     * Returns the content model automaton of the complex type.
+     * The automaton is built on the first call and reused afterwards.
+     * 
+     * @param complexType the complex type
+     * 
+     * @return the automaton of the type content model
+     */
+    public static XSContentModel get(XmlSchemaComplexType complexType) {
+        synchronized(complexType) {
+            final Map<Object, Object> metaInfo = complexType.getMetaInfoMap();
+            XSContentModel model = metaInfo == null ? null : (XSContentModel)metaInfo.get(XSContentModel.class);
+            if (model == null) {
+                model = new XSContentModel(complexType);
+                complexType.addMetaInfo(XSContentModel.class, model);
+            }
+            return model;
+        }
+    }
+
+    /**
+     * Makes a transition from the state by the element.
+     * 
+     * @param state the current state
+     * @param symbol the interned element name (see XSSymbolTable)
+     * 
+     * @return the next state or -1 if the element is not allowed in the state.
+     */
+    public int next(int state, QName symbol) {
+        final Integer next = transitions.get(state).get(symbol);
+        return next != null ? next : wildcards[state];
+    }
+
+    /**
+     * @param state the state of the automaton
+     * 
+     * @return the element of the state or null for the START state and wildcards (xs:any).
+     */
+    public XmlSchemaElement getElement(int state) {
+        return elements.get(state);
+    }
+
+    /**
+     * @param state the state of the automaton
+     * 
+     * @return true if the content may end in the state.
+     */
+    public boolean isFinal(int state) {
+        return finals[state];
+    }
+
+    /**
+     * @param state the state of the automaton
+     * 
+     * @return the names of the elements that are allowed in the state (not including wildcards).
+     */
+    public Set<QName> getExpected(int state) {
+        return Collections.unmodifiableSet(transitions.get(state).keySet());
+    }
+
+    /**
+     * @return the number of the automaton states (including the START state).
+     */
+    public int size() {
+        return elements.size();
+    }
+
+    private Fragment compile(XmlSchemaParticle particle, List<BitSet> follow) {
+        final Fragment fragment = new Fragment();
+        if (particle.getMaxOccurs() == 0) {
+            return fragment;
+        }
+
+        if (particle instanceof XmlSchemaElement) {
+            fragment.position(newState(XSModel.getElement((XmlSchemaElement)particle), follow));
+        } else if (particle instanceof XmlSchemaAny) {
+            fragment.position(newState(null, follow));
+        } else if (particle instanceof XmlSchemaSequence) {
+            for (XmlSchemaSequenceMember item : ((XmlSchemaSequence)particle).getItems()) {
+                fragment.append(compile((XmlSchemaParticle)item, follow), follow);
+            }
+        } else if (particle instanceof XmlSchemaChoice) {
+            final List<XmlSchemaObject> items = ((XmlSchemaChoice)particle).getItems();
+            fragment.nullable = items.isEmpty();
+            for (XmlSchemaObject item : items) {
+                fragment.merge(compile((XmlSchemaParticle)item, follow));
+            }
+        } else if (particle instanceof XmlSchemaAll) {
+            // merge() makes the fragment nullable if any member is, but all the members must be
+            boolean nullable = true;
+            for (XmlSchemaElement element : ((XmlSchemaAll)particle).getItems()) {
+                final Fragment item = compile(element, follow);
+                fragment.merge(item);
+                nullable &= item.nullable;
+            }
+            fragment.nullable = nullable;
+            fragment.repeat(follow);
+        } else if (particle instanceof XmlSchemaGroupRef) {
+            final XmlSchemaParticle group = ((XmlSchemaGroupRef)particle).getParticle();
+            if (group != null) {
+                fragment.append(compile(group, follow), follow);
+            }
+        }
+
+        if (particle.getMaxOccurs() > 1) {
+            fragment.repeat(follow);
+        }
+        if (particle.getMinOccurs() == 0) {
+            fragment.nullable = true;
+        }
+        return fragment;
+    }
+
+    private int newState(XmlSchemaElement element, List<BitSet> follow) {
+        elements.add(element);
+        follow.add(new BitSet());
+        return elements.size() - 1;
+    }
+
+    /**
+     * The part of the automaton compiled from the particle.
+     */
+    private static class Fragment {
+        private final BitSet first = new BitSet();
+        private final BitSet last = new BitSet();
+        private boolean nullable = true;
+
+        private void position(int state) {
+            first.set(state);
+            last.set(state);
+            nullable = false;
+        }
+
+        /**
+         * Appends the fragment that follows this one (sequence).
+         */
+        private void append(Fragment next, List<BitSet> follow) {
+            for (int i = last.nextSetBit(0); i >= 0; i = last.nextSetBit(i + 1)) {
+                follow.get(i).or(next.first);
+            }
+            if (nullable) {
+                first.or(next.first);
+            }
+            if (!next.nullable) {
+                last.clear();
+            }
+            last.or(next.last);
+            nullable &= next.nullable;
+        }
+
+        /**
+         * Adds the alternative fragment (choice).
+         */
+        private void merge(Fragment alternative) {
+            first.or(alternative.first);
+            last.or(alternative.last);
+            nullable |= alternative.nullable;
+        }
+
+        /**
+         * Allows the fragment to be repeated.
+         */
+        private void repeat(List<BitSet> follow) {
+            for (int i = last.nextSetBit(0); i >= 0; i = last.nextSetBit(i + 1)) {
+                follow.get(i).or(first);
+            }
+        }
+    }
+}
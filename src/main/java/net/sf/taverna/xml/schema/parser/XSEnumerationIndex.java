@@ -0,0 +1,168 @@
+/**
+ * *****************************************************************************
+ * Copyright (C) 2014 Spanish National Bioinformatics Institute (INB),
+ * Barcelona Supercomputing Center and The University of Manchester
+ *
+ * Modifications to the initial code base are copyright of their respective
+ * authors, or their employers as appropriate.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ *****************************************************************************
+ */
+
+package net.sf.taverna.xml.schema.parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.ws.commons.schema.XmlSchemaEnumerationFacet;
+import org.apache.ws.commons.schema.XmlSchemaFacet;
+import org.apache.ws.commons.schema.XmlSchemaSimpleType;
+import org.apache.ws.commons.schema.XmlSchemaSimpleTypeContent;
+import org.apache.ws.commons.schema.XmlSchemaSimpleTypeRestriction;
+import org.apache.ws.commons.schema.XmlSchemaType;
+
+/**
+ * Immutable index of the enumerated values of the simple type.
+ * The values are taken from the nearest restriction (of the type or its base
+ * types) that defines enumeration facets.
+ * 
+ * The index is built once per simple type and memoized in the type meta info.
+ * It provides constant time membership checks and the prefix lookups over 
+ * the sorted values.
+ * 
+ * @author Dmitry Repchevsky
+ */
+
+public final class XSEnumerationIndex {
+
+    private final List<String> values;
+    private final Map<String, Integer> positions;
+    private final String[] sorted;
+
+    private XSEnumerationIndex(XmlSchemaSimpleType simpleType) {
+        final List<String> list = new ArrayList<>();
+
+        for (XmlSchemaType type : XSTypeHierarchy.getDerivationChain(simpleType)) {
+            final XmlSchemaSimpleTypeContent content = type instanceof XmlSchemaSimpleType ? ((XmlSchemaSimpleType)type).getContent() : null;
+            if (content instanceof XmlSchemaSimpleTypeRestriction) {
+                for (XmlSchemaFacet facet : ((XmlSchemaSimpleTypeRestriction)content).getFacets()) {
+                    if (facet instanceof XmlSchemaEnumerationFacet && facet.getValue() != null) {
+                        list.add(facet.getValue().toString());
+                    }
+                }
+                if (!list.isEmpty()) {
+                    break;
+                }
+            }
+        }
+
+        positions = new HashMap<>();
+        for (int i = 0, n = list.size(); i < n; i++) {
+            final String value = list.get(i);
+            if (!positions.containsKey(value)) {
+                positions.put(value, i);
+            }
+        }
+
+        values = Collections.unmodifiableList(list);
+        sorted = positions.keySet().toArray(new String[positions.size()]);
+        Arrays.sort(sorted);
+    }
+
+    /**
+     * Returns the enumeration index of the simple type.
+     * The index is built on the first call and reused afterwards.
+     * 
+     * @param simpleType the simple type
+     * 
+     * @return the index of the type enumerated values (empty if the type is not an enumeration)
+     */
+    public static XSEnumerationIndex get(XmlSchemaSimpleType simpleType) {
+        synchronized(simpleType) {
+            final Map<Object, Object> metaInfo = simpleType.getMetaInfoMap();
+            XSEnumerationIndex index = metaInfo == null ? null : (XSEnumerationIndex)metaInfo.get(XSEnumerationIndex.class);
+            if (index == null) {
+                index = new XSEnumerationIndex(simpleType);
+                simpleType.addMetaInfo(XSEnumerationIndex.class, index);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * @return true if the type defines no enumerated values.
+     */
+    public boolean isEmpty() {
+        return values.isEmpty();
+    }
+
+    /**
+     * @return the enumerated values in the schema order.
+     */
+    public List<String> getValues() {
+        return values;
+    }
+
+    public boolean contains(String value) {
+        return positions.containsKey(value);
+    }
+
+    /**
+     * @param value the enumerated value
+     * 
+     * @return the position of the value in the schema order or -1 if there is no such value.
+     */
+    public int indexOf(String value) {
+        final Integer position = positions.get(value);
+        return position == null ? -1 : position;
+    }
+
+    /**
+     * Finds all the values that start with the prefix.
+     * 
+     * @param prefix the prefix of the values
+     * 
+     * @return the values starting with the prefix in the alphabetical order.
+     */
+    public List<String> getValues(String prefix) {
+        final int from = lowerBound(prefix);
+        int to = from;
+        while (to < sorted.length && sorted[to].startsWith(prefix)) {
+            to++;
+        }
+        return Collections.unmodifiableList(Arrays.asList(sorted).subList(from, to));
+    }
+
+    /**
+     * Finds the first (in the alphabetical order) value that starts with the prefix.
+     * 
+     * @param prefix the prefix of the value
+     * 
+     * @return the value or null if no value starts with the prefix.
+     */
+    public String getFirstValue(String prefix) {
+        final int position = lowerBound(prefix);
+        return position < sorted.length && sorted[position].startsWith(prefix) ? sorted[position] : null;
+    }
+
+    private int lowerBound(String prefix) {
+        final int position = Arrays.binarySearch(sorted, prefix);
+        return position < 0 ? -position - 1 : position;
+    }
+}
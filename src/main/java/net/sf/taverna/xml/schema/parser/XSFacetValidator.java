@@ -0,0 +1,405 @@
+/**
+ * *****************************************************************************
+ * Copyright (C) 2014 Spanish National Bioinformatics Institute (INB),
+ * Barcelona Supercomputing Center and The University of Manchester
+ *
+ * Modifications to the initial code base are copyright of their respective
+ * authors, or their employers as appropriate.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ *****************************************************************************
+ */
+
+package net.sf.taverna.xml.schema.parser;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import javax.xml.XMLConstants;
+import javax.xml.bind.DatatypeConverter;
+import javax.xml.namespace.QName;
+import org.apache.ws.commons.schema.XmlSchemaFacet;
+import org.apache.ws.commons.schema.XmlSchemaFractionDigitsFacet;
+import org.apache.ws.commons.schema.XmlSchemaLengthFacet;
+import org.apache.ws.commons.schema.XmlSchemaMaxExclusiveFacet;
+import org.apache.ws.commons.schema.XmlSchemaMaxInclusiveFacet;
+import org.apache.ws.commons.schema.XmlSchemaMaxLengthFacet;
+import org.apache.ws.commons.schema.XmlSchemaMinExclusiveFacet;
+import org.apache.ws.commons.schema.XmlSchemaMinInclusiveFacet;
+import org.apache.ws.commons.schema.XmlSchemaMinLengthFacet;
+import org.apache.ws.commons.schema.XmlSchemaPatternFacet;
+import org.apache.ws.commons.schema.XmlSchemaSimpleType;
+import org.apache.ws.commons.schema.XmlSchemaSimpleTypeContent;
+import org.apache.ws.commons.schema.XmlSchemaSimpleTypeRestriction;
+import org.apache.ws.commons.schema.XmlSchemaTotalDigitsFacet;
+import org.apache.ws.commons.schema.XmlSchemaType;
+import org.apache.ws.commons.schema.XmlSchemaWhiteSpaceFacet;
+
+/**
+ * Immutable validator of the simple type values compiled from the facets of 
+ * the type restrictions (including the restrictions of its base types).
+ * 
+ * The validator is built once per simple type and memoized in the type 
+ * meta info, so the patterns are translated and compiled only once.
+ * 
+ * @author Dmitry Repchevsky
+ */
+
+public final class XSFacetValidator {
+    
+    private enum Kind {STRING, DECIMAL, FLOAT, DATE, TIME, DATE_TIME, BASE64, HEX}
+
+    private final static String PRESERVE = "preserve";
+    private final static String REPLACE = "replace";
+    private final static String COLLAPSE = "collapse";
+
+    private final Kind kind;
+    private final String whiteSpace;
+    private final List<Pattern> patterns;
+    private final XSEnumerationIndex enumeration;
+    private final int length;
+    private final int minLength;
+    private final int maxLength;
+    private final Comparable minInclusive;
+    private final Comparable maxInclusive;
+    private final Comparable minExclusive;
+    private final Comparable maxExclusive;
+    private final int totalDigits;
+    private final int fractionDigits;
+    private final boolean empty;
+
+    private XSFacetValidator(XmlSchemaSimpleType simpleType) {
+        final List<XmlSchemaType> chain = XSTypeHierarchy.getDerivationChain(simpleType);
+
+        QName primitive = null;
+        for (XmlSchemaType type : chain) {
+            final QName qname = type.getQName();
+            if (qname != null && XMLConstants.W3C_XML_SCHEMA_NS_URI.equals(qname.getNamespaceURI())) {
+                primitive = qname;
+                break;
+            }
+        }
+        final String name = primitive == null ? "string" : primitive.getLocalPart();
+        kind = getKind(name);
+
+        String ws = null;
+        int len = -1, minLen = -1, maxLen = -1, total = -1, fraction = -1;
+        Object minIncl = null, maxIncl = null, minExcl = null, maxExcl = null;
+
+        final List<Pattern> regexps = new ArrayList<>();
+
+        // derived types restrictions go first, so the first found facet is the strongest one
+        for (XmlSchemaType type : chain) {
+            final XmlSchemaSimpleTypeContent content = type instanceof XmlSchemaSimpleType ? ((XmlSchemaSimpleType)type).getContent() : null;
+            if (!(content instanceof XmlSchemaSimpleTypeRestriction)) {
+                continue;
+            }
+
+            final List<XmlSchemaFacet> facets = ((XmlSchemaSimpleTypeRestriction)content).getFacets();
+
+            StringBuilder pattern = null;
+            for (XmlSchemaFacet facet : facets) {
+                final Object value = facet.getValue();
+                if (value == null) {
+                    continue;
+                }
+                final String text = value.toString();
+                if (facet instanceof XmlSchemaPatternFacet) {
+                    // patterns of the same restriction are ORed
+                    pattern = pattern == null ? new StringBuilder() : pattern.append('|');
+                    pattern.append("(?:").append(translate(text)).append(')');
+                } else if (facet instanceof XmlSchemaWhiteSpaceFacet) {
+                    ws = ws == null ? text : ws;
+                } else if (facet instanceof XmlSchemaLengthFacet) {
+                    len = len < 0 ? Integer.parseInt(text) : len;
+                } else if (facet instanceof XmlSchemaMinLengthFacet) {
+                    minLen = minLen < 0 ? Integer.parseInt(text) : minLen;
+                } else if (facet instanceof XmlSchemaMaxLengthFacet) {
+                    maxLen = maxLen < 0 ? Integer.parseInt(text) : maxLen;
+                } else if (facet instanceof XmlSchemaTotalDigitsFacet) {
+                    total = total < 0 ? Integer.parseInt(text) : total;
+                } else if (facet instanceof XmlSchemaFractionDigitsFacet) {
+                    fraction = fraction < 0 ? Integer.parseInt(text) : fraction;
+                } else if (facet instanceof XmlSchemaMinInclusiveFacet) {
+                    minIncl = minIncl == null ? text : minIncl;
+                } else if (facet instanceof XmlSchemaMaxInclusiveFacet) {
+                    maxIncl = maxIncl == null ? text : maxIncl;
+                } else if (facet instanceof XmlSchemaMinExclusiveFacet) {
+                    minExcl = minExcl == null ? text : minExcl;
+                } else if (facet instanceof XmlSchemaMaxExclusiveFacet) {
+                    maxExcl = maxExcl == null ? text : maxExcl;
+                }
+            }
+
+            // patterns of different restrictions are ANDed
+            if (pattern != null) {
+                try {
+                    regexps.add(Pattern.compile(pattern.toString()));
+                } catch(PatternSyntaxException ex) {
+                    // unsupported pattern - do not check it
+                }
+            }
+        }
+
+        whiteSpace = ws != null ? ws : "string".equals(name) ? PRESERVE : "normalizedString".equals(name) ? REPLACE : COLLAPSE;
+        patterns = regexps;
+        enumeration = XSEnumerationIndex.get(simpleType);
+        length = len;
+        minLength = minLen;
+        maxLength = maxLen;
+        totalDigits = kind == Kind.DECIMAL ? total : -1;
+        fractionDigits = kind == Kind.DECIMAL ? fraction : -1;
+        minInclusive = parseBound(minIncl);
+        maxInclusive = parseBound(maxIncl);
+        minExclusive = parseBound(minExcl);
+        maxExclusive = parseBound(maxExcl);
+
+        empty = patterns.isEmpty() && enumeration.isEmpty() && length < 0 && minLength < 0 && maxLength < 0 &&
+                totalDigits < 0 && fractionDigits < 0 && minInclusive == null && maxInclusive == null && 
+                minExclusive == null && maxExclusive == null;
+    }
+
+    /**
+     * Returns the validator for the simple type.
+     * The validator is built on the first call and reused afterwards.
+     * 
+     * @param simpleType the simple type to get the validator for
+     * 
+     * @return the validator of the simple type values
+     */
+    public static XSFacetValidator get(XmlSchemaSimpleType simpleType) {
+        synchronized(simpleType) {
+            final Map<Object, Object> metaInfo = simpleType.getMetaInfoMap();
+            XSFacetValidator validator = metaInfo == null ? null : (XSFacetValidator)metaInfo.get(XSFacetValidator.class);
+            if (validator == null) {
+                validator = new XSFacetValidator(simpleType);
+                simpleType.addMetaInfo(XSFacetValidator.class, validator);
+            }
+            return validator;
+        }
+    }
+
+    /**
+     * @return true if the type has no facets to check.
+     */
+    public boolean isEmpty() {
+        return empty;
+    }
+
+    /**
+     * Checks whether the value satisfies the type facets.
+     * 
+     * @param value the value to check (its string representation is checked)
+     * 
+     * @return true if the value is allowed by the type facets
+     */
+    public boolean isValid(Object value) {
+        if (empty || value == null) {
+            return true;
+        }
+
+        final String text = normalize(value.toString());
+
+        if (!enumeration.isEmpty() && !enumeration.contains(text)) {
+            return false;
+        }
+
+        for (int i = 0, n = patterns.size(); i < n; i++) {
+            if (!patterns.get(i).matcher(text).matches()) {
+                return false;
+            }
+        }
+
+        try {
+            if (length >= 0 || minLength >= 0 || maxLength >= 0) {
+                final int l = getLength(text);
+                if ((length >= 0 && l != length) || 
+                    (minLength >= 0 && l < minLength) || 
+                    (maxLength >= 0 && l > maxLength)) {
+                    return false;
+                }
+            }
+
+            if (minInclusive != null || maxInclusive != null || minExclusive != null || maxExclusive != null) {
+                final Comparable v = parse(text);
+                if (v == null ||
+                   (minInclusive != null && v.compareTo(minInclusive) < 0) ||
+                   (maxInclusive != null && v.compareTo(maxInclusive) > 0) ||
+                   (minExclusive != null && v.compareTo(minExclusive) <= 0) ||
+                   (maxExclusive != null && v.compareTo(maxExclusive) >= 0)) {
+                    return false;
+                }
+            }
+
+            if (totalDigits >= 0 || fractionDigits >= 0) {
+                final BigDecimal decimal = new BigDecimal(text).stripTrailingZeros();
+                final int scale = decimal.scale();
+                if ((totalDigits >= 0 && (scale < 0 ? decimal.precision() - scale : Math.max(decimal.precision(), scale)) > totalDigits) ||
+                    (fractionDigits >= 0 && scale > fractionDigits)) {
+                    return false;
+                }
+            }
+        } catch(IllegalArgumentException ex) {
+            return false; // the value can not be parsed
+        }
+        
+        return true;
+    }
+
+    private String normalize(String text) {
+        if (PRESERVE.equals(whiteSpace)) {
+            return text;
+        }
+
+        final StringBuilder sb = new StringBuilder(text.length());
+        boolean space = false;
+        for (int i = 0, n = text.length(); i < n; i++) {
+            char ch = text.charAt(i);
+            if (ch == '\t' || ch == '\n' || ch == '\r') {
+                ch = ' ';
+            }
+            if (ch == ' ' && COLLAPSE.equals(whiteSpace)) {
+                space = sb.length() > 0;
+                continue;
+            }
+            if (space) {
+                sb.append(' ');
+                space = false;
+            }
+            sb.append(ch);
+        }
+        return sb.toString();
+    }
+
+    private int getLength(String text) {
+        switch(kind) {
+            case BASE64: return DatatypeConverter.parseBase64Binary(text).length;
+            case HEX: return DatatypeConverter.parseHexBinary(text).length;
+        }
+        return text.codePointCount(0, text.length());
+    }
+
+    private Comparable parseBound(Object bound) {
+        if (bound != null) {
+            try {
+                return parse(normalize(bound.toString()));
+            } catch(IllegalArgumentException ex) {}
+        }
+        return null;
+    }
+
+    private Comparable parse(String text) {
+        switch(kind) {
+            case DECIMAL: return new BigDecimal(text);
+            case FLOAT: switch(text) {
+                            case "INF": return Double.POSITIVE_INFINITY;
+                            case "-INF": return Double.NEGATIVE_INFINITY;
+                            case "NaN": return Double.NaN;
+                        }
+                        return Double.valueOf(text);
+            case DATE: return DatatypeConverter.parseDate(text);
+            case TIME: return DatatypeConverter.parseTime(text);
+            case DATE_TIME: return DatatypeConverter.parseDateTime(text);
+        }
+        return null;
+    }
+
+    private static Kind getKind(String name) {
+        switch(name) {
+            case "decimal":
+            case "integer":
+            case "long":
+            case "int":
+            case "short":
+            case "byte":
+            case "nonNegativeInteger":
+            case "positiveInteger":
+            case "nonPositiveInteger":
+            case "negativeInteger":
+            case "unsignedLong":
+            case "unsignedInt":
+            case "unsignedShort":
+            case "unsignedByte": return Kind.DECIMAL;
+            case "float":
+            case "double": return Kind.FLOAT;
+            case "date": return Kind.DATE;
+            case "time": return Kind.TIME;
+            case "dateTime": return Kind.DATE_TIME;
+            case "base64Binary": return Kind.BASE64;
+            case "hexBinary": return Kind.HEX;
+        }
+        return Kind.STRING;
+    }
+
+    /**
+     * Translates XML Schema regular expression into the Java one.
+     * XML Schema expressions are implicitly anchored, have no '^' and '$' 
+     * anchors, support character class subtraction ("[a-z-[aeiou]]") and 
+     * XML name escapes ("\i", "\c").
+     * 
+     * @param regex XML Schema regular expression
+     * 
+     * @return Java regular expression
+     */
+    static String translate(String regex) {
+        final StringBuilder sb = new StringBuilder(regex.length() + 16);
+
+        int depth = 0;
+        for (int i = 0, n = regex.length(); i < n; i++) {
+            final char ch = regex.charAt(i);
+            switch(ch) {
+                case '\\': if (++i < n) {
+                               final char escape = regex.charAt(i);
+                               switch(escape) {
+                                   case 'i': sb.append("[\\p{L}_:]"); break;
+                                   case 'I': sb.append("[^\\p{L}_:]"); break;
+                                   case 'c': sb.append("[\\p{L}\\p{Nd}._:\\-]"); break;
+                                   case 'C': sb.append("[^\\p{L}\\p{Nd}._:\\-]"); break;
+                                   default: sb.append('\\').append(escape);
+                               }
+                           } else {
+                               sb.append("\\\\");
+                           }
+                           break;
+                case '[': depth++;
+                          sb.append(ch);
+                          break;
+                case ']': depth--;
+                          sb.append(ch);
+                          break;
+                case '-': if (depth > 0 && i + 1 < n && regex.charAt(i + 1) == '[') {
+                              // class subtraction
+                              sb.append("&&[^");
+                              depth++;
+                              i++;
+                          } else {
+                              sb.append(ch);
+                          }
+                          break;
+                case '^':
+                case '$': if (depth == 0) {
+                              sb.append('\\');
+                          }
+                          sb.append(ch);
+                          break;
+                default: sb.append(ch);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -27,14 +27,7 @@ package net.sf.taverna.xml.schema.parser;
 import javax.xml.namespace.QName;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamWriter;
-import org.apache.ws.commons.schema.XmlSchema;
-import org.apache.ws.commons.schema.XmlSchemaCollection;
-import org.apache.ws.commons.schema.XmlSchemaComplexContent;
-import org.apache.ws.commons.schema.XmlSchemaComplexContentExtension;
-import org.apache.ws.commons.schema.XmlSchemaComplexContentRestriction;
 import org.apache.ws.commons.schema.XmlSchemaComplexType;
-import org.apache.ws.commons.schema.XmlSchemaContent;
-import org.apache.ws.commons.schema.XmlSchemaContentModel;
 import org.apache.ws.commons.schema.XmlSchemaElement;
 import org.apache.ws.commons.schema.XmlSchemaParticle;
 import org.apache.ws.commons.schema.XmlSchemaSimpleType;
@@ -48,7 +41,9 @@ import org.apache.ws.commons.schema.XmlSchemaType;
  */
 
 public class XSGlobalElement<T,V extends T> extends XSComponent<T,V, XmlSchemaElement> {
-    
+
+    private XmlSchemaType type;
+
     public XSGlobalElement(XmlSchemaElement element) {
         super(element);
     }
@@ -59,17 +54,8 @@ public class XSGlobalElement<T,V extends T> extends XSComponent<T,V, XmlSchemaEl
     
     @Override
     public XmlSchemaType getType() {
-        XmlSchemaElement element = XSModel.getElement(component);
-        XmlSchemaType type = element.getSchemaType();
         if (type == null) {
-            QName typeName = element.getSchemaTypeName();
-            XmlSchema schema = element.getParent();
-            XmlSchemaCollection schemaCollection = schema.getParent();
-            if (schemaCollection != null) {
-                type = schemaCollection.getTypeByQName(typeName);
-            } else {
-                type = schema.getTypeByName(typeName);
-            }
+            type = XSTypeHierarchy.getType(XSModel.getElement(component));
         }
         return type;
     }
@@ -80,7 +66,11 @@ public class XSGlobalElement<T,V extends T> extends XSComponent<T,V, XmlSchemaEl
     }
 
     @Override
-    public Boolean validate() {
+    protected Boolean computeValidity() {
+        if (!isValidValue()) {
+            return Boolean.FALSE;
+        }
+
         final int n = getChildCount();
 
         // if there is no child nodes in the node suppose it's ok.
@@ -114,21 +104,7 @@ public class XSGlobalElement<T,V extends T> extends XSComponent<T,V, XmlSchemaEl
                 writeType(stream);
             } else if (type instanceof XmlSchemaComplexType) {
                 XmlSchemaComplexType complexType = (XmlSchemaComplexType)type;
-                XmlSchemaParticle particle = complexType.getParticle();
-                if (particle == null) {
-                    final XmlSchemaContentModel contentModel = complexType.getContentModel();
-                    if (contentModel instanceof XmlSchemaComplexContent) {
-                        XmlSchemaContent content = contentModel.getContent();
-                        if (content instanceof XmlSchemaComplexContentExtension) {
-                            XmlSchemaComplexContentExtension complexContentExtension = (XmlSchemaComplexContentExtension)content;
-                            particle = complexContentExtension.getParticle();
-                        } else if (content instanceof XmlSchemaComplexContentRestriction) {
-                            XmlSchemaComplexContentRestriction complexContentRestriction = (XmlSchemaComplexContentRestriction)content;
-                            particle = complexContentRestriction.getParticle();
-                        }
-                    }
-                }
-                
+                XmlSchemaParticle particle = XSCompiledType.get(complexType).getParticle();
                 if (particle != null && particle.getMaxOccurs() > 1) {
                     writeModelGroup(stream);
                 } else {
@@ -145,7 +121,9 @@ public class XSGlobalElement<T,V extends T> extends XSComponent<T,V, XmlSchemaEl
      * @throws XMLStreamException 
      */
     private void writeType(XMLStreamWriter stream) throws XMLStreamException {
-        setPrefix(stream);
+        // all the namespaces of the document are declared on the root element
+        final XSNamespacePlan plan = new XSNamespacePlan(this, stream.getNamespaceContext());
+        plan.bind(stream);
 
         final QName qname = component.getQName();
 
@@ -157,18 +135,15 @@ public class XSGlobalElement<T,V extends T> extends XSComponent<T,V, XmlSchemaEl
         } else {
             stream.writeStartElement(localName);
         }
+        plan.declare(stream);
 
         for (int i = 0, n = getChildCount(); i < n; i++) {
             XSComponent child = (XSComponent)getChildAt(i);
             child.write(stream);
         }
         
-        Object object = getUserObject();
-        if (object != null) {
-            XmlSchemaSimpleType simpleType = XSModel.getSimpleType(this);
-            if (simpleType != null) {
-                stream.writeCharacters(object.toString());
-            }
+        if (XSModel.getSimpleType(this) != null) {
+            writeValue(stream);
         }
 
         stream.writeEndElement();
@@ -180,12 +155,16 @@ public class XSGlobalElement<T,V extends T> extends XSComponent<T,V, XmlSchemaEl
         final String localName = name.getLocalPart();
         final String namespace = name.getNamespaceURI();
 
+        final XSNamespacePlan plan = new XSNamespacePlan(this, stream.getNamespaceContext());
+        plan.bind(stream);
+
         for (int i = 0, n = getChildCount(); i < n; i++) {
             if (namespace != null && namespace.length() > 0) {
                 stream.writeStartElement(namespace, localName);
             } else {
                 stream.writeStartElement(localName);
             }
+            plan.declare(stream);
             
             XSComponent child = (XSComponent)getChildAt(i);
             child.write(stream);
@@ -196,15 +175,11 @@ public class XSGlobalElement<T,V extends T> extends XSComponent<T,V, XmlSchemaEl
     
     @Override
     public String getXPath() {
-        final StringBuilder xpath = new StringBuilder("/");
-        final QName qname = getName();
-        final String localpart = qname.getLocalPart();
-        final String namespace = qname.getNamespaceURI();
-        if (namespace.isEmpty()) {
-            xpath.append(localpart);
-        } else {
-            xpath.append("*[namespace-uri()='").append(namespace).append("' and local-name()='").append(localpart).append("']");
-        }
-        return xpath.toString();
+        return getXPathStep();
+    }
+
+    @Override
+    protected String createXPathStep() {
+        return createXPathStep(getName(), false);
     }
 }
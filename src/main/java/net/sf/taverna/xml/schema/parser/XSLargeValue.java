@@ -0,0 +1,556 @@
+/**
+ * *****************************************************************************
+ * Copyright (C) 2014 Spanish National Bioinformatics Institute (INB),
+ * Barcelona Supercomputing Center and The University of Manchester
+ *
+ * Modifications to the initial code base are copyright of their respective
+ * authors, or their employers as appropriate.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ *****************************************************************************
+ */
+
+package net.sf.taverna.xml.schema.parser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * The handle of a large node value which is kept in a temporary file 
+ * instead of the heap (see XSModel.setLargeValueThreshold()).
+ * The base64Binary values are kept decoded, other values are kept as 
+ * UTF-8 text. The value is written back in chunks, so it is never 
+ * loaded into the memory as a whole.
+ * The store is deleted by dispose(), which the model calls when the node 
+ * that keeps the value is removed, its value is replaced or the model is 
+ * cleared. The stores of the values which are dropped without dispose() 
+ * are deleted once the values are garbage collected.
+ * 
+ * @author Dmitry Repchevsky
+ */
+
+public final class XSLargeValue {
+    // the number of characters written at once (base64 encodes every 3 bytes into 4 characters)
+    private final static int CHUNK = 4 * 2048;
+
+    private final static char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+    private final static byte[] DIGITS = new byte[128];
+
+    static {
+        Arrays.fill(DIGITS, (byte)-1);
+        for (int i = 0; i < ALPHABET.length; i++) {
+            DIGITS[ALPHABET[i]] = (byte)i;
+        }
+    }
+
+    // the stores of the values which have been collected without dispose()
+    private final static ReferenceQueue<XSLargeValue> COLLECTED = new ReferenceQueue<>();
+    private final static Set<Store> STORES = Collections.newSetFromMap(new ConcurrentHashMap<Store, Boolean>());
+
+    private final File file;
+    private final boolean binary;
+    private final long length;
+
+    private final Store store;
+
+    private XSLargeValue(File file, boolean binary, long length) {
+        this.file = file;
+        this.binary = binary;
+        this.length = length;
+
+        expunge();
+        store = new Store(this, file);
+        STORES.add(store);
+    }
+
+    /**
+     * Stores the binary data read from the stream.
+     * The stream is read to the end but is not closed.
+     * 
+     * @param in the stream of the binary data
+     * 
+     * @return the handle of the stored binary value
+     * 
+     * @throws IOException if the data can't be read or stored
+     */
+    public static XSLargeValue create(InputStream in) throws IOException {
+        final File file = createFile();
+        final long length = copy(in, file);
+        return new XSLargeValue(file, true, length);
+    }
+
+    /**
+     * Restores the value from its stored content (see openStream()).
+     * The stream is read to the end but is not closed.
+     * 
+     * @param in the stream of the stored value bytes
+     * @param binary whether the value is the decoded base64Binary one
+     * @param length the length of the value (see length())
+     * 
+     * @return the handle of the restored value
+     * 
+     * @throws IOException if the data can't be read or stored
+     */
+    static XSLargeValue create(InputStream in, boolean binary, long length) throws IOException {
+        final File file = createFile();
+        copy(in, file);
+        return new XSLargeValue(file, binary, length);
+    }
+
+    private static long copy(InputStream in, File file) throws IOException {
+        long length = 0;
+        try (OutputStream out = new FileOutputStream(file)) {
+            final byte[] buf = new byte[CHUNK];
+            int n;
+            while ((n = in.read(buf)) >= 0) {
+                out.write(buf, 0, n);
+                length += n;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * @return true if the value is the decoded base64Binary one.
+     */
+    public boolean isBinary() {
+        return binary;
+    }
+
+    /**
+     * @return the number of bytes of the binary value or the number of characters of the text.
+     */
+    public long length() {
+        return length;
+    }
+
+    /**
+     * Opens the stored content: the decoded bytes of the binary value or 
+     * the UTF-8 bytes of the text.
+     * 
+     * @return the stream of the stored value bytes
+     * 
+     * @throws IOException if the store can't be opened
+     */
+    public InputStream openStream() throws IOException {
+        return new BufferedInputStream(new FileInputStream(file));
+    }
+
+    /**
+     * Maps the stored content into the memory (outside of the heap).
+     * 
+     * @return the read only buffer of the stored value bytes
+     * 
+     * @throws IOException if the store can't be mapped
+     */
+    public ByteBuffer map() throws IOException {
+        try (FileChannel channel = new FileInputStream(file).getChannel()) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * Opens the value in its lexical form (base64 encoded for the binary values).
+     * 
+     * @return the reader of the lexical value
+     * 
+     * @throws IOException if the store can't be opened
+     */
+    public Reader openReader() throws IOException {
+        return binary ? new Base64Reader(openStream()) : new InputStreamReader(openStream(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes the lexical value as the element characters chunk by chunk.
+     * 
+     * @param stream the stream to write the characters to
+     * 
+     * @throws XMLStreamException if the value can't be written or the store can't be read
+     */
+    public void write(XMLStreamWriter stream) throws XMLStreamException {
+        try (Reader reader = openReader()) {
+            final char[] buf = new char[CHUNK];
+            int n;
+            while ((n = reader.read(buf)) >= 0) {
+                stream.writeCharacters(buf, 0, n);
+            }
+        }
+        catch(IOException ex) {
+            throw new XMLStreamException("Can't read the value store " + file, ex);
+        }
+    }
+
+    /**
+     * Loads the whole lexical value into the memory.
+     * 
+     * @return the lexical value
+     */
+    public String getText() {
+        final StringBuilder text = new StringBuilder();
+        try (Reader reader = openReader()) {
+            final char[] buf = new char[CHUNK];
+            int n;
+            while ((n = reader.read(buf)) >= 0) {
+                text.append(buf, 0, n);
+            }
+        }
+        catch(IOException ex) {
+            throw new IllegalStateException("Can't read the value store " + file, ex);
+        }
+        return text.toString();
+    }
+
+    /**
+     * Deletes the store. The value can't be used after that.
+     */
+    public void dispose() {
+        if (STORES.remove(store)) {
+            store.clear();
+            file.delete();
+        }
+    }
+
+    /**
+     * @return the short description of the value (not the value itself).
+     */
+    @Override
+    public String toString() {
+        return binary ? "[" + length + " bytes]" : "[" + length + " characters]";
+    }
+
+    /**
+     * Checks the lexical form of the base64Binary value the same way 
+     * the Builder decodes it.
+     * 
+     * @param text the base64 text
+     * 
+     * @return true if the text is a valid base64 value
+     */
+    static boolean isBase64(CharSequence text) {
+        int digits = 0;
+        int padding = 0;
+        for (int i = 0, n = text.length(); i < n; i++) {
+            final char ch = text.charAt(i);
+            switch(ch) {
+                case ' ':
+                case '\t':
+                case '\n':
+                case '\r': continue;
+                case '=': if (digits % 4 < 2 || digits % 4 + padding == 4) {
+                              return false;
+                          }
+                          padding++;
+                          continue;
+            }
+            if (ch >= DIGITS.length || DIGITS[ch] < 0 || padding > 0) {
+                return false;
+            }
+            digits++;
+        }
+        return digits % 4 != 1;
+    }
+
+    private static File createFile() throws IOException {
+        return File.createTempFile("xsvalue", ".tmp");
+    }
+
+    /**
+     * Deletes the stores of the values which have been garbage collected.
+     */
+    private static void expunge() {
+        for (Store store; (store = (Store)COLLECTED.poll()) != null;) {
+            if (STORES.remove(store)) {
+                store.file.delete();
+            }
+        }
+    }
+
+    /**
+     * The reference that outlives the value to delete its store.
+     */
+    private final static class Store extends PhantomReference<XSLargeValue> {
+        private final File file;
+
+        private Store(XSLargeValue value, File file) {
+            super(value, COLLECTED);
+            this.file = file;
+        }
+    }
+
+    /**
+     * Collects the characters of the value into the store. The base64Binary 
+     * content is decoded on the fly. The content which turns out not to be 
+     * a valid base64 one is kept as the text, so the value is reported 
+     * invalid by the validation instead of failing the read.
+     */
+    public final static class Builder {
+        private File file;
+        private boolean binary;
+
+        private OutputStream out;
+        private Writer writer;
+
+        private long length;
+
+        // the base64 decoder state
+        private int quantum;
+        private int digits;
+        private int padding;
+
+        public Builder(boolean binary) throws IOException {
+            this.binary = binary;
+            file = createFile();
+            try {
+                out = new BufferedOutputStream(new FileOutputStream(file));
+            }
+            catch(IOException ex) {
+                file.delete();
+                throw ex;
+            }
+            writer = binary ? null : new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        }
+
+        public void append(CharSequence text) throws IOException {
+            int i = 0;
+            final int n = text.length();
+            if (binary) {
+                while (i < n && decode(text.charAt(i))) {
+                    i++;
+                }
+                if (i == n) {
+                    return;
+                }
+                toText();
+            }
+            writer.append(text, i, n);
+            length += n - i;
+        }
+
+        public void append(char[] ch, int start, int length) throws IOException {
+            int i = start;
+            final int n = start + length;
+            if (binary) {
+                while (i < n && decode(ch[i])) {
+                    i++;
+                }
+                if (i == n) {
+                    return;
+                }
+                toText();
+            }
+            writer.write(ch, i, n - i);
+            this.length += n - i;
+        }
+
+        /**
+         * Completes the store.
+         * 
+         * @return the handle of the stored value
+         * 
+         * @throws IOException if the value can't be stored
+         */
+        public XSLargeValue build() throws IOException {
+            try {
+                if (binary) {
+                    switch(digits) {
+                        case 0: break;
+                        case 2: out.write(quantum >> 4);
+                                length++;
+                                break;
+                        case 3: out.write(quantum >> 10);
+                                out.write(quantum >> 2);
+                                length += 2;
+                                break;
+                        default: toText(); // incomplete base64 value
+                    }
+                }
+                if (binary) {
+                    out.close();
+                } else {
+                    writer.close();
+                }
+            }
+            catch(IOException ex) {
+                abort();
+                throw ex;
+            }
+            return new XSLargeValue(file, binary, length);
+        }
+
+        /**
+         * Closes and deletes the store of the value which is not going to be built.
+         */
+        public void abort() {
+            try {
+                if (writer != null) {
+                    writer.close();
+                } else {
+                    out.close();
+                }
+            }
+            catch(IOException ex) {}
+            file.delete();
+        }
+
+        /**
+         * @return false if the character isn't allowed in the base64 value.
+         */
+        private boolean decode(char ch) throws IOException {
+            switch(ch) {
+                case ' ':
+                case '\t':
+                case '\n':
+                case '\r': return true;
+                case '=': if (digits < 2 || digits + padding == 4) {
+                              return false;
+                          }
+                          padding++;
+                          return true;
+            }
+
+            final int digit = ch < DIGITS.length ? DIGITS[ch] : -1;
+            if (digit < 0 || padding > 0) {
+                return false;
+            }
+
+            quantum = quantum << 6 | digit;
+            if (++digits == 4) {
+                out.write(quantum >> 16);
+                out.write(quantum >> 8);
+                out.write(quantum);
+                length += 3;
+                quantum = 0;
+                digits = 0;
+            }
+            return true;
+        }
+
+        /**
+         * Replaces the decoded store with the text one: the decoded bytes are 
+         * encoded back and followed by the base64 characters which are not decoded yet.
+         * The whitespace between the base64 characters is not restored.
+         */
+        private void toText() throws IOException {
+            out.close();
+
+            final File text = createFile();
+            try {
+                out = new BufferedOutputStream(new FileOutputStream(text));
+                writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+
+                length = 0;
+                try (Reader reader = new Base64Reader(new BufferedInputStream(new FileInputStream(file)))) {
+                    final char[] buf = new char[CHUNK];
+                    int n;
+                    while ((n = reader.read(buf)) >= 0) {
+                        writer.write(buf, 0, n);
+                        length += n;
+                    }
+                }
+                for (int i = digits - 1; i >= 0; i--) {
+                    writer.write(ALPHABET[quantum >> 6 * i & 0x3F]);
+                }
+                for (int i = 0; i < padding; i++) {
+                    writer.write('=');
+                }
+                length += digits + padding;
+            }
+            finally {
+                file.delete();
+                file = text;
+                binary = false;
+            }
+        }
+    }
+
+    /**
+     * Encodes the binary stream into base64 characters.
+     */
+    private final static class Base64Reader extends Reader {
+        private final InputStream in;
+        private final byte[] bytes = new byte[CHUNK / 4 * 3];
+        private final char[] chars = new char[CHUNK];
+
+        private int position;
+        private int limit;
+
+        private Base64Reader(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            if (position == limit && !fill()) {
+                return -1;
+            }
+            final int n = Math.min(len, limit - position);
+            System.arraycopy(chars, position, cbuf, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        private boolean fill() throws IOException {
+            // only the last chunk may be padded, so the bytes are read in full chunks
+            int length = 0;
+            for (int n; length < bytes.length && (n = in.read(bytes, length, bytes.length - length)) >= 0;) {
+                length += n;
+            }
+
+            position = 0;
+            limit = 0;
+            for (int i = 0; i < length; i += 3) {
+                final int n = Math.min(3, length - i);
+                int q = (bytes[i] & 0xFF) << 16;
+                if (n > 1) {
+                    q |= (bytes[i + 1] & 0xFF) << 8;
+                }
+                if (n > 2) {
+                    q |= bytes[i + 2] & 0xFF;
+                }
+                chars[limit++] = ALPHABET[q >> 18 & 0x3F];
+                chars[limit++] = ALPHABET[q >> 12 & 0x3F];
+                chars[limit++] = n > 1 ? ALPHABET[q >> 6 & 0x3F] : '=';
+                chars[limit++] = n > 2 ? ALPHABET[q & 0x3F] : '=';
+            }
+            return limit > 0;
+        }
+    }
+}
@@ -42,7 +42,7 @@ public class XSMixedText<T,V extends T> extends XSComponent<T,V, XmlSchemaObject
     
     @Override
     public QName getName() {
-        return new QName("");
+        return XSSymbolTable.EMPTY;
     }
 
     @Override
@@ -51,7 +51,7 @@ public class XSMixedText<T,V extends T> extends XSComponent<T,V, XmlSchemaObject
     }
 
     @Override
-    public Boolean validate() {
+    protected Boolean computeValidity() {
         return null;
     }
 
@@ -24,10 +24,17 @@
 
 package net.sf.taverna.xml.schema.parser;
 
-import java.util.Arrays;
-import java.util.LinkedHashMap;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import javax.xml.bind.DatatypeConverter;
 import javax.xml.namespace.QName;
 import javax.xml.stream.XMLStreamException;
@@ -42,30 +49,16 @@ import net.sf.taverna.xml.schema.ui.tree.node.XSTypeNode;
 import org.apache.ws.commons.schema.XmlSchema;
 import org.apache.ws.commons.schema.XmlSchemaAll;
 import org.apache.ws.commons.schema.XmlSchemaAttribute;
-import org.apache.ws.commons.schema.XmlSchemaAttributeGroup;
-import org.apache.ws.commons.schema.XmlSchemaAttributeGroupMember;
-import org.apache.ws.commons.schema.XmlSchemaAttributeGroupRef;
-import org.apache.ws.commons.schema.XmlSchemaAttributeOrGroupRef;
 import org.apache.ws.commons.schema.XmlSchemaChoice;
 import org.apache.ws.commons.schema.XmlSchemaCollection;
-import org.apache.ws.commons.schema.XmlSchemaComplexContentExtension;
-import org.apache.ws.commons.schema.XmlSchemaComplexContentRestriction;
 import org.apache.ws.commons.schema.XmlSchemaComplexType;
-import org.apache.ws.commons.schema.XmlSchemaContent;
-import org.apache.ws.commons.schema.XmlSchemaContentModel;
 import org.apache.ws.commons.schema.XmlSchemaElement;
-import org.apache.ws.commons.schema.XmlSchemaGroup;
-import org.apache.ws.commons.schema.XmlSchemaGroupParticle;
-import org.apache.ws.commons.schema.XmlSchemaGroupRef;
-import org.apache.ws.commons.schema.XmlSchemaObject;
 import org.apache.ws.commons.schema.XmlSchemaParticle;
 import org.apache.ws.commons.schema.XmlSchemaSequence;
 import org.apache.ws.commons.schema.XmlSchemaSequenceMember;
-import org.apache.ws.commons.schema.XmlSchemaSimpleContentExtension;
 import org.apache.ws.commons.schema.XmlSchemaSimpleType;
 import org.apache.ws.commons.schema.XmlSchemaType;
 import org.apache.ws.commons.schema.constants.Constants;
-import org.apache.ws.commons.schema.utils.XmlSchemaObjectBase;
 import org.apache.ws.commons.schema.utils.XmlSchemaRef;
 
 /**
@@ -76,10 +69,29 @@ import org.apache.ws.commons.schema.utils.XmlSchemaRef;
  */
 
 public class XSModel<T, V extends T> extends XSNode<T,V> {
+    private final static String POSITION_STEP = "[position()=";
+
+    // the read progress is reported every 256 elements
+    private final static int PROGRESS_MASK = 0xFF;
+
     private XmlSchemaCollection schemas;
+    private boolean lazy;
+    private int maxExpansionDepth = Integer.MAX_VALUE;
+    private boolean typedValues;
+    private int largeValueThreshold = Integer.MAX_VALUE;
+    private boolean writeCaching;
+
+    /**
+     * Template subtrees of complex types keyed by the type QName 
+     * (or the type itself for anonymous types).
+     */
+    private final Map<Object, XSComponent> prototypes;
+
+    private Future<Void> warmUp;
 
     public XSModel() {
         schemas = new XmlSchemaCollection();
+        prototypes = new HashMap<>();
     }
 
     /**
@@ -89,39 +101,237 @@ public class XSModel<T, V extends T> extends XSNode<T,V> {
      */
     public void setSchemaCollection(XmlSchemaCollection schemas) {
         removeAllChildren();
+        prototypes.clear();
+        if (warmUp != null) {
+            warmUp.cancel(false);
+            warmUp = null;
+        }
         this.schemas = schemas;
     }
+
+    public XmlSchemaCollection getSchemaCollection() {
+        return schemas;
+    }
+
+    /**
+     * Makes the model share the schemas of the other model and copies its
+     * settings (lazy mode, expansion depth, typed and large values, write caching). 
+     * Execution of this method cleans the model (tree).
+     * 
+     * @param model the model which schemas and settings are copied
+     */
+    public void copySettings(XSModel<?,?> model) {
+        setSchemaCollection(model.schemas);
+        setLazy(model.lazy);
+        setMaxExpansionDepth(model.maxExpansionDepth);
+        setTypedValues(model.typedValues);
+        setLargeValueThreshold(model.largeValueThreshold);
+        setWriteCaching(model.writeCaching);
+    }
+
+    /**
+     * Starts resolving the schemas types in background, so the nodes are 
+     * built faster later. The model may be used during the warm-up.
+     * 
+     * @return the future to wait for the warm-up completion or to cancel it.
+     */
+    public Future<Void> warmUp() {
+        if (warmUp == null) {
+            warmUp = XSWarmUp.start(schemas);
+        }
+        return warmUp;
+    }
     
     /**
-     * Finds a node that corresponds to the provided XPath
+     * @return true if the model creates nodes children on demand.
+     */
+    public boolean isLazy() {
+        return lazy;
+    }
+
+    /**
+     * Sets the lazy mode of the model. In the lazy mode children of the nodes
+     * added from the schema (addGlobalElement, addGlobalType, addParticle) are created 
+     * on the first access (i.e. when the tree node is expanded).
+     * Nodes which children were never created are treated as empty ones.
+     * 
+     * @param lazy whether the model should create the nodes children on demand
+     */
+    public void setLazy(boolean lazy) {
+        this.lazy = lazy;
+        prototypes.clear();
+    }
+
+    /**
+     * @return maximum number of nested complex type levels created at once.
+     */
+    public int getMaxExpansionDepth() {
+        return maxExpansionDepth;
+    }
+
+    /**
+     * Limits the number of nested complex type levels that are created at once
+     * when the element (type) is added to the model. Deeper nodes are created
+     * on demand (as in the lazy mode).
+     * 
+     * @param maxExpansionDepth maximum number of nested complex type levels
+     */
+    public void setMaxExpansionDepth(int maxExpansionDepth) {
+        this.maxExpansionDepth = Math.max(1, maxExpansionDepth);
+        prototypes.clear();
+    }
+
+    /**
+     * @return true if the values are read in their typed form.
+     */
+    public boolean isTypedValues() {
+        return typedValues;
+    }
+
+    /**
+     * Sets whether the values are parsed into their typed Java form 
+     * (see XSValueType) when the XML is read. Otherwise the values are 
+     * kept as strings (except attribute QNames).
+     * Typed values are written back in their canonical lexical form.
+     * 
+     * @param typedValues whether the values should be parsed at read time
+     */
+    public void setTypedValues(boolean typedValues) {
+        this.typedValues = typedValues;
+    }
+
+    /**
+     * @return the number of characters above which the values are stored out of the heap.
+     */
+    public int getLargeValueThreshold() {
+        return largeValueThreshold;
+    }
+
+    /**
+     * Sets the size of the element value (in characters) above which the 
+     * value is not kept in the memory when the XML is read. The content of 
+     * such an element is streamed into the temporary store (base64Binary 
+     * content is decoded on the fly) and the node keeps the XSLargeValue 
+     * handle instead of the string. 
+     * By default the values are always kept in the memory.
+     * 
+     * @param largeValueThreshold the maximum number of characters kept in the memory
+     */
+    public void setLargeValueThreshold(int largeValueThreshold) {
+        this.largeValueThreshold = Math.max(0, largeValueThreshold);
+    }
+
+    /**
+     * @return true if the elements keep their bytes written by write(OutputStream).
+     */
+    public boolean isWriteCaching() {
+        return writeCaching;
+    }
+
+    /**
+     * Sets whether the elements written by write(OutputStream) keep their 
+     * UTF-8 bytes, so the next write copies the bytes of the elements that 
+     * have not been changed since (see XSUTF8Serializer.setCaching()).
+     * The cache costs the memory of the written XML for every nesting level.
+     * 
+     * @param writeCaching whether the written bytes should be cached
+     */
+    public void setWriteCaching(boolean writeCaching) {
+        this.writeCaching = writeCaching;
+    }
+
+    /**
+     * Finds a node that corresponds to the provided XPath.
+     * The XPath is expected to be in the form produced by getXPath() methods 
+     * of the components. 
+     * The XPath is resolved step by step using the children indexes, so the search 
+     * time depends only on the XPath length.
      * 
      * @param xpath XPath expression for the queried node
      * 
      * @return the node in the model that corresponds to the XPath query
      */
     public XSNode<T,V> findNode(String xpath) {
-        return findComponent(this, xpath);
-    }
-    
-    private XSComponent findComponent(XSNode<T,V> node, String xpath) {
-        if (node instanceof XSComponent) {
-            XSComponent component = (XSComponent)node;
-            if (xpath.equals(component.getXPath())) {
-                return component;
+        XSNode node = this;
+        for (int pos = 0, length = xpath.length(); pos < length;) {
+            final int end = nextXPathStep(xpath, pos);
+            if (end < 0) {
+                return null;
             }
+            node = findChild(node, xpath.substring(pos, end));
+            if (node == null) {
+                return null;
+            }
+            pos = end;
         }
-        
-        for (int i = 0, n = node.getChildCount(); i < n; i++) {
-            XSNode<T, V> childNode = (XSNode<T, V>)node.getChildAt(i);
-            XSComponent component = findComponent(childNode, xpath);
-            if (component != null) {
-                return component;
+        return node == this ? null : node;
+    }
+
+    private static XSNode findChild(XSNode node, String step) {
+        if (step.charAt(0) != '[') {
+            return (XSNode)node.getChild(step);
+        }
+
+        // positional steps are generated by XSType ("[position()=n]") and XSMixedText ("[n]") nodes
+        final boolean isType = step.startsWith(POSITION_STEP);
+        final int index;
+        try {
+            index = isType ? Integer.parseInt(step.substring(POSITION_STEP.length(), step.length() - 1)) - 1 :
+                             Integer.parseInt(step.substring(1, step.length() - 1));
+        } catch(NumberFormatException ex) {
+            return null;
+        }
+
+        if (index >= 0 && index < node.getChildCount()) {
+            Object child = node.getChildAt(index);
+            if (isType ? child instanceof XSType : child instanceof XSMixedText) {
+                return (XSNode)child;
             }
         }
-        
         return null;
     }
 
+    /**
+     * Finds the end of the XPath step that starts at the position.
+     * 
+     * @return the position of the next step or -1 if the step is malformed.
+     */
+    static int nextXPathStep(String xpath, int pos) {
+        final int length = xpath.length();
+
+        int i = pos + 1;
+        switch(xpath.charAt(pos)) {
+            case '/': if (i < length && xpath.charAt(i) == '@') {
+                          i++;
+                      }
+                      if (i < length && xpath.charAt(i) == '*') {
+                          i++;
+                      }
+                      if (i < length && xpath.charAt(i) == '[') {
+                          return skipXPathPredicate(xpath, i);
+                      }
+                      while (i < length && xpath.charAt(i) != '/' && xpath.charAt(i) != '[') {
+                          i++;
+                      }
+                      return i > pos + 1 ? i : -1;
+            case '[': return skipXPathPredicate(xpath, pos);
+        }
+        return -1;
+    }
+
+    private static int skipXPathPredicate(String xpath, int pos) {
+        boolean quoted = false;
+        for (int i = pos + 1, length = xpath.length(); i < length; i++) {
+            final char ch = xpath.charAt(i);
+            if (ch == '\'') {
+                quoted = !quoted;
+            } else if (ch == ']' && !quoted) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
     /**
      * Includes the element (with all its subelements obtained from schema) to the model.
      *
@@ -131,7 +341,7 @@ public class XSModel<T, V extends T> extends XSNode<T,V> {
         XSComponent node = (XSComponent)findElement(element);
 
         if (node != null) {
-            parse(node);
+            build(node);
             insert((V)node, getChildCount());
         }
     }
@@ -145,11 +355,28 @@ public class XSModel<T, V extends T> extends XSNode<T,V> {
     public void addGlobalType(QName type, QName name) {
         MessagePartNode node = findType(type, name);
         if (node != null) {
-            parse(node);
+            build(node);
             insert((V)node, getChildCount());
         }
     }
 
+    /**
+     * Adds a new item to the repeated (maxOccurs &gt; 1) element.
+     * The item subtree is copied from the type prototype, so the schema is 
+     * not traversed again for every added item.
+     * 
+     * @param particle the repeated element node
+     * @param index the position of the new item
+     * 
+     * @return the new item node
+     */
+    public XSType addItem(XSParticle particle, int index) {
+        final XSType node = newType(particle.getType());
+        build(node);
+        particle.insert((V)node, index);
+        return node;
+    }
+
     /**
      * Validates the model tree against provided XML Schemas.
      * Basically it validates whether all obligatory components have their values set.
@@ -182,9 +409,39 @@ public class XSModel<T, V extends T> extends XSNode<T,V> {
      * @throws javax.xml.stream.XMLStreamException
      */
     public void read(XMLStreamReader stream) throws XMLStreamException {
+        read(stream, null);
+    }
+
+    /**
+     * Creates the model from the XML stream reporting the reading progress.
+     * 
+     * @param stream The XML reader where the XML is read from
+     * @param monitor the monitor to notify about the progress (may be null)
+     * 
+     * @throws javax.xml.stream.XMLStreamException
+     * @throws java.util.concurrent.CancellationException if the monitor cancelled the reading
+     */
+    public void read(XMLStreamReader stream, XSReadMonitor monitor) throws XMLStreamException {
+        read(stream, monitor, null);
+    }
+
+    /**
+     * Creates the model from the parts of the XML stream selected by the projection.
+     * Only the selected nodes (with their subtrees) and the nodes on the paths to 
+     * them are created. The occurrences of the selected repeated elements which 
+     * precede the selected ones are kept empty, so the nodes keep their XPaths.
+     * 
+     * @param stream The XML reader where the XML is read from
+     * @param monitor the monitor to notify about the progress (may be null)
+     * @param projection the XPaths of the nodes to be read (null to read the whole document)
+     * 
+     * @throws javax.xml.stream.XMLStreamException
+     * @throws java.util.concurrent.CancellationException if the monitor cancelled the reading
+     */
+    public void read(XMLStreamReader stream, XSReadMonitor monitor, XSProjection projection) throws XMLStreamException {
         removeAllChildren();
 
-        readElement(this, stream);
+        readElements(stream, monitor, projection);
     }
 
     /**
@@ -194,9 +451,106 @@ public class XSModel<T, V extends T> extends XSNode<T,V> {
      * @throws javax.xml.stream.XMLStreamException
      */
     public void write(XMLStreamWriter stream) throws XMLStreamException {
-        for (int i = 0, n = getChildCount(); i < n; i++) {
-            XSComponent node = (XSComponent)getChildAt(i);
-            node.write(stream);
+        new XSSerializer().write(this, stream);
+    }
+
+    /**
+     * Writes the UTF-8 encoded XML directly into the output stream 
+     * bypassing the XMLStreamWriter (see XSUTF8Serializer).
+     * 
+     * @param out the output stream to write generated XML
+     * @throws IOException 
+     */
+    public void write(OutputStream out) throws IOException {
+        final XSUTF8Serializer serializer = new XSUTF8Serializer(out);
+        serializer.setCaching(writeCaching);
+        serializer.write(this);
+    }
+
+    /**
+     * Writes the UTF-8 encoded XML directly into the output stream writing 
+     * long lists of repeated elements in parallel.
+     * 
+     * @param out the output stream to write generated XML
+     * @param pool the pool to write the chunks of the lists
+     * @throws IOException 
+     */
+    public void write(OutputStream out, ForkJoinPool pool) throws IOException {
+        final XSUTF8Serializer serializer = new XSUTF8Serializer(out);
+        serializer.setPool(pool);
+        serializer.setCaching(writeCaching);
+        serializer.write(this);
+    }
+
+    /**
+     * Writes the compact binary snapshot of the model tree (see readSnapshot()).
+     * The snapshot keeps the nodes with their values (typed values in their 
+     * binary form) and refers to the schema components by their ids.
+     * 
+     * @param channel the channel to write the snapshot to (it is not closed)
+     * @throws IOException 
+     */
+    public void writeSnapshot(WritableByteChannel channel) throws IOException {
+        XSSnapshot.write(this, channel);
+    }
+
+    /**
+     * Restores the model tree from the snapshot written by writeSnapshot() 
+     * against the same schemas. The nodes are created directly from the 
+     * snapshot, so neither the XML is parsed nor the content models are used.
+     * Execution of this method cleans the model (tree).
+     * 
+     * @param channel the channel to read the snapshot from (it is not closed)
+     * @throws IOException if the snapshot is corrupted or doesn't match the model schemas
+     */
+    public void readSnapshot(ReadableByteChannel channel) throws IOException {
+        final List<XSComponent> nodes = XSSnapshot.read(this, channel);
+
+        removeAllChildren();
+        for (XSComponent node : nodes) {
+            insert((V)node, getChildCount());
+        }
+    }
+
+    /**
+     * Removes the child node and deletes the stores of the large values 
+     * kept in its subtree (see XSLargeValue).
+     * 
+     * @param index the position of the removed child
+     */
+    @Override
+    public void remove(int index) {
+        final Object child = getChildAt(index);
+        super.remove(index);
+        disposeValues(child);
+    }
+
+    /**
+     * Deletes the stores of the large values kept in the removed subtree.
+     * The nodes which children are not created yet are not expanded.
+     * 
+     * @param node the top node of the removed subtree
+     */
+    static void disposeValues(Object node) {
+        final List<XSNode> stack = new ArrayList<>();
+        if (node instanceof XSNode) {
+            stack.add((XSNode)node);
+        }
+        while (!stack.isEmpty()) {
+            final XSNode current = stack.remove(stack.size() - 1);
+            final Object value = current.getUserObject();
+            if (value instanceof XSLargeValue) {
+                ((XSLargeValue)value).dispose();
+            }
+            if (current instanceof XSComponent && !((XSComponent)current).isMaterialized()) {
+                continue;
+            }
+            for (int i = current.getChildCount() - 1; i >= 0; i--) {
+                final Object child = current.getChildAt(i);
+                if (child instanceof XSNode) {
+                    stack.add((XSNode)child);
+                }
+            }
         }
     }
 
@@ -212,120 +566,248 @@ public class XSModel<T, V extends T> extends XSNode<T,V> {
         return new XSAttribute(attribute);
     }
 
+    /**
+     * Builds the tree branch (child nodes) for the top level node.
+     * The children are copied from the prototype of the node type which is 
+     * built from the schema only once.
+     * 
+     * @param node the node to build the children for
+     */
+    private void build(XSComponent node) {
+        final XmlSchemaType type = node.getType();
+        if (lazy || !(type instanceof XmlSchemaComplexType)) {
+            parse(node, new ArrayList<XmlSchemaType>());
+        } else {
+            final QName qname = type.getQName();
+            final Object key = qname != null ? qname : type;
+            XSComponent prototype = prototypes.get(key);
+            if (prototype == null) {
+                prototype = newType(type);
+                parse(prototype, new ArrayList<XmlSchemaType>());
+                prototypes.put(key, prototype);
+            }
+            node.copyChildren(prototype);
+        }
+    }
+
     /**
      * Builds the tree branch (child nodes) for the node.
+     * The node which type is already being expanded (recursive type) or 
+     * which is too deep is left unexpanded, its children are created on demand.
+     * 
+     * @param node the node to build the children for
+     * @param path complex types which are being expanded (the node ancestors' types)
      */
-    private void parse(XSComponent node) {
+    private void parse(XSComponent node, List<XmlSchemaType> path) {
         XmlSchemaType type = node.getType();
         if (type instanceof XmlSchemaComplexType) {
-            addComplexType(node, (XmlSchemaComplexType)type);
+            if (lazy || path.size() >= maxExpansionDepth || contains(path, type)) {
+                node.setLoader(this);
+            } else {
+                path.add(type);
+                addComplexType(node, (XmlSchemaComplexType)type, path);
+                path.remove(path.size() - 1);
+            }
+        }
+    }
+
+    /**
+     * Creates the deferred children of the node.
+     */
+    void materialize(XSComponent node) {
+        addComplexType(node, (XmlSchemaComplexType)node.getType(), getExpansionPath(node));
+    }
+
+    /**
+     * Collects the complex types of the node and its ancestors.
+     * 
+     * @param node the node which children are going to be created
+     * 
+     * @return the list of expanded complex types starting from the top one
+     */
+    private List<XmlSchemaType> getExpansionPath(XSNode node) {
+        final List<XmlSchemaType> path = new ArrayList<>();
+        for (; node instanceof XSComponent; node = (XSNode)node.getParent()) {
+            if (node instanceof XSParticle) {
+                final XmlSchemaParticle particle = (XmlSchemaParticle)((XSParticle)node).getXSComponent();
+                if (particle.getMaxOccurs() > 1) {
+                    continue; // the type is expanded in the XSType child nodes
+                }
+            }
+            final XmlSchemaType type = ((XSComponent)node).getType();
+            if (type instanceof XmlSchemaComplexType) {
+                path.add(0, type);
+            }
+        }
+        return path;
+    }
+
+    private static boolean contains(List<XmlSchemaType> path, XmlSchemaType type) {
+        for (int i = path.size() - 1; i >= 0; i--) {
+            if (path.get(i) == type) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads the document without recursion, so the depth of the document is 
+     * limited by the memory only. Every open element has its frame on the 
+     * stack (frames are reused) and the text is collected into the single 
+     * buffer directly from the reader characters.
+     * Not projected elements are skipped by the reader (null projection reads everything).
+     * The top level elements which are not the global elements of the schemas 
+     * are not skipped but descended into to find the known elements inside.
+     */
+    private void readElements(XMLStreamReader reader, XSReadMonitor monitor, XSProjection projection) throws XMLStreamException {
+        final List<ReadFrame> stack = new ArrayList<>();
+        try {
+            readElements(reader, monitor, projection, stack);
+        }
+        finally {
+            // the stores of the large values which are left unfinished by the failed read
+            for (ReadFrame frame : stack) {
+                frame.close();
+            }
         }
     }
 
-    private void readElement(XSNode parent, XMLStreamReader reader) throws XMLStreamException {
-        StringBuilder text = new StringBuilder();
+    private void readElements(XMLStreamReader reader, XSReadMonitor monitor, XSProjection projection, List<ReadFrame> stack) throws XMLStreamException {
+        final StringBuilder text = new StringBuilder();
 
+        long elements = 0;
+        int depth = 0;
+        int unknown = 0; // open unknown top level elements
         while (reader.hasNext()) {
-            int eventType = reader.next();
-            if (eventType == XMLStreamReader.END_ELEMENT) {
-                if (text.length() > 0 && parent instanceof XSComponent) {
-                    XSComponent node = (XSComponent)parent;
-                    if (XSModel.getSimpleType(node) != null) {
-                        node.setUserObject(text.toString());
-                    }
+            final int eventType = reader.next();
+            if (eventType == XMLStreamReader.START_ELEMENT) {
+                if (monitor != null && (++elements & PROGRESS_MASK) == 0) {
+                    monitor.progress(elements);
                 }
-                return;
-            } else if (eventType == XMLStreamReader.START_ELEMENT) {
-                QName elementName = reader.getName();
 
-                if (parent.getParent() == null) {
-                    XSGlobalElementNode node = findElement(elementName);
-                    if (node != null) {
-                        parent.insert(node, parent.getChildCount());
-                        readAttributes(node, reader);
-                        readElement(node, reader);
+                XSComponent node;
+                XSProjection nodeProjection = null;
+                if (depth == 0) {
+                    node = findElement(reader.getName());
+                    if (node == null) {
+                        // unknown element (i.e. SOAP envelope) may contain the known global elements
+                        unknown++;
+                        continue;
                     }
-                } else {
-                    if (parent instanceof XSParticleNode) {
-                        XSParticleNode node = (XSParticleNode)parent;
-                        XmlSchemaParticle particle = node.getXSComponent();
-                        if (particle.getMaxOccurs() > 1) {
-                            if (elementName.equals(node.getName())) {
-                                XSTypeNode tNode = new XSTypeNode(node.getType());
-                                node.insert(tNode, node.getChildCount());
-                                readAttributes(tNode, reader);
-                                readElement(tNode, reader);
-                                continue;
-                            }
-
-                            // we have reached a last element in a repeated sequence...
-                            // move up to one level
-                            parent = (XSNode)node.getParent();
+                    if (projection != null) {
+                        nodeProjection = projection.getChild(node.getXPathStep());
+                        if (nodeProjection == null) {
+                            node = null;
                         }
                     }
+                    if (node != null) {
+                        insert((V)node, getChildCount());
+                    }
+                } else {
+                    final ReadFrame parent = stack.get(depth - 1);
+                    node = parent.addChild(reader);
+                    nodeProjection = parent.childProjection;
+                }
 
-                    XSComponent node = (XSComponent)parent;
-                    XmlSchemaType type = node.getType();
-
-                    if (type instanceof XmlSchemaComplexType) {
-                        Map<QName, XmlSchemaElement> elements = getElements(node);
-                        XmlSchemaElement element = elements.get(elementName);
-                        if (element != null) {
-                            XSParticleNode particleNode = new XSParticleNode(element);
-                            node.insert(particleNode, node.getChildCount());
-
-                            if (element.getMaxOccurs() > 1) {
-                                XSTypeNode typeNode = new XSTypeNode(particleNode.getType());
-                                particleNode.insert(typeNode, particleNode.getChildCount());
-                                parent = particleNode;
-
-                                readAttributes(typeNode, reader);
-                                readElement(typeNode, reader);
-                            } else {
-                                readAttributes(particleNode, reader);
-                                readElement(particleNode, reader);
-                            }
-                        }
-                    } else {
-                        throw new XMLStreamException("Simple type " + type.getQName() + " cannot have children! ");
+                if (node == null) {
+                    // either xs:any content which is not kept in the model or not projected element
+                    skipElement(reader);
+                    continue;
+                }
+
+                if (nodeProjection != null && nodeProjection.isComplete()) {
+                    nodeProjection = null; // the whole subtree is read
+                }
+
+                readAttributes(node, reader, nodeProjection);
+
+                if (depth == stack.size()) {
+                    stack.add(new ReadFrame());
+                }
+                stack.get(depth++).open(node, nodeProjection);
+                text.setLength(0);
+            } else if (eventType == XMLStreamReader.END_ELEMENT) {
+                if (depth == 0) {
+                    if (unknown == 0) {
+                        return;
                     }
+                    unknown--;
+                    continue;
+                }
+                final ReadFrame frame = stack.get(--depth);
+                if (frame.large != null) {
+                    frame.node.setUserObject(frame.build(reader));
+                } else if (frame.simple && text.length() > 0) {
+                    frame.node.setUserObject(typedValues ? 
+                            XSValueType.get(frame.node.getSimpleType()).parse(text.toString(), reader.getNamespaceContext()) :
+                            text.toString());
                 }
-            } else if (parent.getParent() != null && 
+                frame.close();
+                text.setLength(0);
+            } else if (depth > 0 && 
                       (eventType == XMLStreamReader.CHARACTERS ||
                        eventType == XMLStreamReader.CDATA)) {
-                text.append(reader.getText()); //.append(LINE_SEPARATOR);
+                final ReadFrame frame = stack.get(depth - 1);
+                if (frame.large != null) {
+                    frame.append(reader);
+                } else if (frame.simple || frame.mixed) {
+                    text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
 
-                XSComponent node = (XSComponent)parent;
-                XmlSchemaType type = node.getType();
+                    if (frame.simple && text.length() > largeValueThreshold) {
+                        // too long to be kept in the memory: the rest of the value goes directly to the store
+                        frame.spill(text, reader);
+                        text.setLength(0);
+                    }
 
-                if (type instanceof XmlSchemaComplexType) {
-                    XmlSchemaComplexType complexType = (XmlSchemaComplexType)type;
-                    if (complexType.isMixed()) {
+                    if (frame.mixed) {
                         XSMixedTextNode tNode = new XSMixedTextNode();
-                        parent.insert(tNode, parent.getChildCount());
+                        frame.node.insert(tNode, frame.node.getChildCount());
 
                         tNode.setUserObject(text.toString());
                         text.setLength(0);
                     }
                 }
+                // the text between the elements of an element only content is just dropped
             }
         }
     }
 
-    private void readAttributes(XSComponent node, XMLStreamReader reader) throws XMLStreamException {
-        Map<QName, XmlSchemaAttribute> attributes = getAttributes(node);
+    private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        for (int depth = 1; depth > 0;) {
+            final int eventType = reader.next();
+            if (eventType == XMLStreamReader.START_ELEMENT) {
+                depth++;
+            } else if (eventType == XMLStreamReader.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    private void readAttributes(XSComponent node, XMLStreamReader reader, XSProjection projection) throws XMLStreamException {
+        final XmlSchemaType type = node.getType();
+        if (!(type instanceof XmlSchemaComplexType)) {
+            return;
+        }
+
+        final XSCompiledType compiledType = XSCompiledType.get((XmlSchemaComplexType)type);
         
         for (int i = 0, n = reader.getAttributeCount(); i < n; i++) {
-            QName attributeName = reader.getAttributeName(i);
+            QName attributeName = XSSymbolTable.lookup(reader.getAttributeNamespace(i), reader.getAttributeLocalName(i));
 
-            XmlSchemaAttribute attribute = attributes.get(attributeName);
+            XmlSchemaAttribute attribute = compiledType.getAttribute(attributeName);
             if (attribute != null) {
                 XSAttributeNode attributeNode = new XSAttributeNode(attribute);
+                if (projection != null && projection.getChild(attributeNode.getXPathStep()) == null) {
+                    continue;
+                }
                 node.insert(attributeNode, node.getChildCount());
                 String value = reader.getAttributeValue(i);
                 if (value != null && value.length() > 0) {
                     XmlSchemaSimpleType simpleType = XSModel.getSimpleType(attributeNode);
-                    if (Constants.XSD_QNAME.equals(simpleType.getQName())) {
+                    if (typedValues) {
+                        attributeNode.setUserObject(XSValueType.get(simpleType).parse(value, reader.getNamespaceContext()));
+                    } else if (Constants.XSD_QNAME.equals(simpleType.getQName())) {
                         QName qname = DatatypeConverter.parseQName(value, reader.getNamespaceContext());
                         attributeNode.setUserObject(qname);
                     } else {
@@ -336,6 +818,15 @@ public class XSModel<T, V extends T> extends XSNode<T,V> {
         }
     }
     
+    /**
+     * Looks up the interned name of the current element.
+     * 
+     * @return the element name symbol or null if the name is not known.
+     */
+    private static QName getSymbol(XMLStreamReader reader) {
+        return XSSymbolTable.lookup(reader.getNamespaceURI(), reader.getLocalName());
+    }
+
     private XSGlobalElementNode findElement(QName elementName) {
         XmlSchemaElement element = schemas.getElementByQName(elementName);
         if (element != null) {
@@ -358,47 +849,14 @@ public class XSModel<T, V extends T> extends XSNode<T,V> {
         return null;
     }
 
-    private void addComplexType(XSComponent component, XmlSchemaComplexType complexType) {
-        Map<QName, XmlSchemaAttribute> attributes = new LinkedHashMap<>();
-        addAttributes(attributes, complexType.getAttributes());
+    private void addComplexType(XSComponent component, XmlSchemaComplexType complexType, List<XmlSchemaType> path) {
+        final XSCompiledType compiledType = XSCompiledType.get(complexType);
 
-        XmlSchemaParticle particle = complexType.getParticle();
-        if (particle != null) {
-            addParticle(component, particle);
-        } else {
-            XmlSchemaContentModel contentModel = complexType.getContentModel();
-            if (contentModel != null) {
-                XmlSchemaContent content = contentModel.getContent();
-                if (content instanceof XmlSchemaComplexContentExtension) {
-                    XmlSchemaComplexContentExtension complexContentExtension = (XmlSchemaComplexContentExtension)content;
-                    addAttributes(attributes, complexContentExtension.getAttributes());
-                    
-                    final QName baseTypeName = complexContentExtension.getBaseTypeName();
-                    final XmlSchemaType baseType;
-                    final XmlSchema xmlSchema = complexType.getParent();
-                    final XmlSchemaCollection xmlSchemaCollection = xmlSchema.getParent();
-                    if (xmlSchemaCollection != null) {
-                        baseType = xmlSchemaCollection.getTypeByQName(baseTypeName);
-                    } else {
-                        baseType = xmlSchema.getTypeByName(baseTypeName);
-                    }
-                    addComplexType(component, (XmlSchemaComplexType)baseType);
-                    
-                    particle = complexContentExtension.getParticle();
-                    addParticle(component, particle);
-                } else if (content instanceof XmlSchemaComplexContentRestriction) {
-                    XmlSchemaComplexContentRestriction complexContentRestriction = (XmlSchemaComplexContentRestriction)content;
-                    addAttributes(attributes, complexContentRestriction.getAttributes());
-                    particle = complexContentRestriction.getParticle();
-                    addParticle(component, particle);
-                } else if (content instanceof XmlSchemaSimpleContentExtension) {
-                    XmlSchemaSimpleContentExtension simpleContentExtension = (XmlSchemaSimpleContentExtension)content;
-                    addAttributes(attributes, simpleContentExtension.getAttributes());
-                } 
-            }
+        for (XmlSchemaParticle particle : compiledType.getParticles()) {
+            addParticle(component, particle, path);
         }
-        
-        for (XmlSchemaAttribute attribute : attributes.values()) {
+
+        for (XmlSchemaAttribute attribute : compiledType.getAttributes().values()) {
             XSAttribute child = newAttribute(attribute);
             String value = attribute.getDefaultValue();
             if (value != null) {
@@ -408,173 +866,33 @@ public class XSModel<T, V extends T> extends XSNode<T,V> {
         }
     }
 
-    private Map<QName, XmlSchemaAttribute> getAttributes(XSComponent component) {
-        Map<QName, XmlSchemaAttribute> attributes = new LinkedHashMap<>();
-        XmlSchemaType type = component.getType();
-        if (type instanceof XmlSchemaComplexType) {
-            addAttributes(attributes, (XmlSchemaComplexType)type);
-        }
-        return attributes;
-    }
-
-    private void addAttributes(Map<QName, XmlSchemaAttribute> attributes, XmlSchemaComplexType complexType) {
-        addAttributes(attributes, complexType.getAttributes());
-
-        XmlSchemaContentModel contentModel = complexType.getContentModel();
-        if (contentModel != null) {
-            XmlSchemaContent content = contentModel.getContent();
-            if (content instanceof XmlSchemaComplexContentExtension) {
-                XmlSchemaComplexContentExtension complexContentExtension = (XmlSchemaComplexContentExtension)content;
-                addAttributes(attributes, complexContentExtension.getAttributes());
-
-                final QName baseTypeName = complexContentExtension.getBaseTypeName();
-                final XmlSchemaType baseType;
-                final XmlSchema xmlSchema = complexType.getParent();
-                final XmlSchemaCollection xmlSchemaCollection = xmlSchema.getParent();
-                if (xmlSchemaCollection != null) {
-                    baseType = xmlSchemaCollection.getTypeByQName(baseTypeName);
-                } else {
-                    baseType = xmlSchema.getTypeByName(baseTypeName);
-                }
-                addAttributes(attributes, (XmlSchemaComplexType) baseType);
-            } else if (content instanceof XmlSchemaComplexContentRestriction) {
-                XmlSchemaComplexContentRestriction complexContentRestriction = (XmlSchemaComplexContentRestriction)content;
-                addAttributes(attributes, complexContentRestriction.getAttributes());
-            } else if (content instanceof XmlSchemaSimpleContentExtension) {
-                XmlSchemaSimpleContentExtension simpleContentExtension = (XmlSchemaSimpleContentExtension)content;
-                addAttributes(attributes, simpleContentExtension.getAttributes());
-            }
-        }
-    }
-
-    private void addAttributes(Map<QName, XmlSchemaAttribute> attributes, List<XmlSchemaAttributeOrGroupRef> attributeOrGroupRefs) {
-        for (XmlSchemaAttributeOrGroupRef attributeOrGroupRef : attributeOrGroupRefs) {
-            addAttributes(attributes, (XmlSchemaAttributeGroupMember)attributeOrGroupRef);
-        }
-    }
-
-    private void addAttributes(Map<QName, XmlSchemaAttribute> attributes, XmlSchemaAttributeGroupMember attributeGroupMember) {
-        if (attributeGroupMember instanceof XmlSchemaAttribute) {
-            XmlSchemaAttribute attribute = getAttribute((XmlSchemaAttribute)attributeGroupMember);
-            attributes.put(attribute.getWireName(), attribute);
-        } else {
-            XmlSchemaAttributeGroup attributeGroup;
-            if (attributeGroupMember instanceof XmlSchemaAttributeGroup) {
-                attributeGroup = (XmlSchemaAttributeGroup)attributeGroupMember;
-            }
-            else {
-                XmlSchemaAttributeGroupRef attributeGroupRef = (XmlSchemaAttributeGroupRef)attributeGroupMember;
-                XmlSchemaRef<XmlSchemaAttributeGroup> ref = attributeGroupRef.getRef();
-                attributeGroup = ref.getTarget();
-            }
-
-            List<XmlSchemaAttributeGroupMember> attributeGroupMembers = attributeGroup.getAttributes();
-            for (XmlSchemaAttributeGroupMember xmlSchemaAttributeGroupMember : attributeGroupMembers) {
-                addAttributes(attributes, xmlSchemaAttributeGroupMember);
-            }
-        }
-    }
-
+    /**
+     * Returns all the elements that may appear in the component content.
+     * The returned map is shared and must not be modified.
+     * 
+     * @param component the component which content elements are looked for
+     * 
+     * @return the map of the content elements
+     */
     public final static Map<QName, XmlSchemaElement> getElements(XSComponent component) {
-        Map<QName, XmlSchemaElement> elements = new LinkedHashMap<>();
         XmlSchemaType type = component.getType();
         if (type instanceof XmlSchemaComplexType) {
-            addElements(elements, (XmlSchemaComplexType)type);
-        }
-        return elements;
-    }
-        
-    private static void addElements(Map<QName, XmlSchemaElement> elements, XmlSchemaComplexType complexType) {
-        XmlSchemaParticle particle = complexType.getParticle();
-        if (particle != null) {
-            addElement(elements, Arrays.asList(particle));
-        } else {
-            XmlSchemaContentModel contentModel = complexType.getContentModel();
-            XmlSchemaContent content = contentModel.getContent();
-            if (content instanceof XmlSchemaComplexContentExtension) {
-                XmlSchemaComplexContentExtension complexContentExtension = (XmlSchemaComplexContentExtension)content;
-                QName baseTypeName = complexContentExtension.getBaseTypeName();
-
-                XmlSchema schema = complexType.getParent();
-                XmlSchemaCollection schemaCollection = schema.getParent();
-
-                final XmlSchemaType baseType;
-                if (schemaCollection != null) {
-                    baseType = schemaCollection.getTypeByQName(baseTypeName);
-                } else {
-                    baseType = schema.getTypeByName(baseTypeName);
-                }
-
-                if (baseType instanceof XmlSchemaComplexType) {
-                    addElements(elements, (XmlSchemaComplexType)baseType);
-                }
-                
-                particle = complexContentExtension.getParticle();
-                if (particle != null) {
-                    addElement(elements, Arrays.asList(particle));
-                }
-            } else if (content instanceof XmlSchemaComplexContentRestriction) {
-                XmlSchemaComplexContentRestriction complexContentRestriction = (XmlSchemaComplexContentRestriction)content;
-                particle = complexContentRestriction.getParticle();
-                if (particle != null) {
-                    addElement(elements, Arrays.asList(particle));
-                }
-            }
-        }
-    }
-
-    private static void addElement(Map<QName, XmlSchemaElement> elements, List<? extends XmlSchemaObjectBase> items) {
-        for (XmlSchemaObjectBase item : items) {
-            if (item instanceof XmlSchemaElement) {
-                XmlSchemaElement element = getElement((XmlSchemaElement)item);
-                elements.put(element.getQName(), element);
-            } else if(item instanceof XmlSchemaSequence) {
-                final XmlSchemaSequence sequence = (XmlSchemaSequence)item;
-                addElement(elements, sequence.getItems());
-            } else if (item instanceof XmlSchemaChoice) {
-                XmlSchemaChoice choice = (XmlSchemaChoice)item;
-                addElement(elements, choice.getItems());
-            } else if (item instanceof XmlSchemaGroup) {
-                XmlSchemaGroup group = (XmlSchemaGroup)item;
-                XmlSchemaGroupParticle groupParticle = group.getParticle();
-                addElement(elements, Arrays.asList(groupParticle));
-            } else if (item instanceof XmlSchemaGroupRef) {
-                XmlSchemaGroupRef groupRef = (XmlSchemaGroupRef)item;
-                XmlSchemaGroupParticle groupParticle = groupRef.getParticle();
-                addElement(elements, Arrays.asList(groupParticle));
-            }
+            return XSCompiledType.get((XmlSchemaComplexType)type).getElements();
         }
+        return Collections.emptyMap();
     }
 
     /**
-     * Finds the attribute declaration.
-     * <xs:attribute name="surname" type="xs:string" />
-     * ...
-     * <xs:attribute ref="surname"/>
-     * 
+     * Returns the name of the element as it appears in the document.
+     * The local elements are in the target namespace only if they are qualified, 
+     * while the global ones always are.
      * 
-     * @param attribute the attribute for which is declaration is needed
+     * @param element the element (not a reference)
      * 
-     * @return attribute declaration which is either a referred attribute or
-     * attribute itself.
+     * @return the name of the element in the document
      */
-    private XmlSchemaAttribute getAttribute(XmlSchemaAttribute attribute) {
-        if (attribute.isRef()) {
-            XmlSchemaRef<XmlSchemaAttribute> ref = attribute.getRef();
-            XmlSchemaAttribute refAttribute = ref.getTarget();
-            if (refAttribute != null) {
-                return refAttribute;
-            }
-            QName targetName = ref.getTargetQName();
-            XmlSchema schema = attribute.getParent();
-            XmlSchemaCollection schemaCollection = schema.getParent();
-            if (schemaCollection != null) {
-                attribute = schemaCollection.getAttributeByQName(targetName);
-            } else {
-                attribute = schema.getAttributeByName(targetName);
-            }
-        }
-        return attribute;
+    public final static QName getWireName(XmlSchemaElement element) {
+        return element.isTopLevel() ? element.getQName() : element.getWireName();
     }
 
     public final static XmlSchemaElement getElement(XmlSchemaElement element) {
@@ -605,54 +923,20 @@ public class XSModel<T, V extends T> extends XSNode<T,V> {
      * @return a simple type for the node content or null.
      */
     public final static XmlSchemaSimpleType getSimpleType(XSComponent component) {
-        final XmlSchemaType type = component.getType();
-        return type == null ? null : getSimpleType(type);
-    }
-    
-    private static XmlSchemaSimpleType getSimpleType(XmlSchemaType type) {
-        if (type instanceof XmlSchemaSimpleType) {
-            return (XmlSchemaSimpleType)type;
-        }
-        
-        XmlSchemaComplexType complexType = (XmlSchemaComplexType)type;
-        return getSimpleType(complexType);        
-    }
-    
-    private static XmlSchemaSimpleType getSimpleType(XmlSchemaComplexType complexType) {
-        XmlSchemaContentModel contentModel = complexType.getContentModel();
-        if (contentModel == null) {
-            return null;
-        }
-        
-        XmlSchemaContent content = contentModel.getContent();
-        
-        QName baseTypeName;
-        if (content instanceof XmlSchemaComplexContentExtension) {
-            XmlSchemaComplexContentExtension complexContentExtension = (XmlSchemaComplexContentExtension)content;
-            baseTypeName = complexContentExtension.getBaseTypeName();
-        } else if (content instanceof XmlSchemaComplexContentRestriction) {
-            XmlSchemaComplexContentRestriction complexContentRestriction = (XmlSchemaComplexContentRestriction)content;
-            baseTypeName = complexContentRestriction.getBaseTypeName();
-        } else if (content instanceof XmlSchemaSimpleContentExtension) {
-            XmlSchemaSimpleContentExtension simpleContentExtension = (XmlSchemaSimpleContentExtension)content;
-            baseTypeName = simpleContentExtension.getBaseTypeName();
-        } else {
-            return null; // shouldn't happen
-        }
-        
-        XmlSchemaType baseType;
-        XmlSchema schema = complexType.getParent();
-        XmlSchemaCollection schemaCollection = schema.getParent();
-        if (schemaCollection != null) {
-            baseType = schemaCollection.getTypeByQName(baseTypeName);
-        } else {
-            baseType = schema.getTypeByName(baseTypeName);
-        }
-        
-        return getSimpleType(baseType);
+        return component.getSimpleType();
     }
 
+    /**
+     * Adds the particle (with all its subelements obtained from schema) to the component.
+     * 
+     * @param component the component to add the particle to
+     * @param particle the particle to add
+     */
     public void addParticle(XSComponent component, XmlSchemaParticle particle) {
+        addParticle(component, particle, getExpansionPath(component));
+    }
+
+    private void addParticle(XSComponent component, XmlSchemaParticle particle, List<XmlSchemaType> path) {
         if (particle instanceof XmlSchemaElement) {
             XSParticle node = newParticle(particle);
             component.insert((V)node, component.getChildCount());
@@ -664,11 +948,11 @@ public class XSModel<T, V extends T> extends XSNode<T,V> {
             }
             
             if (element.getMaxOccurs() <= 1) {
-                parse(node);
+                parse(node, path);
             } else {
                 XmlSchemaType type = node.getType();
                 XSType tNode = newType(type);
-                parse(tNode);
+                parse(tNode, path);
                 node.insert(tNode, node.getChildCount());
 //                for (int i = 0, n = Math.max(1, (int)particle.getMinOccurs()); i < n; i++) {
 //                    XSTypeNode tNode = new XSTypeNode(type);
@@ -679,20 +963,187 @@ public class XSModel<T, V extends T> extends XSNode<T,V> {
             XmlSchemaSequence sequence = (XmlSchemaSequence)particle;
             List<XmlSchemaSequenceMember> items = sequence.getItems();
             for (XmlSchemaSequenceMember item : items) {
-                addParticle(component, (XmlSchemaParticle)item);
+                addParticle(component, (XmlSchemaParticle)item, path);
             }
         } else if (particle instanceof XmlSchemaAll) {
             XmlSchemaAll all = (XmlSchemaAll)particle;
             List<XmlSchemaElement> elements = all.getItems();
             for (XmlSchemaElement element : elements) {
-                addParticle(component, element);
+                addParticle(component, element, path);
             }
         } else if (particle instanceof XmlSchemaChoice) {
             XmlSchemaChoice xmlSchemaChoice = (XmlSchemaChoice)particle;
-            List<XmlSchemaObject> items = xmlSchemaChoice.getItems();
+            XmlSchemaParticle branch = XSChoiceIndex.get(xmlSchemaChoice).getDefaultBranch();
             
-            // for the choice add only one element
-            addParticle(component, (XmlSchemaParticle)items.get(0));
+            // for the choice add only one branch
+            if (branch != null) {
+                addParticle(component, branch, path);
+            }
+        }
+    }
+
+    /**
+     * The state of the element being read.
+     */
+    private final static class ReadFrame {
+        private XSComponent node;
+        private boolean simple;
+        private boolean mixed;
+
+        // the content model automaton places every child element
+        private XSContentModel contentModel;
+        private int state;
+        private XSParticleNode repeated;
+        private int occurrences;
+
+        // the store of the large value being read
+        private XSLargeValue.Builder large;
+
+        // the projection of the element content (null if the whole content is read)
+        private XSProjection projection;
+
+        // the projection of the child element content returned by the last addChild()
+        private XSProjection childProjection;
+
+        private void open(XSComponent node, XSProjection projection) {
+            this.node = node;
+            this.projection = projection;
+
+            // the text of the elements which are only on the path to the projected nodes is not read
+            simple = projection == null && XSModel.getSimpleType(node) != null;
+
+            final XmlSchemaType type = node.getType();
+            mixed = projection == null && type instanceof XmlSchemaComplexType && ((XmlSchemaComplexType)type).isMixed();
+
+            contentModel = null;
+            state = XSContentModel.START;
+        }
+
+        /**
+         * Releases the frame. The store of the large value which has not 
+         * been built (i.e. the read has failed) is deleted.
+         */
+        private void close() {
+            if (large != null) {
+                large.abort();
+                large = null;
+            }
+            node = null;
+            repeated = null;
+            projection = null;
+            childProjection = null;
+        }
+
+        private void spill(CharSequence text, XMLStreamReader reader) throws XMLStreamException {
+            try {
+                large = new XSLargeValue.Builder(XSValueType.get(node.getSimpleType()).isBase64());
+                large.append(text);
+            }
+            catch(IOException ex) {
+                throw new XMLStreamException("Can't store the value: " + ex.getMessage(), reader.getLocation(), ex);
+            }
+        }
+
+        private void append(XMLStreamReader reader) throws XMLStreamException {
+            try {
+                large.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+            }
+            catch(IOException ex) {
+                throw new XMLStreamException("Can't store the value: " + ex.getMessage(), reader.getLocation(), ex);
+            }
+        }
+
+        private XSLargeValue build(XMLStreamReader reader) throws XMLStreamException {
+            try {
+                return large.build();
+            }
+            catch(IOException ex) {
+                throw new XMLStreamException("Can't store the value: " + ex.getMessage(), reader.getLocation(), ex);
+            }
+            finally {
+                large = null;
+            }
+        }
+
+        /**
+         * Creates the node for the child element the reader is positioned on.
+         * The element is matched against the projection before its node is 
+         * created, so the elements which are not projected leave the tree intact.
+         * The projection of the child content is left in the childProjection.
+         * 
+         * @return the node to read the element into or null if the element is not kept in the model.
+         */
+        private XSComponent addChild(XMLStreamReader reader) throws XMLStreamException {
+            final XmlSchemaType type = node.getType();
+            if (!(type instanceof XmlSchemaComplexType)) {
+                throw new XMLStreamException("Simple type " + type.getQName() + " cannot have children! ", reader.getLocation());
+            }
+
+            if (contentModel == null) {
+                contentModel = XSContentModel.get((XmlSchemaComplexType)type);
+            }
+
+            final int next = contentModel.next(state, getSymbol(reader));
+            if (next < 0) {
+                throw new XMLStreamException("Unexpected element " + reader.getName() + 
+                        " (expected " + contentModel.getExpected(state) + ")", reader.getLocation());
+            }
+
+            final boolean same = next == state;
+            state = next;
+
+            final XmlSchemaElement element = contentModel.getElement(next);
+            if (element == null) {
+                return null;
+            }
+
+            childProjection = null;
+            if (projection != null) {
+                childProjection = projection.getChild(XSComponent.createXPathStep(getWireName(element), false));
+            }
+
+            if (element.getMaxOccurs() > 1) {
+                // the same particle continues with the next occurrence
+                if (!same) {
+                    repeated = null;
+                    occurrences = 0;
+                }
+                occurrences++;
+
+                if (projection != null) {
+                    if (childProjection == null) {
+                        return null; // neither the repeated element nor its occurrences are projected
+                    }
+                    if (!childProjection.isComplete()) {
+                        childProjection = childProjection.getChild(POSITION_STEP + occurrences + "]");
+                        if (childProjection == null) {
+                            return null;
+                        }
+                    }
+                }
+
+                if (repeated == null) {
+                    repeated = new XSParticleNode(element);
+                    node.insert(repeated, node.getChildCount());
+                }
+
+                // the skipped occurrences are kept (empty) to keep the positions of the projected ones
+                while (repeated.getChildCount() < occurrences - 1) {
+                    repeated.insert(new XSTypeNode(repeated.getType()), repeated.getChildCount());
+                }
+
+                XSTypeNode typeNode = new XSTypeNode(repeated.getType());
+                repeated.insert(typeNode, repeated.getChildCount());
+                return typeNode;
+            }
+
+            if (projection != null && childProjection == null) {
+                return null;
+            }
+
+            XSParticleNode particleNode = new XSParticleNode(element);
+            node.insert(particleNode, node.getChildCount());
+            return particleNode;
         }
     }
 }
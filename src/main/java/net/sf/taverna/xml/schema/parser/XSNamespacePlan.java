@@ -0,0 +1,253 @@
+/**
+ * *****************************************************************************
+ * Copyright (C) 2014 Spanish National Bioinformatics Institute (INB),
+ * Barcelona Supercomputing Center and The University of Manchester
+ *
+ * Modifications to the initial code base are copyright of their respective
+ * authors, or their employers as appropriate.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ *****************************************************************************
+ */
+
+package net.sf.taverna.xml.schema.parser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.xml.XMLConstants;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import org.apache.ws.commons.schema.XmlSchemaObject;
+import org.apache.ws.commons.schema.utils.NamespacePrefixList;
+import org.apache.ws.commons.schema.utils.XmlSchemaNamed;
+
+/**
+ * The prefixes of all the namespaces used by the subtree being written.
+ * The namespaces are collected once, before the subtree is written, and
+ * declared on its top element, so the elements and attributes are written 
+ * with the prefixes found in the plan instead of probing the stream 
+ * namespace context for every node.
+ * The prefixes are chosen the same way XSComponent.setPrefix() does: 
+ * the one already bound in the stream, the one defined in the schema or 
+ * the first free "nsN" one.
+ * The default namespace is used only when all the elements of the subtree 
+ * are qualified, so unqualified elements never need xmlns="" to get out of it.
+ * The plan is also the namespace context of the written subtree.
+ * Only the nodes which are going to be written are visited: the subtrees 
+ * which are not valid are skipped as the serializers skip them, and the 
+ * children of the lazy nodes are not created.
+ * 
+ * @author Dmitry Repchevsky
+ */
+
+final class XSNamespacePlan implements NamespaceContext {
+    // namespace -> prefix in the order the namespaces are met
+    private final Map<String, String> prefixes;
+
+    /**
+     * @param root the top node of the subtree to be written
+     * @param context the namespace context of the stream (may be null)
+     */
+    XSNamespacePlan(XSComponent root, NamespaceContext context) {
+        final Map<String, XSComponent> namespaces = new LinkedHashMap<>();
+        final Set<String> attributeNamespaces = new HashSet<>();
+        boolean unqualified = false;
+
+        final List<XSComponent> stack = new ArrayList<>();
+        stack.add(root);
+        while (!stack.isEmpty()) {
+            final XSComponent component = stack.remove(stack.size() - 1);
+            if ((component instanceof XSParticle || 
+                 component instanceof XSType || 
+                 component instanceof XSGlobalElement) && 
+                !Boolean.TRUE.equals(component.validate())) {
+                continue; // the subtree is not written
+            }
+
+            if (component instanceof XSParticle || 
+                component instanceof XSGlobalElement || 
+                component instanceof XSAttribute) {
+                final String namespace = component.getName().getNamespaceURI();
+                add(namespaces, namespace, component);
+                if (component instanceof XSAttribute) {
+                    attributeNamespaces.add(namespace);
+                } else if (namespace.isEmpty()) {
+                    unqualified = true;
+                }
+            }
+
+            // QName values are written with the prefixes too
+            final Object value = component.getUserObject();
+            if (value instanceof QName) {
+                add(namespaces, ((QName)value).getNamespaceURI(), component);
+            }
+
+            if (!component.isMaterialized()) {
+                continue; // the lazy node is empty
+            }
+
+            // children are pushed in the reverse order to be visited in the document order
+            for (int i = component.getChildCount() - 1; i >= 0; i--) {
+                stack.add((XSComponent)component.getChildAt(i));
+            }
+        }
+
+        prefixes = new LinkedHashMap<>();
+
+        final Set<String> used = new HashSet<>();
+        for (Map.Entry<String, XSComponent> entry : namespaces.entrySet()) {
+            final String namespace = entry.getKey();
+
+            String prefix = context == null ? null : context.getPrefix(namespace);
+            if (prefix == null) {
+                prefix = getSchemaPrefix(entry.getValue(), namespace);
+            }
+
+            // neither attributes nor elements of the unqualified subtree can be in the default namespace
+            if (prefix != null && (used.contains(prefix) || 
+                                   prefix.isEmpty() && (unqualified || attributeNamespaces.contains(namespace)))) {
+                prefix = null;
+            }
+
+            if (prefix == null) {
+                prefix = "ns0";
+                for (int i = 1; used.contains(prefix) || isBound(context, prefix); i++) {
+                    prefix = "ns" + i;
+                }
+            }
+
+            used.add(prefix);
+            prefixes.put(namespace, prefix);
+        }
+    }
+
+    /**
+     * @param namespace the namespace used in the subtree
+     * 
+     * @return the prefix of the namespace or null if the namespace is not used in the subtree.
+     */
+    @Override
+    public String getPrefix(String namespace) {
+        if (XMLConstants.XML_NS_URI.equals(namespace)) {
+            return XMLConstants.XML_NS_PREFIX;
+        }
+        return prefixes.get(namespace);
+    }
+
+    @Override
+    public String getNamespaceURI(String prefix) {
+        for (Map.Entry<String, String> entry : prefixes.entrySet()) {
+            if (entry.getValue().equals(prefix)) {
+                return entry.getKey();
+            }
+        }
+        return XMLConstants.XML_NS_PREFIX.equals(prefix) ? XMLConstants.XML_NS_URI : XMLConstants.NULL_NS_URI;
+    }
+
+    @Override
+    public Iterator getPrefixes(String namespace) {
+        final String prefix = getPrefix(namespace);
+        return prefix == null ? Collections.emptyIterator() : Collections.singleton(prefix).iterator();
+    }
+
+    /**
+     * @return the map of the planned namespaces to their prefixes.
+     */
+    Map<String, String> getPrefixes() {
+        return prefixes;
+    }
+
+    /**
+     * Binds the prefixes in the stream namespace context. 
+     * Must be called before the top element is started.
+     */
+    void bind(XMLStreamWriter stream) throws XMLStreamException {
+        for (Map.Entry<String, String> entry : prefixes.entrySet()) {
+            final String prefix = entry.getValue();
+            if (prefix.isEmpty()) {
+                stream.setDefaultNamespace(entry.getKey());
+            } else {
+                stream.setPrefix(prefix, entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Declares the namespaces on the top element which has just been started.
+     * Nothing is written to the namespace-repairing stream as it declares 
+     * the bound prefixes itself.
+     */
+    void declare(XMLStreamWriter stream) throws XMLStreamException {
+        if (isRepairing(stream)) {
+            return;
+        }
+        for (Map.Entry<String, String> entry : prefixes.entrySet()) {
+            final String prefix = entry.getValue();
+            if (prefix.isEmpty()) {
+                stream.writeDefaultNamespace(entry.getKey());
+            } else {
+                stream.writeNamespace(prefix, entry.getKey());
+            }
+        }
+    }
+
+    private static boolean isRepairing(XMLStreamWriter stream) {
+        try {
+            return Boolean.TRUE.equals(stream.getProperty(XMLOutputFactory.IS_REPAIRING_NAMESPACES));
+        } catch (IllegalArgumentException ex) {
+            return false; // the property is not supported
+        }
+    }
+
+    /**
+     * @return true if the prefix is bound in the stream namespace context 
+     * (the context returns either null or "" for an unbound prefix).
+     */
+    private static boolean isBound(NamespaceContext context, String prefix) {
+        if (context == null) {
+            return false;
+        }
+        final String namespace = context.getNamespaceURI(prefix);
+        return namespace != null && !namespace.isEmpty();
+    }
+
+    private static void add(Map<String, XSComponent> namespaces, String namespace, XSComponent component) {
+        if (namespace != null && !namespace.isEmpty() && 
+            !XMLConstants.XML_NS_URI.equals(namespace) && 
+            !namespaces.containsKey(namespace)) {
+            namespaces.put(namespace, component);
+        }
+    }
+
+    private static String getSchemaPrefix(XSComponent component, String namespace) {
+        final XmlSchemaObject object = component.getXSComponent();
+        if (object instanceof XmlSchemaNamed) {
+            final NamespacePrefixList namespaces = ((XmlSchemaNamed)object).getParent().getNamespaceContext();
+            if (namespaces != null) {
+                return namespaces.getPrefix(namespace);
+            }
+        }
+        return null;
+    }
+}
@@ -27,7 +27,9 @@ package net.sf.taverna.xml.schema.parser;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Generic Tree Node implementation class that is compatible with MutableTreeNode 
@@ -40,17 +42,20 @@ import java.util.List;
  * @author Dmitry Repchevsky
  */
 
-public class XSNode <T, V extends T>  {
+public class XSNode <T, V extends T> implements Cloneable {
 
     private V parent;
     private Object userObject;
-    private final List<V> children;
+    private List<V> children;
+    private Map<String, V> steps;
     
     public XSNode() {
         children = new ArrayList();
     }
     
     public void insert(V child, int index) {
+        materialize();
+
         if (child instanceof XSNode) {
             XSNode<XSNode,XSNode> node = (XSNode)child;
             XSNode oldParent = node.getParent();
@@ -60,21 +65,126 @@ public class XSNode <T, V extends T>  {
             node.setParent(this);
         }
         children.add(index, child);
+
+        if (steps != null && child instanceof XSNode) {
+            final String step = ((XSNode)child).getXPathStep();
+            if (step != null) {
+                if (steps.containsKey(step)) {
+                    steps = null; // keep the first child with the step - rebuild the index
+                } else {
+                    steps.put(step, child);
+                }
+            }
+        }
+        nodeChanged();
     }
 
     public void remove(int index) {
+        materialize();
+
         V child = children.remove(index);
         if (child instanceof XSNode) {
             XSNode<XSNode,XSNode> node = (XSNode)child;
             node.setParent(null);
+            removeStep(node);
         }
+        nodeChanged();
     }
 
     public void remove(V child) {
-        if (children.remove(child) && child instanceof XSNode) {
-            XSNode<XSNode,XSNode> node = (XSNode)child;
-            node.setParent(null);
+        materialize();
+
+        if (children.remove(child)) {
+            if (child instanceof XSNode) {
+                XSNode<XSNode,XSNode> node = (XSNode)child;
+                node.setParent(null);
+                removeStep(node);
+            }
+            nodeChanged();
+        }
+    }
+
+    private void removeStep(XSNode node) {
+        if (steps != null && node.getXPathStep() != null) {
+            steps = null; // there could be another child with the same step
+        }
+    }
+
+    /**
+     * Returns the XPath step that identifies this node among its siblings
+     * (i.e. "/name" or "/@name"). 
+     * Nodes that are identified by their position return null.
+     * 
+     * @return the XPath step of the node or null.
+     */
+    protected String getXPathStep() {
+        return null;
+    }
+
+    /**
+     * Finds the first child node identified by the XPath step.
+     * The children are indexed by their steps, so the lookup takes constant time.
+     * 
+     * @param step the XPath step of the child node (i.e. "/name" or "/@name")
+     * 
+     * @return the child node or null if there is no such node
+     */
+    public V getChild(String step) {
+        materialize();
+
+        if (steps == null) {
+            steps = new HashMap<>();
+            for (V child : children) {
+                if (child instanceof XSNode) {
+                    final String childStep = ((XSNode)child).getXPathStep();
+                    if (childStep != null && !steps.containsKey(childStep)) {
+                        steps.put(childStep, child);
+                    }
+                }
+            }
         }
+        return steps.get(step);
+    }
+
+    /**
+     * Creates a deep copy of the node. The copy has no parent, its children 
+     * are the copies of this node children while node values are shared.
+     * 
+     * @return the copy of the node subtree
+     */
+    @Override
+    public XSNode<T,V> clone() {
+        final XSNode<T,V> node;
+        try {
+            node = (XSNode<T,V>)super.clone();
+        } catch (CloneNotSupportedException ex) {
+            throw new IllegalStateException(ex);
+        }
+        node.parent = null;
+        node.steps = null;
+        node.children = new ArrayList(children.size());
+        node.copyChildren(this);
+        return node;
+    }
+
+    /**
+     * Appends the copies of the template node children to this node.
+     * The template children are copied as they are (not yet created children 
+     * of the template subnodes are created on demand in the copy as well).
+     * 
+     * @param template the node which children are copied
+     */
+    protected void copyChildren(XSNode<T,V> template) {
+        for (V child : template.children) {
+            if (child instanceof XSNode) {
+                final XSNode<T,V> node = ((XSNode<T,V>)child).clone();
+                node.parent = (V)this;
+                child = (V)node;
+            }
+            children.add(child);
+        }
+        steps = null;
+        nodeChanged();
     }
 
     public Object getUserObject() {
@@ -83,6 +193,21 @@ public class XSNode <T, V extends T>  {
     
     public void setUserObject(Object object) {
         this.userObject = object;
+        nodeChanged();
+    }
+
+    /**
+     * Called after the node value or its children list has been changed.
+     * Subclasses may override it to drop any state derived from the node subtree.
+     */
+    protected void nodeChanged() {
+    }
+
+    /**
+     * Called before the node children are accessed.
+     * Subclasses may override it to create children nodes on demand.
+     */
+    protected void materialize() {
     }
 
     public void removeFromParent() {
@@ -97,10 +222,12 @@ public class XSNode <T, V extends T>  {
     }
 
     public V getChildAt(int childIndex) {
+        materialize();
         return children.get(childIndex);
     }
 
     public int getChildCount() {
+        materialize();
         return children.size();
     }
 
@@ -109,6 +236,7 @@ public class XSNode <T, V extends T>  {
     }
 
     public int getIndex(T node) {
+        materialize();
         return children.indexOf(node);
     }
 
@@ -121,6 +249,7 @@ public class XSNode <T, V extends T>  {
     }
 
     public Enumeration children() {
+        materialize();
         return Collections.enumeration(children);
     }
     
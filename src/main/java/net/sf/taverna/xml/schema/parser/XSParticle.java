@@ -27,9 +27,6 @@ package net.sf.taverna.xml.schema.parser;
 import javax.xml.namespace.QName;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamWriter;
-import org.apache.ws.commons.schema.XmlSchema;
-import org.apache.ws.commons.schema.XmlSchemaAny;
-import org.apache.ws.commons.schema.XmlSchemaCollection;
 import org.apache.ws.commons.schema.XmlSchemaElement;
 import org.apache.ws.commons.schema.XmlSchemaParticle;
 import org.apache.ws.commons.schema.XmlSchemaType;
@@ -40,44 +37,33 @@ import org.apache.ws.commons.schema.XmlSchemaType;
 
 public class XSParticle<T,V extends T> extends XSComponent<T,V, XmlSchemaParticle> {
 
+    private QName name;
+    private XmlSchemaType type;
+
     public XSParticle(XmlSchemaParticle particle) {
         super(particle);
     }
 
     @Override
     public XmlSchemaType getType() {
-        if (component instanceof XmlSchemaElement) {
+        if (type == null && component instanceof XmlSchemaElement) {
             XmlSchemaElement element = XSModel.getElement((XmlSchemaElement)component);
-            XmlSchemaType type = element.getSchemaType();
-            if (type == null) {
-                QName typeName = element.getSchemaTypeName();
-                XmlSchema schema = element.getParent();
-                XmlSchemaCollection schemaCollection = schema.getParent();
-                if (schemaCollection != null) {
-                    type = schemaCollection.getTypeByQName(typeName);
-                } else {
-                    type = schema.getTypeByName(typeName);
-                }
-            }
-            
-            return type;
-        } else if (component instanceof XmlSchemaAny) {
-            
+            type = XSTypeHierarchy.getType(element);
         }
-        return null; // ??? TODO ???
+        return type; // ??? TODO ??? (XmlSchemaAny)
     }
 
     @Override
     public QName getName() {
-        if (component instanceof XmlSchemaElement) {
+        if (name == null && component instanceof XmlSchemaElement) {
             XmlSchemaElement element = XSModel.getElement((XmlSchemaElement)component);
-            return element.getQName();
+            name = XSSymbolTable.intern(XSModel.getWireName(element));
         }
-        return null;
+        return name;
     }
 
     @Override
-    public Boolean validate() {
+    protected Boolean computeValidity() {
         Boolean isValid;
 
         final long min = component.getMinOccurs();
@@ -105,6 +91,9 @@ public class XSParticle<T,V extends T> extends XSComponent<T,V, XmlSchemaParticl
         } else {
             int bad = 0;
             int good = XSModel.getSimpleType(this) != null ? getUserObject() != null ? 1 : 0 : 0;
+            if (good > 0 && !isValidValue()) {
+                return Boolean.FALSE;
+            }
 
             for (int i = 0, n = getChildCount(); i < n; i++) {
                 XSComponent child = (XSComponent)getChildAt(i);
@@ -161,10 +150,7 @@ public class XSParticle<T,V extends T> extends XSComponent<T,V, XmlSchemaParticl
                     child.write(stream);
                 }
 
-                Object object = getUserObject();
-                if (object != null) {
-                    stream.writeCharacters(object.toString());
-                }
+                writeValue(stream);
 
                 stream.writeEndElement();
             }
@@ -174,15 +160,11 @@ public class XSParticle<T,V extends T> extends XSComponent<T,V, XmlSchemaParticl
     @Override
     public String getXPath() {
         final XSComponent parent = (XSComponent)getParent();
-        final StringBuilder xpath = new StringBuilder(parent.getXPath());
-        final QName qname = getName();
-        final String localpart = qname.getLocalPart();
-        final String namespace = qname.getNamespaceURI();
-        if (namespace.isEmpty()) {
-            xpath.append('/').append(localpart);
-        } else {
-            xpath.append("/*[namespace-uri()='").append(namespace).append("' and local-name()='").append(localpart).append("']");
-        }
-        return xpath.toString();
+        return parent.getXPath() + getXPathStep();
+    }
+
+    @Override
+    protected String createXPathStep() {
+        return createXPathStep(getName(), false);
     }
 }
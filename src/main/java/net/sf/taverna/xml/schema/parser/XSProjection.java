@@ -0,0 +1,99 @@
+/**
+ * *****************************************************************************
+ * Copyright (C) 2014 Spanish National Bioinformatics Institute (INB),
+ * Barcelona Supercomputing Center and The University of Manchester
+ *
+ * Modifications to the initial code base are copyright of their respective
+ * authors, or their employers as appropriate.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ *****************************************************************************
+ */
+
+package net.sf.taverna.xml.schema.parser;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The set of XPaths (in the form produced by getXPath() methods of the 
+ * components) which selects the parts of the document to be read 
+ * (see XSModel.read(XMLStreamReader, XSReadMonitor, XSProjection)).
+ * The paths are kept as a tree of their steps, so the reader matches every 
+ * element by the only lookup. A path selects the node with its whole subtree, 
+ * other subtrees are skipped without creating the nodes.
+ * 
+ * @author Dmitry Repchevsky
+ */
+
+public final class XSProjection {
+    private final Map<String, XSProjection> children;
+    private boolean complete;
+
+    /**
+     * @param xpaths the XPaths of the nodes to read
+     * 
+     * @throws IllegalArgumentException if the XPath is malformed
+     */
+    public XSProjection(Collection<String> xpaths) {
+        this();
+        for (String xpath : xpaths) {
+            add(xpath);
+        }
+    }
+
+    private XSProjection() {
+        children = new HashMap<>();
+    }
+
+    /**
+     * @return true if the whole subtree is selected.
+     */
+    boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * @param step the XPath step of the child node
+     * 
+     * @return the projection of the child node or null if the child isn't selected.
+     */
+    XSProjection getChild(String step) {
+        return children.get(step);
+    }
+
+    private void add(String xpath) {
+        XSProjection projection = this;
+        for (int pos = 0, length = xpath.length(); pos < length && !projection.complete;) {
+            final int end = XSModel.nextXPathStep(xpath, pos);
+            if (end < 0) {
+                throw new IllegalArgumentException("Malformed XPath: " + xpath);
+            }
+
+            final String step = xpath.substring(pos, end);
+            XSProjection child = projection.children.get(step);
+            if (child == null) {
+                projection.children.put(step, child = new XSProjection());
+            }
+            projection = child;
+            pos = end;
+        }
+
+        // the shorter path selects all the longer ones
+        projection.complete = true;
+        projection.children.clear();
+    }
+}
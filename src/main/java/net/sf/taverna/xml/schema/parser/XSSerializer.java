@@ -0,0 +1,252 @@
+/**
+ * *****************************************************************************
+ * Copyright (C) 2014 Spanish National Bioinformatics Institute (INB),
+ * Barcelona Supercomputing Center and The University of Manchester
+ *
+ * Modifications to the initial code base are copyright of their respective
+ * authors, or their employers as appropriate.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ *****************************************************************************
+ */
+
+package net.sf.taverna.xml.schema.parser;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import org.apache.ws.commons.schema.XmlSchemaAttribute;
+import org.apache.ws.commons.schema.XmlSchemaComplexType;
+import org.apache.ws.commons.schema.XmlSchemaElement;
+import org.apache.ws.commons.schema.XmlSchemaParticle;
+import org.apache.ws.commons.schema.XmlSchemaSimpleType;
+import org.apache.ws.commons.schema.XmlSchemaType;
+import org.apache.ws.commons.schema.XmlSchemaUse;
+
+/**
+ * XML serializer for the model tree.
+ * 
+ * Component's write() methods check the validity of the component before
+ * writing it, which makes the serialization of the whole tree O(n x depth).
+ * The serializer validates the tree bottom-up once (validity is cached by 
+ * the components) and then emits the XML in a single traversal.
+ * The output is exactly the same as the one produced by the components.
+ * 
+ * The namespaces used by the written subtree are collected before it is 
+ * written and declared on its top element (see XSNamespacePlan), so the 
+ * nodes are written with the planned prefixes.
+ * 
+ * @author Dmitry Repchevsky
+ */
+
+public class XSSerializer {
+
+    private XSNamespacePlan plan;
+
+    // the number of open elements
+    private int depth;
+
+    /**
+     * Writes all the components of the model into the stream.
+     * 
+     * @param model the model to serialize
+     * @param stream XML writer to write generated XML
+     * 
+     * @throws XMLStreamException 
+     */
+    public void write(XSNode model, XMLStreamWriter stream) throws XMLStreamException {
+        final int n = model.getChildCount();
+
+        // compute validity of the whole tree (bottom-up) at once
+        for (int i = 0; i < n; i++) {
+            XSComponent component = (XSComponent)model.getChildAt(i);
+            component.validate();
+        }
+
+        for (int i = 0; i < n; i++) {
+            XSComponent component = (XSComponent)model.getChildAt(i);
+            write(component, stream);
+        }
+    }
+
+    /**
+     * Writes the component (with all its subcomponents) into the stream.
+     * 
+     * @param component the component to serialize
+     * @param stream XML writer to write generated XML
+     * 
+     * @throws XMLStreamException 
+     */
+    public void write(XSComponent component, XMLStreamWriter stream) throws XMLStreamException {
+        plan = new XSNamespacePlan(component, stream.getNamespaceContext());
+        plan.bind(stream);
+        depth = 0;
+        try {
+            writeComponent(component, stream);
+        } finally {
+            plan = null;
+        }
+    }
+
+    private void writeComponent(XSComponent component, XMLStreamWriter stream) throws XMLStreamException {
+        if (component instanceof XSParticle) {
+            writeParticle((XSParticle)component, stream);
+        } else if (component instanceof XSType) {
+            writeType((XSType)component, stream);
+        } else if (component instanceof XSAttribute) {
+            writeAttribute((XSAttribute)component, stream);
+        } else if (component instanceof XSGlobalElement) {
+            writeGlobalElement((XSGlobalElement)component, stream);
+        } else if (component instanceof XSMixedText) {
+            writeCharacters(component, stream);
+        } else {
+            component.write(stream);
+        }
+    }
+
+    private void writeChildren(XSComponent component, XMLStreamWriter stream) throws XMLStreamException {
+        for (int i = 0, n = component.getChildCount(); i < n; i++) {
+            XSComponent child = (XSComponent)component.getChildAt(i);
+            writeComponent(child, stream);
+        }
+    }
+
+    private void writeGlobalElement(XSGlobalElement component, XMLStreamWriter stream) throws XMLStreamException {
+        if (!Boolean.TRUE.equals(component.validate())) {
+            return;
+        }
+
+        final XmlSchemaElement element = (XmlSchemaElement)component.getXSComponent();
+        final XmlSchemaType type = element.getSchemaType();
+        if (type instanceof XmlSchemaSimpleType) {
+            writeElement(component, stream);
+        } else if (type instanceof XmlSchemaComplexType) {
+            final XmlSchemaParticle particle = XSCompiledType.get((XmlSchemaComplexType)type).getParticle();
+            if (particle != null && particle.getMaxOccurs() > 1) {
+                final QName qname = element.getQName();
+                for (int i = 0, n = component.getChildCount(); i < n; i++) {
+                    writeStartElement(qname, stream);
+                    writeComponent((XSComponent)component.getChildAt(i), stream);
+                    writeEndElement(stream);
+                }
+            } else {
+                writeElement(component, stream);
+            }
+        }
+    }
+
+    private void writeElement(XSGlobalElement component, XMLStreamWriter stream) throws XMLStreamException {
+        final XmlSchemaElement element = (XmlSchemaElement)component.getXSComponent();
+        writeStartElement(element.getQName(), stream);
+        writeChildren(component, stream);
+
+        if (XSModel.getSimpleType(component) != null) {
+            writeCharacters(component, stream);
+        }
+
+        writeEndElement(stream);
+    }
+
+    private void writeParticle(XSParticle component, XMLStreamWriter stream) throws XMLStreamException {
+        if (!Boolean.TRUE.equals(component.validate())) {
+            return;
+        }
+
+        final QName qname = component.getName();
+        final XmlSchemaParticle particle = (XmlSchemaParticle)component.getXSComponent();
+        if (particle.getMaxOccurs() > 1) {
+            for (int i = 0, n = component.getChildCount(); i < n; i++) {
+                writeStartElement(qname, stream);
+                writeComponent((XSComponent)component.getChildAt(i), stream);
+                writeEndElement(stream);
+            }
+        } else {
+            writeStartElement(qname, stream);
+            writeChildren(component, stream);
+            writeCharacters(component, stream);
+            writeEndElement(stream);
+        }
+    }
+
+    private void writeType(XSType component, XMLStreamWriter stream) throws XMLStreamException {
+        if (!Boolean.TRUE.equals(component.validate())) {
+            return;
+        }
+
+        // suppose that attributes are ALWAYS before elements
+        writeChildren(component, stream);
+
+        if (component.isSimpleType()) {
+            writeCharacters(component, stream);
+        }
+    }
+
+    private void writeAttribute(XSAttribute component, XMLStreamWriter stream) throws XMLStreamException {
+        final XmlSchemaAttribute attribute = (XmlSchemaAttribute)component.getXSComponent();
+
+        final String text = component.getLexicalValue(stream.getNamespaceContext());
+        if (text != null) {
+            final QName name = component.getName();
+            final String localName = name.getLocalPart();
+            final String namespace = name.getNamespaceURI();
+
+            final String prefix = namespace == null ? null : plan.getPrefix(namespace);
+            if (prefix != null) {
+                stream.writeAttribute(prefix, namespace, localName, text);
+            } else if (namespace != null && namespace.length() > 0) {
+                stream.writeAttribute(namespace, localName, text);
+            } else {
+                stream.writeAttribute(localName, text);
+            }
+        } else if (XmlSchemaUse.REQUIRED == attribute.getUse()) {
+            throw new XMLStreamException("Required attribute missing: " + component.getTypeName().toString());
+        }
+    }
+
+    private void writeStartElement(QName qname, XMLStreamWriter stream) throws XMLStreamException {
+        final String localName = qname.getLocalPart();
+        final String namespace = qname.getNamespaceURI();
+
+        final String prefix = namespace == null ? null : plan.getPrefix(namespace);
+        if (prefix != null) {
+            stream.writeStartElement(prefix, localName, namespace);
+        } else if (namespace != null && namespace.length() > 0) {
+            stream.writeStartElement(namespace, localName);
+        } else {
+            stream.writeStartElement(localName);
+
+            // the plan never binds the default namespace over the unqualified elements, but the stream might
+            final String defaultNamespace = stream.getNamespaceContext().getNamespaceURI(XMLConstants.DEFAULT_NS_PREFIX);
+            if (defaultNamespace != null && !defaultNamespace.isEmpty()) {
+                stream.setDefaultNamespace(XMLConstants.NULL_NS_URI);
+                stream.writeDefaultNamespace(XMLConstants.NULL_NS_URI);
+            }
+        }
+
+        if (depth++ == 0) {
+            plan.declare(stream);
+        }
+    }
+
+    private void writeEndElement(XMLStreamWriter stream) throws XMLStreamException {
+        stream.writeEndElement();
+        depth--;
+    }
+
+    private void writeCharacters(XSComponent component, XMLStreamWriter stream) throws XMLStreamException {
+        component.writeValue(stream);
+    }
+}
@@ -0,0 +1,662 @@
+/**
+ * *****************************************************************************
+ * Copyright (C) 2014 Spanish National Bioinformatics Institute (INB),
+ * Barcelona Supercomputing Center and The University of Manchester
+ *
+ * Modifications to the initial code base are copyright of their respective
+ * authors, or their employers as appropriate.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ *****************************************************************************
+ */
+
+package net.sf.taverna.xml.schema.parser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import javax.xml.namespace.QName;
+import net.sf.taverna.xml.schema.ui.tree.node.MessagePartNode;
+import net.sf.taverna.xml.schema.ui.tree.node.XSGlobalElementNode;
+import net.sf.taverna.xml.schema.ui.tree.node.XSMixedTextNode;
+import org.apache.ws.commons.schema.XmlSchemaAttribute;
+import org.apache.ws.commons.schema.XmlSchemaComplexType;
+import org.apache.ws.commons.schema.XmlSchemaElement;
+import org.apache.ws.commons.schema.XmlSchemaSimpleType;
+import org.apache.ws.commons.schema.XmlSchemaType;
+
+/**
+ * The compact binary snapshot of the model tree (see XSModel.writeSnapshot()).
+ * 
+ * The nodes are written in the document order as their kinds, the ids of 
+ * their schema components and their values (typed values are kept in their 
+ * binary form). The schema components are identified by their positions in 
+ * the content of the parent node complex type (see XSCompiledType), so the 
+ * nodes are restored without the XML parsing and without looking the 
+ * components up by their names. Only the global elements (and the message 
+ * parts types) are found by their names.
+ * 
+ * The snapshot ends with the fingerprint of the content of all the complex 
+ * types used by the tree, so the snapshot that is read against the changed 
+ * schemas is rejected.
+ * 
+ * The tree is traversed without recursion and the snapshot is written and 
+ * read through the byte buffer, so the channels may be of any kind.
+ * 
+ * @author Dmitry Repchevsky
+ */
+
+final class XSSnapshot {
+    private final static int MAGIC = 0x58535331; // "XSS1"
+    private final static int BUFFER_SIZE = 1 << 16;
+
+    // node kinds
+    private final static byte GLOBAL_ELEMENT = 1;
+    private final static byte MESSAGE_PART = 2;
+    private final static byte PARTICLE = 3;
+    private final static byte TYPE = 4;
+    private final static byte ATTRIBUTE = 5;
+    private final static byte MIXED_TEXT = 6;
+
+    // value tags
+    private final static byte NULL = 0;
+    private final static byte STRING = 1;
+    private final static byte QNAME = 2;
+    private final static byte BYTES = 3;
+    private final static byte BOOLEAN = 4;
+    private final static byte INTEGER = 5;
+    private final static byte LONG = 6;
+    private final static byte DOUBLE = 7;
+    private final static byte FLOAT = 8;
+    private final static byte LARGE = 9;
+    private final static byte LEXICAL = 10;
+
+    private final ByteBuffer buffer;
+    private final WritableByteChannel out;
+    private final ReadableByteChannel in;
+
+    // the content ids of the complex types in the order of their first use
+    private final Map<XmlSchemaType, ContentIds> types;
+    private long fingerprint;
+
+    private XSSnapshot(WritableByteChannel out, ReadableByteChannel in) {
+        this.out = out;
+        this.in = in;
+
+        buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        types = new IdentityHashMap<>();
+        fingerprint = 1;
+    }
+
+    /**
+     * Writes the snapshot of the model tree into the channel.
+     * The lazy nodes which children are not created yet are written as they are.
+     * 
+     * @param model the model to write
+     * @param channel the channel to write the snapshot to (it is not closed)
+     * 
+     * @throws IOException if the snapshot can't be written
+     */
+    static void write(XSModel<?,?> model, WritableByteChannel channel) throws IOException {
+        new XSSnapshot(channel, null).write(model);
+    }
+
+    /**
+     * Reads the snapshot of the model tree from the channel.
+     * 
+     * @param model the model which schemas the snapshot was written against
+     * @param channel the channel to read the snapshot from (it is not closed)
+     * 
+     * @return the detached top nodes of the restored tree
+     * 
+     * @throws IOException if the snapshot is corrupted or doesn't match the model schemas
+     */
+    static List<XSComponent> read(XSModel<?,?> model, ReadableByteChannel channel) throws IOException {
+        return new XSSnapshot(null, channel).read(model);
+    }
+
+    private void write(XSModel<?,?> model) throws IOException {
+        final int n = model.getChildCount();
+
+        putInt(MAGIC);
+        putVarint(n);
+
+        final List<Frame> stack = new ArrayList<>();
+        stack.add(new Frame(null, n));
+        while (!stack.isEmpty()) {
+            final Frame frame = stack.get(stack.size() - 1);
+            if (frame.next == frame.count) {
+                stack.remove(stack.size() - 1);
+                continue;
+            }
+            final XSNode parent = frame.node == null ? model : frame.node;
+            final XSComponent node = (XSComponent)parent.getChildAt(frame.next++);
+            final int count = writeNode(frame.node, node);
+            if (count > 0) {
+                stack.add(new Frame(node, count));
+            }
+        }
+
+        putLong(fingerprint);
+        flush();
+    }
+
+    /**
+     * @return the number of the node children which are going to be written.
+     */
+    private int writeNode(XSComponent parent, XSComponent node) throws IOException {
+        if (node instanceof XSGlobalElement) {
+            put(GLOBAL_ELEMENT);
+            putQName(((XmlSchemaElement)node.getXSComponent()).getQName());
+        } else if (node instanceof MessagePartNode) {
+            put(MESSAGE_PART);
+            putQName(node.getType().getQName());
+            putQName(node.getName());
+        } else if (node instanceof XSParticle) {
+            put(PARTICLE);
+            putVarint(getContentIds(parent).getElementId(node.getXSComponent()));
+        } else if (node instanceof XSType) {
+            put(TYPE);
+        } else if (node instanceof XSAttribute) {
+            put(ATTRIBUTE);
+            putVarint(getContentIds(parent).getAttributeId(node.getXSComponent()));
+        } else if (node instanceof XSMixedText) {
+            put(MIXED_TEXT);
+        } else {
+            throw new IOException("Unsupported node " + node.getClass().getName());
+        }
+
+        writeValue(node);
+
+        if (!node.isMaterialized()) {
+            // the children are created on demand after the node is restored
+            putVarint(1);
+            return 0;
+        }
+
+        final int count = node.getChildCount();
+        putVarint(count << 1);
+        return count;
+    }
+
+    private void writeValue(XSComponent node) throws IOException {
+        final Object value = node.getUserObject();
+        if (value == null) {
+            put(NULL);
+        } else if (value instanceof String) {
+            put(STRING);
+            putString((String)value);
+        } else if (value instanceof QName) {
+            final QName qname = (QName)value;
+            put(QNAME);
+            putQName(qname);
+            putString(qname.getPrefix());
+        } else if (value instanceof byte[]) {
+            put(BYTES);
+            putBytes((byte[])value);
+        } else if (value instanceof Boolean) {
+            put(BOOLEAN);
+            put((Boolean)value ? (byte)1 : (byte)0);
+        } else if (value instanceof Integer) {
+            put(INTEGER);
+            putInt((Integer)value);
+        } else if (value instanceof Long) {
+            put(LONG);
+            putLong((Long)value);
+        } else if (value instanceof Double) {
+            put(DOUBLE);
+            putLong(Double.doubleToRawLongBits((Double)value));
+        } else if (value instanceof Float) {
+            put(FLOAT);
+            putInt(Float.floatToRawIntBits((Float)value));
+        } else if (value instanceof XSLargeValue) {
+            final XSLargeValue large = (XSLargeValue)value;
+            put(LARGE);
+            put(large.isBinary() ? (byte)1 : (byte)0);
+            putLong(large.length());
+            writeLargeValue(large);
+        } else {
+            // other typed values are kept in their canonical lexical form
+            final XmlSchemaSimpleType simpleType = node.getSimpleType();
+            if (simpleType == null) {
+                put(STRING);
+                putString(value.toString());
+            } else {
+                put(LEXICAL);
+                putString(XSValueType.get(simpleType).print(value, null));
+            }
+        }
+    }
+
+    /**
+     * Copies the stored content of the large value in chunks (the zero chunk ends the value).
+     */
+    private void writeLargeValue(XSLargeValue value) throws IOException {
+        try (InputStream stream = value.openStream()) {
+            final byte[] chunk = new byte[BUFFER_SIZE / 2];
+            for (int n; (n = stream.read(chunk)) >= 0;) {
+                if (n > 0) {
+                    putVarint(n);
+                    putBytes(chunk, n);
+                }
+            }
+        }
+        putVarint(0);
+    }
+
+    private List<XSComponent> read(XSModel<?,?> model) throws IOException {
+        buffer.limit(0);
+
+        if (getInt() != MAGIC) {
+            throw new IOException("Not a model snapshot");
+        }
+
+        final int n = getVarint();
+        final List<XSComponent> nodes = new ArrayList<>(n);
+
+        final List<Frame> stack = new ArrayList<>();
+        stack.add(new Frame(null, n));
+        while (!stack.isEmpty()) {
+            final Frame frame = stack.get(stack.size() - 1);
+            if (frame.next == frame.count) {
+                stack.remove(stack.size() - 1);
+                continue;
+            }
+            frame.next++;
+
+            final XSComponent node = readNode(model, frame.node);
+            if (frame.node == null) {
+                nodes.add(node);
+            } else {
+                frame.node.insert(node, frame.node.getChildCount());
+            }
+
+            final int children = getVarint();
+            if ((children & 1) != 0) {
+                node.setLoader(model);
+            } else if (children > 0) {
+                stack.add(new Frame(node, children >>> 1));
+            }
+        }
+
+        if (getLong() != fingerprint) {
+            throw new IOException("The snapshot was written against different schemas");
+        }
+        return nodes;
+    }
+
+    private XSComponent readNode(XSModel<?,?> model, XSComponent parent) throws IOException {
+        final byte kind = get();
+
+        final XSComponent node;
+        switch(kind) {
+            case GLOBAL_ELEMENT: final QName name = getQName();
+                                 final XmlSchemaElement element = model.getSchemaCollection().getElementByQName(name);
+                                 if (element == null) {
+                                     throw new IOException("No global element " + name + " in the schemas");
+                                 }
+                                 node = new XSGlobalElementNode(element);
+                                 break;
+            case MESSAGE_PART:   final QName typeName = getQName();
+                                 final XmlSchemaType type = model.getSchemaCollection().getTypeByQName(typeName);
+                                 if (type == null) {
+                                     throw new IOException("No global type " + typeName + " in the schemas");
+                                 }
+                                 node = new MessagePartNode(type, null, getQName());
+                                 break;
+            case PARTICLE:       node = model.newParticle(getContentIds(parent).getElement(getVarint()));
+                                 break;
+            case TYPE:           node = model.newType(getParentType(parent));
+                                 break;
+            case ATTRIBUTE:      node = model.newAttribute(getContentIds(parent).getAttribute(getVarint()));
+                                 break;
+            case MIXED_TEXT:     node = new XSMixedTextNode();
+                                 break;
+            default: throw new IOException("Corrupted snapshot: unknown node kind " + kind);
+        }
+
+        final Object value = readValue(node);
+        if (value != null) {
+            node.setUserObject(value);
+        }
+        return node;
+    }
+
+    private Object readValue(XSComponent node) throws IOException {
+        final byte tag = get();
+        switch(tag) {
+            case NULL:    return null;
+            case STRING:  return getString();
+            case QNAME:   final QName qname = getQName();
+                          return new QName(qname.getNamespaceURI(), qname.getLocalPart(), getString());
+            case BYTES:   return getBytes(new byte[getVarint()]);
+            case BOOLEAN: return get() != 0;
+            case INTEGER: return getInt();
+            case LONG:    return getLong();
+            case DOUBLE:  return Double.longBitsToDouble(getLong());
+            case FLOAT:   return Float.intBitsToFloat(getInt());
+            case LARGE:   final boolean binary = get() != 0;
+                          final long length = getLong();
+                          return XSLargeValue.create(new ChunkStream(), binary, length);
+            case LEXICAL: final String text = getString();
+                          final XmlSchemaSimpleType simpleType = node.getSimpleType();
+                          if (simpleType == null) {
+                              throw new IOException("Corrupted snapshot: typed value of the complex node");
+                          }
+                          return XSValueType.get(simpleType).parse(text, null);
+        }
+        throw new IOException("Corrupted snapshot: unknown value tag " + tag);
+    }
+
+    private XmlSchemaType getParentType(XSComponent parent) throws IOException {
+        if (parent == null) {
+            throw new IOException("Corrupted snapshot: the top node must be a global element");
+        }
+        return parent.getType();
+    }
+
+    /**
+     * Returns the ids of the parent type content.
+     * The content of the type is added to the fingerprint when the type is used first.
+     */
+    private ContentIds getContentIds(XSComponent parent) throws IOException {
+        final XmlSchemaType type = getParentType(parent);
+        ContentIds ids = types.get(type);
+        if (ids == null) {
+            if (!(type instanceof XmlSchemaComplexType)) {
+                throw new IOException("Corrupted snapshot: " + parent.getName() + " has simple content");
+            }
+            ids = new ContentIds(XSCompiledType.get((XmlSchemaComplexType)type));
+            types.put(type, ids);
+            fingerprint = fingerprint * 31 + ids.signature();
+        }
+        return ids;
+    }
+
+    private void put(byte b) throws IOException {
+        ensure(1);
+        buffer.put(b);
+    }
+
+    private void putInt(int i) throws IOException {
+        ensure(4);
+        buffer.putInt(i);
+    }
+
+    private void putLong(long l) throws IOException {
+        ensure(8);
+        buffer.putLong(l);
+    }
+
+    private void putVarint(int i) throws IOException {
+        ensure(5);
+        while ((i & ~0x7F) != 0) {
+            buffer.put((byte)(i & 0x7F | 0x80));
+            i >>>= 7;
+        }
+        buffer.put((byte)i);
+    }
+
+    private void putString(String s) throws IOException {
+        putBytes(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void putQName(QName qname) throws IOException {
+        putString(qname.getNamespaceURI());
+        putString(qname.getLocalPart());
+    }
+
+    private void putBytes(byte[] bytes) throws IOException {
+        putVarint(bytes.length);
+        putBytes(bytes, bytes.length);
+    }
+
+    private void putBytes(byte[] bytes, int length) throws IOException {
+        if (length <= buffer.remaining()) {
+            buffer.put(bytes, 0, length);
+        } else {
+            flush();
+            write(ByteBuffer.wrap(bytes, 0, length));
+        }
+    }
+
+    private void ensure(int n) throws IOException {
+        if (buffer.remaining() < n) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        write(buffer);
+        buffer.clear();
+    }
+
+    private void write(ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining()) {
+            out.write(bytes);
+        }
+    }
+
+    private byte get() throws IOException {
+        require(1);
+        return buffer.get();
+    }
+
+    private int getInt() throws IOException {
+        require(4);
+        return buffer.getInt();
+    }
+
+    private long getLong() throws IOException {
+        require(8);
+        return buffer.getLong();
+    }
+
+    private int getVarint() throws IOException {
+        int i = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            final byte b = get();
+            i |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return i;
+            }
+        }
+        throw new IOException("Corrupted snapshot: malformed number");
+    }
+
+    private String getString() throws IOException {
+        final int length = getVarint();
+        if (length <= buffer.capacity()) {
+            require(length);
+            final String s = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+            return s;
+        }
+        return new String(getBytes(new byte[length]), StandardCharsets.UTF_8);
+    }
+
+    private QName getQName() throws IOException {
+        final String namespace = getString();
+        return new QName(namespace, getString());
+    }
+
+    private byte[] getBytes(byte[] bytes) throws IOException {
+        return getBytes(bytes, bytes.length);
+    }
+
+    private byte[] getBytes(byte[] bytes, int length) throws IOException {
+        final int n = Math.min(length, buffer.remaining());
+        buffer.get(bytes, 0, n);
+
+        final ByteBuffer rest = ByteBuffer.wrap(bytes, n, length - n);
+        while (rest.hasRemaining()) {
+            if (in.read(rest) < 0) {
+                throw new IOException("Unexpected end of the snapshot");
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Makes at least n bytes available in the buffer.
+     */
+    private void require(int n) throws IOException {
+        if (buffer.remaining() < n) {
+            buffer.compact();
+            while (buffer.position() < n) {
+                if (in.read(buffer) < 0) {
+                    throw new IOException("Unexpected end of the snapshot");
+                }
+            }
+            buffer.flip();
+        }
+    }
+
+    /**
+     * The node which children are being written (read).
+     */
+    private final static class Frame {
+        private final XSComponent node;
+        private final int count;
+        private int next;
+
+        private Frame(XSComponent node, int count) {
+            this.node = node;
+            this.count = count;
+        }
+    }
+
+    /**
+     * The ids of the complex type content components.
+     * The element particle id is its position in the type content (doubled, 
+     * odd ids stand for the referred elements), the attribute id is its 
+     * position in the type attributes.
+     */
+    private final static class ContentIds {
+        private final List<XmlSchemaElement> elements;
+        private final List<XmlSchemaAttribute> attributes;
+
+        private Map<Object, Integer> elementIds;
+        private Map<Object, Integer> attributeIds;
+
+        private ContentIds(XSCompiledType compiledType) {
+            elements = compiledType.getContentElements();
+            attributes = new ArrayList<>(compiledType.getAttributes().values());
+        }
+
+        private long signature() {
+            long signature = 17;
+            for (XmlSchemaElement element : elements) {
+                signature = signature * 31 + Objects.hashCode(XSModel.getElement(element).getQName());
+                signature = signature * 31 + element.getMaxOccurs();
+            }
+            for (XmlSchemaAttribute attribute : attributes) {
+                signature = signature * 31 + Objects.hashCode(attribute.getWireName());
+            }
+            return signature;
+        }
+
+        private int getElementId(Object element) throws IOException {
+            if (elementIds == null) {
+                elementIds = new IdentityHashMap<>();
+                for (int i = 0, n = elements.size(); i < n; i++) {
+                    final XmlSchemaElement particle = elements.get(i);
+                    if (!elementIds.containsKey(particle)) {
+                        elementIds.put(particle, i << 1);
+                    }
+                    final XmlSchemaElement referred = XSModel.getElement(particle);
+                    if (!elementIds.containsKey(referred)) {
+                        elementIds.put(referred, i << 1 | 1);
+                    }
+                }
+            }
+            final Integer id = elementIds.get(element);
+            if (id == null) {
+                throw new IOException("The element is not in the content of its parent type");
+            }
+            return id;
+        }
+
+        private XmlSchemaElement getElement(int id) throws IOException {
+            final int i = id >>> 1;
+            if (i >= elements.size()) {
+                throw new IOException("The snapshot was written against different schemas");
+            }
+            final XmlSchemaElement particle = elements.get(i);
+            return (id & 1) == 0 ? particle : XSModel.getElement(particle);
+        }
+
+        private int getAttributeId(Object attribute) throws IOException {
+            if (attributeIds == null) {
+                attributeIds = new IdentityHashMap<>();
+                for (int i = 0, n = attributes.size(); i < n; i++) {
+                    attributeIds.put(attributes.get(i), i);
+                }
+            }
+            final Integer id = attributeIds.get(attribute);
+            if (id == null) {
+                throw new IOException("The attribute is not in its parent type");
+            }
+            return id;
+        }
+
+        private XmlSchemaAttribute getAttribute(int id) throws IOException {
+            if (id >= attributes.size()) {
+                throw new IOException("The snapshot was written against different schemas");
+            }
+            return attributes.get(id);
+        }
+    }
+
+    /**
+     * The stream of the large value chunks.
+     */
+    private final class ChunkStream extends InputStream {
+        private int remaining;
+        private boolean end;
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining == 0 && !end) {
+                remaining = getVarint();
+                end = remaining == 0;
+            }
+            if (end) {
+                return -1;
+            }
+            final int n = Math.min(len, remaining);
+            require(Math.min(n, buffer.capacity()));
+            final int available = Math.min(n, buffer.remaining());
+            buffer.get(b, off, available);
+            remaining -= available;
+            return available;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/**
+ * *****************************************************************************
+ * Copyright (C) 2014 Spanish National Bioinformatics Institute (INB),
+ * Barcelona Supercomputing Center and The University of Manchester
+ *
+ * Modifications to the initial code base are copyright of their respective
+ * authors, or their employers as appropriate.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ *****************************************************************************
+ */
+
+package net.sf.taverna.xml.schema.parser;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+
+/**
+ * The table of canonical names (symbols) used by the model.
+ * Each namespace / local name pair is represented by the only QName instance, 
+ * so the names may be compared by identity and used as keys of identity maps.
+ * 
+ * The symbols are shared by all the models as the compiled types are shared 
+ * too. Only the names defined in the schemas are interned, the names found in 
+ * the read documents are just looked up. The table keeps the symbols weakly: 
+ * a symbol lives as long as it is referenced (by the compiled types and the 
+ * content models kept in the schema meta info or by the nodes), so the names 
+ * of the schemas which are not used any more are released with the schemas.
+ * 
+ * @author Dmitry Repchevsky
+ */
+
+public final class XSSymbolTable {
+    // namespace -> local name -> symbol (the keys are the strings of the symbols themselves)
+    private final static Map<String, Map<String, WeakReference<QName>>> SYMBOLS = new WeakHashMap<>();
+
+    /**
+     * The symbol for the empty name (anonymous types, mixed text).
+     */
+    public final static QName EMPTY = intern(XMLConstants.NULL_NS_URI, "");
+
+    private XSSymbolTable() {}
+
+    /**
+     * Returns the canonical instance of the name.
+     * 
+     * @param qname the name to intern
+     * 
+     * @return the symbol equal to the name (the prefix is not preserved).
+     */
+    public static QName intern(QName qname) {
+        return intern(qname.getNamespaceURI(), qname.getLocalPart());
+    }
+
+    /**
+     * Returns the canonical instance of the name creating it if needed.
+     * 
+     * @param namespace the namespace of the name (null for no namespace)
+     * @param localName the local part of the name
+     * 
+     * @return the symbol for the name
+     */
+    public static QName intern(String namespace, String localName) {
+        final String ns = namespace == null ? XMLConstants.NULL_NS_URI : namespace;
+        synchronized(SYMBOLS) {
+            QName symbol = find(ns, localName);
+            if (symbol == null) {
+                Map<String, WeakReference<QName>> names = SYMBOLS.get(ns);
+                if (names == null) {
+                    SYMBOLS.put(ns, names = new WeakHashMap<>());
+                }
+
+                // the symbol strings are the keys, so the entries live as long as the symbol does
+                symbol = new QName(getKey(ns), localName);
+                names.put(symbol.getLocalPart(), new WeakReference<>(symbol));
+            }
+            return symbol;
+        }
+    }
+
+    /**
+     * Looks up the canonical instance of the name without creating it.
+     * The method does not allocate any object, so it is used to match
+     * the names of the read documents.
+     * 
+     * @param namespace the namespace of the name (null for no namespace)
+     * @param localName the local part of the name
+     * 
+     * @return the symbol for the name or null if the name is not interned
+     */
+    public static QName lookup(String namespace, String localName) {
+        synchronized(SYMBOLS) {
+            return find(namespace == null ? XMLConstants.NULL_NS_URI : namespace, localName);
+        }
+    }
+
+    /**
+     * @return the number of interned names.
+     */
+    public static int size() {
+        synchronized(SYMBOLS) {
+            int size = 0;
+            for (Map<String, WeakReference<QName>> names : SYMBOLS.values()) {
+                size += names.size();
+            }
+            return size;
+        }
+    }
+
+    private static QName find(String namespace, String localName) {
+        final Map<String, WeakReference<QName>> names = SYMBOLS.get(namespace);
+        if (names != null) {
+            final WeakReference<QName> ref = names.get(localName);
+            if (ref != null) {
+                return ref.get();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the namespace instance which is the key of the namespace names.
+     */
+    private static String getKey(String namespace) {
+        for (String key : SYMBOLS.keySet()) {
+            if (key.equals(namespace)) {
+                return key;
+            }
+        }
+        return namespace;
+    }
+}
@@ -63,9 +63,12 @@ public class XSType<T,V extends T> extends XSComponent<T,V, XmlSchemaType> {
     }
     
     @Override
-    public Boolean validate() {
+    protected Boolean computeValidity() {
         int bad = 0;
         int good = isSimpleType() ? getUserObject() != null ? 1 : 0 : 0;
+        if (good > 0 && !isValidValue()) {
+            return Boolean.FALSE;
+        }
 
         for (int i = 0, n = getChildCount(); i < n; i++) {
             XSComponent child = (XSComponent)getChildAt(i);
@@ -94,10 +97,7 @@ public class XSType<T,V extends T> extends XSComponent<T,V, XmlSchemaType> {
             }
 
             if (isSimpleType()) {
-                Object object = getUserObject();
-                if (object != null) {
-                    stream.writeCharacters(object.toString());
-                }
+                writeValue(stream);
             }
         }
     }
@@ -0,0 +1,199 @@
+/**
+ * *****************************************************************************
+ * Copyright (C) 2014 Spanish National Bioinformatics Institute (INB),
+ * Barcelona Supercomputing Center and The University of Manchester
+ *
+ * Modifications to the initial code base are copyright of their respective
+ * authors, or their employers as appropriate.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ *****************************************************************************
+ */
+
+package net.sf.taverna.xml.schema.parser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import javax.xml.namespace.QName;
+import org.apache.ws.commons.schema.XmlSchema;
+import org.apache.ws.commons.schema.XmlSchemaAttribute;
+import org.apache.ws.commons.schema.XmlSchemaCollection;
+import org.apache.ws.commons.schema.XmlSchemaComplexContentExtension;
+import org.apache.ws.commons.schema.XmlSchemaComplexContentRestriction;
+import org.apache.ws.commons.schema.XmlSchemaComplexType;
+import org.apache.ws.commons.schema.XmlSchemaContent;
+import org.apache.ws.commons.schema.XmlSchemaContentModel;
+import org.apache.ws.commons.schema.XmlSchemaElement;
+import org.apache.ws.commons.schema.XmlSchemaSimpleContentExtension;
+import org.apache.ws.commons.schema.XmlSchemaSimpleContentRestriction;
+import org.apache.ws.commons.schema.XmlSchemaSimpleType;
+import org.apache.ws.commons.schema.XmlSchemaSimpleTypeContent;
+import org.apache.ws.commons.schema.XmlSchemaSimpleTypeRestriction;
+import org.apache.ws.commons.schema.XmlSchemaType;
+
+/**
+ * The resolver of the schema types and their derivation chains.
+ * 
+ * The derivation chain of the type (the type, its base type, the base of 
+ * the base type and so on) is built once and memoized in the type meta info, 
+ * so isDerivedFrom() is just the lookup in the chain and nothing is kept 
+ * outside of the schemas.
+ * 
+ * @author Dmitry Repchevsky
+ */
+
+public final class XSTypeHierarchy {
+    private XSTypeHierarchy() {}
+
+    /**
+     * Checks whether the type is the base type itself or is derived from it
+     * (by extension or restriction).
+     * 
+     * @param type the type to check
+     * @param base the supposed base type
+     * 
+     * @return true if the type is derived from the base type
+     */
+    public static boolean isDerivedFrom(XmlSchemaType type, XmlSchemaType base) {
+        return type == base || contains(getDerivationChain(type), base);
+    }
+
+    /**
+     * Returns the derivation chain of the type.
+     * The chain is built on the first call and reused afterwards.
+     * 
+     * @param type the type to get the derivation chain for
+     * 
+     * @return the list of types that starts with the type itself followed by its base types.
+     */
+    public static List<XmlSchemaType> getDerivationChain(XmlSchemaType type) {
+        synchronized(type) {
+            final Map<Object, Object> metaInfo = type.getMetaInfoMap();
+            List<XmlSchemaType> chain = metaInfo == null ? null : (List<XmlSchemaType>)metaInfo.get(XSTypeHierarchy.class);
+            if (chain == null) {
+                chain = new ArrayList<>();
+                for (XmlSchemaType t = type; t != null && !contains(chain, t); t = getBaseType(t)) {
+                    chain.add(t);
+                }
+                chain = Collections.unmodifiableList(chain);
+                type.addMetaInfo(XSTypeHierarchy.class, chain);
+            }
+            return chain;
+        }
+    }
+
+    /**
+     * Returns the simple type of the type content.
+     * 
+     * @param type either simple or complex type
+     * 
+     * @return the simple type itself, the simple content type of the complex type or null.
+     */
+    public static XmlSchemaSimpleType getSimpleType(XmlSchemaType type) {
+        if (type instanceof XmlSchemaSimpleType) {
+            return (XmlSchemaSimpleType)type;
+        }
+        if (type instanceof XmlSchemaComplexType) {
+            return XSCompiledType.get((XmlSchemaComplexType)type).getSimpleType();
+        }
+        return null;
+    }
+
+    /**
+     * Returns the type this type is immediately derived from.
+     * 
+     * @param type the derived type
+     * 
+     * @return the base type or null if the type is not derived from any other type.
+     */
+    public static XmlSchemaType getBaseType(XmlSchemaType type) {
+        if (type instanceof XmlSchemaComplexType) {
+            final XmlSchemaContentModel contentModel = ((XmlSchemaComplexType)type).getContentModel();
+            final XmlSchemaContent content = contentModel == null ? null : contentModel.getContent();
+            if (content instanceof XmlSchemaComplexContentExtension) {
+                return getType(type.getParent(), ((XmlSchemaComplexContentExtension)content).getBaseTypeName());
+            }
+            if (content instanceof XmlSchemaComplexContentRestriction) {
+                return getType(type.getParent(), ((XmlSchemaComplexContentRestriction)content).getBaseTypeName());
+            }
+            if (content instanceof XmlSchemaSimpleContentExtension) {
+                return getType(type.getParent(), ((XmlSchemaSimpleContentExtension)content).getBaseTypeName());
+            }
+            if (content instanceof XmlSchemaSimpleContentRestriction) {
+                return getType(type.getParent(), ((XmlSchemaSimpleContentRestriction)content).getBaseTypeName());
+            }
+        } else if (type instanceof XmlSchemaSimpleType) {
+            final XmlSchemaSimpleTypeContent content = ((XmlSchemaSimpleType)type).getContent();
+            if (content instanceof XmlSchemaSimpleTypeRestriction) {
+                final XmlSchemaSimpleTypeRestriction restriction = (XmlSchemaSimpleTypeRestriction)content;
+                final XmlSchemaSimpleType baseType = restriction.getBaseType();
+                return baseType != null ? baseType : getType(type.getParent(), restriction.getBaseTypeName());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the type of the element.
+     * 
+     * @param element the element declaration (not a reference)
+     * 
+     * @return the element type
+     */
+    public static XmlSchemaType getType(XmlSchemaElement element) {
+        final XmlSchemaType type = element.getSchemaType();
+        return type != null ? type : getType(element.getParent(), element.getSchemaTypeName());
+    }
+
+    /**
+     * Returns the type of the attribute.
+     * 
+     * @param attribute the attribute declaration (not a reference)
+     * 
+     * @return the attribute type
+     */
+    public static XmlSchemaType getType(XmlSchemaAttribute attribute) {
+        final XmlSchemaType type = attribute.getSchemaType();
+        return type != null ? type : getType(attribute.getParent(), attribute.getSchemaTypeName());
+    }
+
+    /**
+     * Finds the type by its name in the schema collection (or in the schema 
+     * if it is not a part of any collection).
+     * 
+     * @param schema the schema where the type is referred from
+     * @param typeName the name of the type
+     * 
+     * @return the type or null if no type found
+     */
+    public static XmlSchemaType getType(XmlSchema schema, QName typeName) {
+        if (typeName == null || schema == null) {
+            return null;
+        }
+        final XmlSchemaCollection schemas = schema.getParent();
+        return schemas != null ? schemas.getTypeByQName(typeName) : schema.getTypeByName(typeName);
+    }
+
+    private static boolean contains(List<XmlSchemaType> chain, XmlSchemaType type) {
+        for (XmlSchemaType t : chain) {
+            if (t == type) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
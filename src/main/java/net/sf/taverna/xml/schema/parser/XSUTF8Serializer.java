@@ -0,0 +1,763 @@
+/**
+ * *****************************************************************************
+ * Copyright (C) 2014 Spanish National Bioinformatics Institute (INB),
+ * Barcelona Supercomputing Center and The University of Manchester
+ *
+ * Modifications to the initial code base are copyright of their respective
+ * authors, or their employers as appropriate.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ *****************************************************************************
+ */
+
+package net.sf.taverna.xml.schema.parser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import javax.xml.namespace.QName;
+import org.apache.ws.commons.schema.XmlSchemaAttribute;
+import org.apache.ws.commons.schema.XmlSchemaComplexType;
+import org.apache.ws.commons.schema.XmlSchemaElement;
+import org.apache.ws.commons.schema.XmlSchemaParticle;
+import org.apache.ws.commons.schema.XmlSchemaSimpleType;
+import org.apache.ws.commons.schema.XmlSchemaType;
+import org.apache.ws.commons.schema.XmlSchemaUse;
+
+/**
+ * The serializer that writes the model tree as UTF-8 encoded XML directly 
+ * into the byte buffer which is flushed to the output stream (or channel).
+ * 
+ * The tree is traversed the same way XSSerializer does and the XML is the 
+ * same as the one written by XSModel.write() into the namespace repairing 
+ * XMLStreamWriter, but the text is escaped and encoded in a single pass, 
+ * and the names of the nodes (with their prefixes) are encoded only once 
+ * per document. No XML declaration is written.
+ * 
+ * When the ForkJoinPool is set, long lists of repeated elements are split 
+ * into chunks which are written into their own buffers in parallel and then 
+ * copied into the output in order. The chunks share the namespace plan of 
+ * the document, so the output is the same as the sequential one.
+ * Note that the list is validated (and so its lazy nodes are created) before 
+ * the chunks are forked.
+ * 
+ * When the caching is on, the bytes of every written element are kept in 
+ * the component (the bytes of a repeated element occurrence are kept in its 
+ * type node), and the next write of the same plan copies the bytes of the 
+ * components that have not been changed since. Changing a node drops the 
+ * cached bytes of its ancestors (see XSComponent.invalidate()), so writing 
+ * the tree after a one-field edit costs the path from the node to the root 
+ * (with the siblings copied along the path).
+ * 
+ * @author Dmitry Repchevsky
+ */
+
+public class XSUTF8Serializer {
+    private final static int BUFFER_SIZE = 8192;
+    private final static int DEFAULT_CHUNK_SIZE = 1024;
+
+    // the longest encoded character ("&quot;")
+    private final static int MAX_CHAR_BYTES = 6;
+
+    private final static byte[] AMP = {'&', 'a', 'm', 'p', ';'};
+    private final static byte[] LT = {'&', 'l', 't', ';'};
+    private final static byte[] GT = {'&', 'g', 't', ';'};
+    private final static byte[] QUOT = {'&', 'q', 'u', 'o', 't', ';'};
+
+    private final static byte[] XMLNS = {' ', 'x', 'm', 'l', 'n', 's'};
+
+    private final OutputStream out;
+    private final WritableByteChannel channel;
+
+    private final byte[] buffer;
+    private final ByteBuffer byteBuffer;
+    private int position;
+
+    // the text is escaped in chunks
+    private final char[] chars;
+
+    // encoded names (with prefixes) of the current document
+    private final Map<QName, byte[]> names;
+
+    private XSNamespacePlan plan;
+
+    // the number of open elements
+    private int depth;
+    private boolean startTagOpen;
+
+    private ForkJoinPool pool;
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+    private boolean caching;
+
+    // the planned declarations the cached bytes are written with
+    private List<String> signature;
+
+    // the bytes written since the outermost element being cached was started
+    private byte[] record;
+    private int recordLength;
+    private long recordBase;
+    private int recordings;
+
+    // the number of bytes written into the output
+    private long flushed;
+
+    public XSUTF8Serializer(OutputStream out) {
+        this(out, null);
+    }
+
+    public XSUTF8Serializer(WritableByteChannel channel) {
+        this(null, channel);
+    }
+
+    private XSUTF8Serializer(OutputStream out, WritableByteChannel channel) {
+        this.out = out;
+        this.channel = channel;
+
+        buffer = new byte[BUFFER_SIZE];
+        byteBuffer = ByteBuffer.wrap(buffer);
+        chars = new char[BUFFER_SIZE / MAX_CHAR_BYTES];
+        names = new IdentityHashMap<>();
+    }
+
+    /**
+     * Creates the serializer that writes a chunk of the parent serializer 
+     * document into the buffer.
+     */
+    private XSUTF8Serializer(XSUTF8Serializer parent, ByteArrayOutputStream out) {
+        this(out, null);
+
+        plan = parent.plan;
+        depth = parent.depth;
+        caching = parent.caching;
+        signature = parent.signature;
+    }
+
+    /**
+     * @return true if the written elements bytes are cached.
+     */
+    public boolean isCaching() {
+        return caching;
+    }
+
+    /**
+     * Sets whether the written elements keep their bytes to be copied by 
+     * the next write if they are not changed.
+     * 
+     * @param caching whether the bytes of the written elements are cached
+     */
+    public void setCaching(boolean caching) {
+        this.caching = caching;
+    }
+
+    /**
+     * @return the pool used to write repeated elements in parallel or null.
+     */
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Sets the pool to write long lists of repeated elements in parallel.
+     * 
+     * @param pool the pool to write the chunks of the lists or null to write 
+     * everything in the calling thread.
+     */
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * @return the number of repeated elements written by one parallel task.
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Sets the number of repeated elements written by one parallel task.
+     * Lists that are not longer than the chunk are written sequentially.
+     * 
+     * @param chunkSize the number of elements in the chunk
+     */
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = Math.max(1, chunkSize);
+    }
+
+    /**
+     * Writes all the components of the model and flushes the output.
+     * 
+     * @param model the model to serialize
+     * 
+     * @throws IOException 
+     */
+    public void write(XSNode model) throws IOException {
+        final int n = model.getChildCount();
+
+        // compute validity of the whole tree (bottom-up) at once
+        for (int i = 0; i < n; i++) {
+            XSComponent component = (XSComponent)model.getChildAt(i);
+            component.validate();
+        }
+
+        for (int i = 0; i < n; i++) {
+            XSComponent component = (XSComponent)model.getChildAt(i);
+            write(component);
+        }
+
+        flush();
+    }
+
+    /**
+     * Writes the component (with all its subcomponents) into the buffer.
+     * 
+     * @param component the component to serialize
+     * 
+     * @throws IOException 
+     */
+    public void write(XSComponent component) throws IOException {
+        plan = new XSNamespacePlan(component, null);
+        names.clear();
+        depth = 0;
+        recordings = 0;
+        if (caching) {
+            signature = new ArrayList<>();
+            for (Map.Entry<String, String> entry : plan.getPrefixes().entrySet()) {
+                signature.add(entry.getKey());
+                signature.add(entry.getValue());
+            }
+        }
+        try {
+            writeComponent(component);
+            closeStartTag();
+        } finally {
+            plan = null;
+        }
+    }
+
+    /**
+     * Writes the buffered bytes into the output.
+     * 
+     * @throws IOException 
+     */
+    public void flush() throws IOException {
+        flushBuffer();
+        if (out != null) {
+            out.flush();
+        }
+    }
+
+    private void writeComponent(XSComponent component) throws IOException {
+        if (component instanceof XSParticle) {
+            writeParticle((XSParticle)component);
+        } else if (component instanceof XSType) {
+            writeType((XSType)component);
+        } else if (component instanceof XSAttribute) {
+            writeAttribute((XSAttribute)component);
+        } else if (component instanceof XSGlobalElement) {
+            writeGlobalElement((XSGlobalElement)component);
+        } else if (component instanceof XSMixedText) {
+            writeCharacters(component);
+        }
+    }
+
+    private void writeChildren(XSComponent component) throws IOException {
+        for (int i = 0, n = component.getChildCount(); i < n; i++) {
+            XSComponent child = (XSComponent)component.getChildAt(i);
+            writeComponent(child);
+        }
+    }
+
+    private void writeGlobalElement(XSGlobalElement component) throws IOException {
+        if (!Boolean.TRUE.equals(component.validate())) {
+            return;
+        }
+
+        if (isCacheable(component)) {
+            if (!writeCached(component)) {
+                final long mark = mark();
+                writeGlobalElementContent(component);
+                cache(component, mark);
+            }
+        } else {
+            writeGlobalElementContent(component);
+        }
+    }
+
+    private void writeGlobalElementContent(XSGlobalElement component) throws IOException {
+        final XmlSchemaElement element = (XmlSchemaElement)component.getXSComponent();
+        final XmlSchemaType type = element.getSchemaType();
+        if (type instanceof XmlSchemaSimpleType) {
+            writeElement(component);
+        } else if (type instanceof XmlSchemaComplexType) {
+            final XmlSchemaParticle particle = XSCompiledType.get((XmlSchemaComplexType)type).getParticle();
+            if (particle != null && particle.getMaxOccurs() > 1) {
+                writeOccurrences(element.getQName(), component);
+            } else {
+                writeElement(component);
+            }
+        }
+    }
+
+    private void writeElement(XSGlobalElement component) throws IOException {
+        final QName qname = ((XmlSchemaElement)component.getXSComponent()).getQName();
+        writeStartElement(qname);
+        writeChildren(component);
+
+        if (XSModel.getSimpleType(component) != null) {
+            writeCharacters(component);
+        }
+
+        writeEndElement(qname);
+    }
+
+    private void writeParticle(XSParticle component) throws IOException {
+        if (!Boolean.TRUE.equals(component.validate())) {
+            return;
+        }
+
+        if (isCacheable(component)) {
+            // the (empty) element bytes do not depend on whether the parent tag is closed
+            closeStartTag();
+            if (!writeCached(component)) {
+                final long mark = mark();
+                writeParticleContent(component);
+                cache(component, mark);
+            }
+        } else {
+            writeParticleContent(component);
+        }
+    }
+
+    private void writeParticleContent(XSParticle component) throws IOException {
+        final QName qname = component.getName();
+        final XmlSchemaParticle particle = (XmlSchemaParticle)component.getXSComponent();
+        if (particle.getMaxOccurs() > 1) {
+            writeOccurrences(qname, component);
+        } else {
+            writeStartElement(qname);
+            writeChildren(component);
+            writeCharacters(component);
+            writeEndElement(qname);
+        }
+    }
+
+    private void writeOccurrences(QName qname, XSComponent component) throws IOException {
+        final int n = component.getChildCount();
+        if (pool == null || n <= chunkSize) {
+            writeOccurrences(qname, component, 0, n);
+            return;
+        }
+
+        closeStartTag();
+
+        // only a few chunks are kept in flight, so the whole list is never buffered at once
+        final int window = pool.getParallelism() * 2;
+        final Deque<Chunk> chunks = new ArrayDeque<>(window);
+        int next = 0;
+        while (next < n || !chunks.isEmpty()) {
+            while (next < n && chunks.size() < window) {
+                final Chunk chunk = new Chunk(this, qname, component, next, Math.min(n, next + chunkSize));
+                pool.execute(chunk);
+                chunks.add(chunk);
+                next += chunkSize;
+            }
+
+            // the chunks are copied in order as soon as they are ready
+            final Chunk chunk = chunks.poll();
+            chunk.join();
+            if (chunk.error != null) {
+                for (Chunk pending : chunks) {
+                    pending.cancel(false);
+                }
+                throw chunk.error;
+            }
+            put(chunk.out.toByteArray());
+        }
+    }
+
+    private void writeOccurrences(QName qname, XSComponent component, int from, int to) throws IOException {
+        final boolean cacheable = isCacheable(component);
+        for (int i = from; i < to; i++) {
+            final XSComponent child = (XSComponent)component.getChildAt(i);
+            if (cacheable) {
+                closeStartTag();
+                if (!writeCached(child)) {
+                    final long mark = mark();
+                    writeOccurrence(qname, child);
+                    cache(child, mark);
+                }
+            } else {
+                writeOccurrence(qname, child);
+            }
+        }
+    }
+
+    private void writeOccurrence(QName qname, XSComponent component) throws IOException {
+        writeStartElement(qname);
+        writeComponent(component);
+        writeEndElement(qname);
+    }
+
+    /**
+     * Elements (or their occurrences) on the top are written with the namespace 
+     * declarations, so only the global elements (that are always on the top) 
+     * are cached there.
+     * 
+     * @param component the component that is written
+     * 
+     * @return true if the bytes of the component elements are cached
+     */
+    private boolean isCacheable(XSComponent component) {
+        return caching && (depth > 0 || component instanceof XSGlobalElement);
+    }
+
+    /**
+     * Copies the bytes written for the component by the previous write.
+     * 
+     * @return false if there are no valid cached bytes for the component.
+     */
+    private boolean writeCached(XSComponent component) throws IOException {
+        final byte[] bytes = component.getWritten(signature);
+        if (bytes == null) {
+            return false;
+        }
+        put(bytes);
+        return true;
+    }
+
+    /**
+     * Starts recording the bytes of the component.
+     * 
+     * @return the position of the component bytes in the output
+     */
+    private long mark() {
+        final long mark = flushed + position;
+        if (recordings++ == 0) {
+            recordBase = mark;
+            recordLength = 0;
+        }
+        return mark;
+    }
+
+    /**
+     * Caches the bytes written since the mark in the component.
+     */
+    private void cache(XSComponent component, long mark) {
+        recordings--;
+
+        final int from = (int)(mark - recordBase);
+        final byte[] bytes = new byte[(int)(flushed + position - mark)];
+
+        // the bytes are partially recorded and partially still in the buffer
+        int n = 0;
+        if (from < recordLength) {
+            n = recordLength - from;
+            System.arraycopy(record, from, bytes, 0, n);
+        }
+        final int start = (int)Math.max(0, recordBase - flushed) + Math.max(0, from - recordLength);
+        System.arraycopy(buffer, start, bytes, n, bytes.length - n);
+
+        component.setWritten(signature, bytes);
+    }
+
+    private void writeType(XSType component) throws IOException {
+        if (!Boolean.TRUE.equals(component.validate())) {
+            return;
+        }
+
+        // suppose that attributes are ALWAYS before elements
+        writeChildren(component);
+
+        if (component.isSimpleType()) {
+            writeCharacters(component);
+        }
+    }
+
+    private void writeAttribute(XSAttribute component) throws IOException {
+        final XmlSchemaAttribute attribute = (XmlSchemaAttribute)component.getXSComponent();
+
+        final String text = component.getLexicalValue(plan);
+        if (text != null) {
+            if (!startTagOpen) {
+                throw new IOException("Attribute " + component.getName() + " is written out of the element start tag");
+            }
+            put((byte)' ');
+            put(getName(component.getName()));
+            put((byte)'=');
+            put((byte)'"');
+            writeEscaped(text, true);
+            put((byte)'"');
+        } else if (XmlSchemaUse.REQUIRED == attribute.getUse()) {
+            throw new IOException("Required attribute missing: " + component.getTypeName().toString());
+        }
+    }
+
+    private void writeCharacters(XSComponent component) throws IOException {
+        final Object value = component.getUserObject();
+        if (value instanceof XSLargeValue) {
+            closeStartTag();
+            try (Reader reader = ((XSLargeValue)value).openReader()) {
+                writeEscaped(reader);
+            }
+        } else {
+            final String text = component.getLexicalValue(plan);
+            if (text != null) {
+                closeStartTag();
+                writeEscaped(text, false);
+            }
+        }
+    }
+
+    private void writeStartElement(QName qname) throws IOException {
+        closeStartTag();
+
+        put((byte)'<');
+        put(getName(qname));
+
+        if (depth++ == 0) {
+            // all the namespaces are declared on the top element
+            for (Map.Entry<String, String> entry : plan.getPrefixes().entrySet()) {
+                final String prefix = entry.getValue();
+                put(XMLNS);
+                if (!prefix.isEmpty()) {
+                    put((byte)':');
+                    put(prefix.getBytes(StandardCharsets.UTF_8));
+                }
+                put((byte)'=');
+                put((byte)'"');
+                writeEscaped(entry.getKey(), true);
+                put((byte)'"');
+            }
+        }
+
+        startTagOpen = true;
+    }
+
+    private void writeEndElement(QName qname) throws IOException {
+        closeStartTag();
+
+        put((byte)'<');
+        put((byte)'/');
+        put(getName(qname));
+        put((byte)'>');
+
+        depth--;
+    }
+
+    private void closeStartTag() throws IOException {
+        if (startTagOpen) {
+            put((byte)'>');
+            startTagOpen = false;
+        }
+    }
+
+    /**
+     * @return the UTF-8 encoded prefixed name.
+     */
+    private byte[] getName(QName qname) {
+        byte[] name = names.get(qname);
+        if (name == null) {
+            final String prefix = plan.getPrefix(qname.getNamespaceURI());
+            final String localName = qname.getLocalPart();
+            name = (prefix == null || prefix.isEmpty() ? localName : prefix + ':' + localName).getBytes(StandardCharsets.UTF_8);
+            names.put(qname, name);
+        }
+        return name;
+    }
+
+    private void writeEscaped(String text, boolean attribute) throws IOException {
+        final int length = text.length();
+        int carry = 0;
+        for (int pos = 0; pos < length;) {
+            final int n = Math.min(chars.length - carry, length - pos);
+            text.getChars(pos, pos + n, chars, carry);
+            pos += n;
+            carry = escape(carry + n, attribute, pos == length);
+        }
+    }
+
+    private void writeEscaped(Reader reader) throws IOException {
+        int carry = 0;
+        for (int n; (n = reader.read(chars, carry, chars.length - carry)) >= 0;) {
+            carry = escape(carry + n, false, false);
+        }
+        if (carry > 0) {
+            escape(carry, false, true);
+        }
+    }
+
+    /**
+     * Escapes and encodes the characters of the chunk.
+     * 
+     * @param end the number of characters in the chunk
+     * @param attribute whether the text is an attribute value
+     * @param last whether the chunk is the last one of the text
+     * 
+     * @return the number of characters left for the next chunk (the high surrogate 
+     * that ends the chunk is moved to the beginning of the chunk buffer)
+     */
+    private int escape(int end, boolean attribute, boolean last) throws IOException {
+        for (int i = 0; i < end; i++) {
+            if (position + MAX_CHAR_BYTES > buffer.length) {
+                flushBuffer();
+            }
+
+            final char ch = chars[i];
+            if (ch < 0x80) {
+                switch(ch) {
+                    case '&': put(AMP); break;
+                    case '<': put(LT); break;
+                    case '>': put(GT); break;
+                    case '"': if (attribute) {
+                                  put(QUOT);
+                              } else {
+                                  buffer[position++] = '"';
+                              }
+                              break;
+                    default: buffer[position++] = (byte)ch;
+                }
+            } else if (ch < 0x800) {
+                buffer[position++] = (byte)(0xC0 | ch >> 6);
+                buffer[position++] = (byte)(0x80 | ch & 0x3F);
+            } else if (Character.isHighSurrogate(ch)) {
+                if (i + 1 < end) {
+                    if (Character.isLowSurrogate(chars[i + 1])) {
+                        final int codePoint = Character.toCodePoint(ch, chars[++i]);
+                        buffer[position++] = (byte)(0xF0 | codePoint >> 18);
+                        buffer[position++] = (byte)(0x80 | codePoint >> 12 & 0x3F);
+                        buffer[position++] = (byte)(0x80 | codePoint >> 6 & 0x3F);
+                        buffer[position++] = (byte)(0x80 | codePoint & 0x3F);
+                    } else {
+                        buffer[position++] = '?';
+                    }
+                } else if (last) {
+                    buffer[position++] = '?';
+                } else {
+                    chars[0] = ch;
+                    return 1;
+                }
+            } else if (Character.isLowSurrogate(ch)) {
+                buffer[position++] = '?';
+            } else {
+                buffer[position++] = (byte)(0xE0 | ch >> 12);
+                buffer[position++] = (byte)(0x80 | ch >> 6 & 0x3F);
+                buffer[position++] = (byte)(0x80 | ch & 0x3F);
+            }
+        }
+        return 0;
+    }
+
+    private void put(byte b) throws IOException {
+        if (position == buffer.length) {
+            flushBuffer();
+        }
+        buffer[position++] = b;
+    }
+
+    private void put(byte[] bytes) throws IOException {
+        if (position + bytes.length > buffer.length) {
+            flushBuffer();
+            if (bytes.length > buffer.length) {
+                write(bytes, bytes.length);
+                return;
+            }
+        }
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+    }
+
+    private void flushBuffer() throws IOException {
+        if (position > 0) {
+            write(buffer, position);
+            position = 0;
+        }
+    }
+
+    private void write(byte[] bytes, int length) throws IOException {
+        if (recordings > 0) {
+            final int skip = (int)Math.max(0, recordBase - flushed);
+            if (record == null || recordLength + length - skip > record.length) {
+                final byte[] grown = new byte[Math.max(recordLength + length - skip, recordLength * 2 + BUFFER_SIZE)];
+                if (record != null) {
+                    System.arraycopy(record, 0, grown, 0, recordLength);
+                }
+                record = grown;
+            }
+            System.arraycopy(bytes, skip, record, recordLength, length - skip);
+            recordLength += length - skip;
+        }
+        flushed += length;
+        output(bytes, length);
+    }
+
+    private void output(byte[] bytes, int length) throws IOException {
+        if (out != null) {
+            out.write(bytes, 0, length);
+        } else {
+            final ByteBuffer buf = bytes == buffer ? byteBuffer : ByteBuffer.wrap(bytes);
+            buf.clear();
+            buf.limit(length);
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+        }
+    }
+
+    /**
+     * The task that writes the range of repeated elements into its own buffer.
+     */
+    private final static class Chunk extends RecursiveAction {
+        private final XSUTF8Serializer serializer;
+        private final ByteArrayOutputStream out;
+        private final QName qname;
+        private final XSComponent component;
+        private final int from;
+        private final int to;
+
+        private IOException error;
+
+        public Chunk(XSUTF8Serializer parent, QName qname, XSComponent component, int from, int to) {
+            this.out = new ByteArrayOutputStream();
+            this.serializer = new XSUTF8Serializer(parent, out);
+            this.qname = qname;
+            this.component = component;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                serializer.writeOccurrences(qname, component, from, to);
+                serializer.flushBuffer();
+            } catch (IOException ex) {
+                error = ex;
+            }
+        }
+    }
+}
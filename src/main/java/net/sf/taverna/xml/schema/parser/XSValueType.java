@@ -0,0 +1,235 @@
+/**
+ * *****************************************************************************
+ * Copyright (C) 2014 Spanish National Bioinformatics Institute (INB),
+ * Barcelona Supercomputing Center and The University of Manchester
+ *
+ * Modifications to the initial code base are copyright of their respective
+ * authors, or their employers as appropriate.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ *****************************************************************************
+ */
+
+package net.sf.taverna.xml.schema.parser;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.List;
+import java.util.Map;
+import javax.xml.XMLConstants;
+import javax.xml.bind.DatatypeConverter;
+import javax.xml.datatype.DatatypeConfigurationException;
+import javax.xml.datatype.DatatypeFactory;
+import javax.xml.datatype.XMLGregorianCalendar;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.namespace.QName;
+import org.apache.ws.commons.schema.XmlSchemaSimpleType;
+import org.apache.ws.commons.schema.XmlSchemaType;
+
+/**
+ * Converter between the lexical values of the simple type and their typed 
+ * Java form (Integer, Long, BigInteger, BigDecimal, Double, Boolean, 
+ * XMLGregorianCalendar, byte[] and QName).
+ * 
+ * The Java type is resolved once per simple type (from the built-in type 
+ * the simple type is derived from) and the converter is memoized in the 
+ * type meta info.
+ * 
+ * @author Dmitry Repchevsky
+ */
+
+public final class XSValueType {
+
+    private enum Kind {STRING, INT, LONG, INTEGER, DECIMAL, DOUBLE, BOOLEAN, CALENDAR, BASE64, HEX, QNAME}
+
+    private final static DatatypeFactory DATATYPE_FACTORY;
+    static {
+        DatatypeFactory factory;
+        try {
+            factory = DatatypeFactory.newInstance();
+        } catch (DatatypeConfigurationException ex) {
+            factory = null;
+        }
+        DATATYPE_FACTORY = factory;
+    }
+
+    private final Kind kind;
+
+    private XSValueType(XmlSchemaSimpleType simpleType) {
+        Kind k = Kind.STRING;
+
+        final List<XmlSchemaType> chain = XSTypeHierarchy.getDerivationChain(simpleType);
+        for (XmlSchemaType type : chain) {
+            final QName qname = type.getQName();
+            if (qname != null && XMLConstants.W3C_XML_SCHEMA_NS_URI.equals(qname.getNamespaceURI())) {
+                k = getKind(qname.getLocalPart());
+                break;
+            }
+        }
+        kind = k == Kind.CALENDAR && DATATYPE_FACTORY == null ? Kind.STRING : k;
+    }
+
+    /**
+     * Returns the value converter of the simple type.
+     * The converter is built on the first call and reused afterwards.
+     * 
+     * @param simpleType the simple type
+     * 
+     * @return the converter of the simple type values
+     */
+    public static XSValueType get(XmlSchemaSimpleType simpleType) {
+        synchronized(simpleType) {
+            final Map<Object, Object> metaInfo = simpleType.getMetaInfoMap();
+            XSValueType valueType = metaInfo == null ? null : (XSValueType)metaInfo.get(XSValueType.class);
+            if (valueType == null) {
+                valueType = new XSValueType(simpleType);
+                simpleType.addMetaInfo(XSValueType.class, valueType);
+            }
+            return valueType;
+        }
+    }
+
+    /**
+     * @return true if the values of the type are kept as strings.
+     */
+    public boolean isString() {
+        return kind == Kind.STRING;
+    }
+
+    /**
+     * @return true if the values of the type are base64Binary ones.
+     */
+    public boolean isBase64() {
+        return kind == Kind.BASE64;
+    }
+
+    /**
+     * Parses the lexical value into its typed form.
+     * 
+     * @param text the lexical value
+     * @param context the namespace context to resolve QName prefixes (may be null)
+     * 
+     * @return the typed value or the text itself if it can't be parsed.
+     */
+    public Object parse(String text, NamespaceContext context) {
+        if (kind == Kind.STRING) {
+            return text;
+        }
+
+        final String value = text.trim();
+        try {
+            switch(kind) {
+                case INT: return Integer.valueOf(value);
+                case LONG: return Long.valueOf(value);
+                case INTEGER: return new BigInteger(value);
+                case DECIMAL: if (value.indexOf('e') < 0 && value.indexOf('E') < 0) {
+                                  return new BigDecimal(value);
+                              }
+                              break;
+                case DOUBLE: switch(value) {
+                                 case "INF": return Double.POSITIVE_INFINITY;
+                                 case "-INF": return Double.NEGATIVE_INFINITY;
+                                 case "NaN": return Double.NaN;
+                             }
+                             return Double.valueOf(value);
+                case BOOLEAN: switch(value) {
+                                  case "true":
+                                  case "1": return Boolean.TRUE;
+                                  case "false":
+                                  case "0": return Boolean.FALSE;
+                              }
+                              break;
+                case CALENDAR: return DATATYPE_FACTORY.newXMLGregorianCalendar(value);
+                case BASE64: return DatatypeConverter.parseBase64Binary(value);
+                case HEX: return DatatypeConverter.parseHexBinary(value);
+                case QNAME: if (context != null) {
+                                return DatatypeConverter.parseQName(value, context);
+                            }
+                            break;
+            }
+        } catch(IllegalArgumentException ex) {
+            // keep the invalid value as is
+        }
+        return text;
+    }
+
+    /**
+     * Prints the value in its canonical lexical form.
+     * 
+     * @param value the value (either typed or the lexical one)
+     * @param context the namespace context to print QName prefixes (may be null)
+     * 
+     * @return the lexical value
+     */
+    public String print(Object value, NamespaceContext context) {
+        if (value == null || value instanceof String) {
+            return (String)value;
+        }
+        if (value instanceof BigDecimal) {
+            return ((BigDecimal)value).toPlainString();
+        }
+        if (value instanceof Double) {
+            return DatatypeConverter.printDouble((Double)value);
+        }
+        if (value instanceof XMLGregorianCalendar) {
+            return ((XMLGregorianCalendar)value).toXMLFormat();
+        }
+        if (value instanceof byte[]) {
+            final byte[] bytes = (byte[])value;
+            return kind == Kind.HEX ? DatatypeConverter.printHexBinary(bytes) : DatatypeConverter.printBase64Binary(bytes);
+        }
+        if (value instanceof QName && context != null) {
+            return DatatypeConverter.printQName((QName)value, context);
+        }
+        if (value instanceof XSLargeValue) {
+            return ((XSLargeValue)value).getText();
+        }
+        return value.toString();
+    }
+
+    private static Kind getKind(String name) {
+        switch(name) {
+            case "int":
+            case "short":
+            case "byte":
+            case "unsignedShort":
+            case "unsignedByte": return Kind.INT;
+            case "long":
+            case "unsignedInt": return Kind.LONG;
+            case "integer":
+            case "nonNegativeInteger":
+            case "positiveInteger":
+            case "nonPositiveInteger":
+            case "negativeInteger":
+            case "unsignedLong": return Kind.INTEGER;
+            case "decimal": return Kind.DECIMAL;
+            case "float":
+            case "double": return Kind.DOUBLE;
+            case "boolean": return Kind.BOOLEAN;
+            case "date":
+            case "time":
+            case "dateTime":
+            case "gYear":
+            case "gYearMonth":
+            case "gMonth":
+            case "gMonthDay":
+            case "gDay": return Kind.CALENDAR;
+            case "base64Binary": return Kind.BASE64;
+            case "hexBinary": return Kind.HEX;
+            case "QName": return Kind.QNAME;
+        }
+        return Kind.STRING;
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ * *****************************************************************************
+ * Copyright (C) 2014 Spanish National Bioinformatics Institute (INB),
+ * Barcelona Supercomputing Center and The University of Manchester
+ *
+ * Modifications to the initial code base are copyright of their respective
+ * authors, or their employers as appropriate.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ *****************************************************************************
+ */
+
+package net.sf.taverna.xml.schema.parser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import org.apache.ws.commons.schema.XmlSchema;
+import org.apache.ws.commons.schema.XmlSchemaCollection;
+import org.apache.ws.commons.schema.XmlSchemaComplexType;
+import org.apache.ws.commons.schema.XmlSchemaElement;
+import org.apache.ws.commons.schema.XmlSchemaType;
+
+/**
+ * The task that compiles the content models of all complex types found in 
+ * the schemas in parallel. The compiled types (resolved base types, element 
+ * references and attribute groups) are kept in the XSCompiledType cache and 
+ * their automata in the XSContentModel cache, so they are not resolved later, 
+ * when the model is being built or read.
+ * 
+ * @author Dmitry Repchevsky
+ */
+
+public class XSWarmUp extends RecursiveAction {
+    private final static int THRESHOLD = 16;
+    private final static ForkJoinPool POOL = new ForkJoinPool();
+
+    private final XSWarmUp root;
+    private final List<XmlSchemaComplexType> types;
+    private final int from;
+    private final int to;
+
+    private XSWarmUp(XSWarmUp root, List<XmlSchemaComplexType> types, int from, int to) {
+        this.root = root != null ? root : this;
+        this.types = types;
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * Starts the warm-up of the schemas in background.
+     * 
+     * @param schemas the schemas which types are to be compiled
+     * 
+     * @return the task that may be used to wait for the completion or to cancel the warm-up
+     */
+    public static ForkJoinTask<Void> start(XmlSchemaCollection schemas) {
+        final List<XmlSchemaComplexType> types = getComplexTypes(schemas);
+        return POOL.submit(new XSWarmUp(null, types, 0, types.size()));
+    }
+
+    @Override
+    protected void compute() {
+        if (to - from > THRESHOLD) {
+            final int middle = (from + to) >>> 1;
+            invokeAll(new XSWarmUp(root, types, from, middle),
+                      new XSWarmUp(root, types, middle, to));
+        } else {
+            for (int i = from; i < to && !root.isCancelled(); i++) {
+                compile(types.get(i));
+            }
+        }
+    }
+
+    /**
+     * Compiles the complex type and all anonymous complex types of its elements.
+     * Named types are compiled on their own.
+     * The anonymous types may contain themselves (via element references), 
+     * so every type is compiled only once.
+     */
+    private void compile(XmlSchemaComplexType complexType) {
+        final Set<XmlSchemaComplexType> visited = Collections.newSetFromMap(new IdentityHashMap<XmlSchemaComplexType, Boolean>());
+        final List<XmlSchemaComplexType> queue = new ArrayList<>();
+        queue.add(complexType);
+        visited.add(complexType);
+        while (!queue.isEmpty()) {
+            final XmlSchemaComplexType current = queue.remove(queue.size() - 1);
+            final XSCompiledType compiledType = XSCompiledType.get(current);
+            XSContentModel.get(current);
+            for (XmlSchemaElement element : compiledType.getElements().values()) {
+                final XmlSchemaType type = element.getSchemaType();
+                if (type instanceof XmlSchemaComplexType && type.getQName() == null && 
+                    visited.add((XmlSchemaComplexType)type)) {
+                    queue.add((XmlSchemaComplexType)type);
+                }
+            }
+        }
+    }
+
+    /**
+     * Collects all named complex types and anonymous types of the global elements.
+     */
+    private static List<XmlSchemaComplexType> getComplexTypes(XmlSchemaCollection schemas) {
+        final List<XmlSchemaComplexType> types = new ArrayList<>();
+        for (XmlSchema schema : schemas.getXmlSchemas()) {
+            for (XmlSchemaType type : schema.getSchemaTypes().values()) {
+                if (type instanceof XmlSchemaComplexType) {
+                    types.add((XmlSchemaComplexType)type);
+                }
+            }
+            for (XmlSchemaElement element : schema.getElements().values()) {
+                final XmlSchemaType type = element.getSchemaType();
+                if (type instanceof XmlSchemaComplexType && type.getQName() == null) {
+                    types.add((XmlSchemaComplexType)type);
+                }
+            }
+        }
+        return types;
+    }
+}
@@ -24,15 +24,36 @@
 
 package net.sf.taverna.xml.schema.ui.tree;
 
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
 import javax.swing.tree.DefaultTreeModel;
 import javax.swing.tree.TreeNode;
 import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
 import javax.xml.stream.XMLStreamWriter;
+import javax.xml.transform.stream.StreamSource;
+import net.sf.taverna.xml.schema.parser.XSBatchReader;
 import net.sf.taverna.xml.schema.parser.XSNode;
+import net.sf.taverna.xml.schema.parser.XSProjection;
+import net.sf.taverna.xml.schema.parser.XSReadMonitor;
 import org.apache.ws.commons.schema.XmlSchemaCollection;
 import net.sf.taverna.xml.schema.ui.tree.node.XSRootNode;
+import net.sf.taverna.xml.schema.ui.tree.node.XSParticleNode;
+import net.sf.taverna.xml.schema.ui.tree.node.XSTypeNode;
 
 /**
  * @author Dmitry Repchevsky
@@ -63,6 +84,90 @@ public class SchemaTreeModel extends DefaultTreeModel {
         getRoot().setSchemaCollection(schemas);
     }
 
+    /**
+     * Starts resolving the schemas types in background.
+     * The panel with the tree may be blocked until the warm-up is finished:
+     * {@code
+     * blockablePanel.block(model.warmUp());
+     * }
+     * 
+     * @return the future to wait for the warm-up completion or to cancel it.
+     */
+    public Future<Void> warmUp() {
+        return getRoot().warmUp();
+    }
+
+    /**
+     * Sets the lazy mode of the model where the nodes children are created 
+     * only when the node is expanded.
+     * 
+     * @param lazy whether the model should create the nodes children on demand
+     */
+    public void setLazy(boolean lazy) {
+        getRoot().setLazy(lazy);
+    }
+
+    public boolean isLazy() {
+        return getRoot().isLazy();
+    }
+
+    /**
+     * Limits the number of nested complex type levels created at once.
+     * Recursive types are never expanded more than once, their deeper 
+     * occurrences are created on demand.
+     * 
+     * @param maxExpansionDepth maximum number of nested complex type levels
+     */
+    public void setMaxExpansionDepth(int maxExpansionDepth) {
+        getRoot().setMaxExpansionDepth(maxExpansionDepth);
+    }
+
+    public int getMaxExpansionDepth() {
+        return getRoot().getMaxExpansionDepth();
+    }
+
+    /**
+     * Sets whether the values are parsed into their typed Java form 
+     * (Integer, BigDecimal, XMLGregorianCalendar, byte[], etc.) when the XML is read.
+     * 
+     * @param typedValues whether the values should be parsed at read time
+     */
+    public void setTypedValues(boolean typedValues) {
+        getRoot().setTypedValues(typedValues);
+    }
+
+    public boolean isTypedValues() {
+        return getRoot().isTypedValues();
+    }
+
+    /**
+     * Sets the size of the element value (in characters) above which the value 
+     * read from the XML is kept in a temporary store (see XSLargeValue).
+     * 
+     * @param largeValueThreshold the maximum number of characters kept in the memory
+     */
+    public void setLargeValueThreshold(int largeValueThreshold) {
+        getRoot().setLargeValueThreshold(largeValueThreshold);
+    }
+
+    public int getLargeValueThreshold() {
+        return getRoot().getLargeValueThreshold();
+    }
+
+    /**
+     * Sets whether the elements keep their bytes written by write(OutputStream),
+     * so writing the model after an edit copies the bytes of unchanged elements.
+     * 
+     * @param writeCaching whether the written bytes should be cached
+     */
+    public void setWriteCaching(boolean writeCaching) {
+        getRoot().setWriteCaching(writeCaching);
+    }
+
+    public boolean isWriteCaching() {
+        return getRoot().isWriteCaching();
+    }
+
     public boolean validate() {
         return getRoot().validate();
     }
@@ -88,6 +193,20 @@ public class SchemaTreeModel extends DefaultTreeModel {
         nodeStructureChanged(root);
     }
 
+    /**
+     * Adds a new item to the repeated (maxOccurs &gt; 1) element
+     *
+     * @param particle the repeated element node
+     * @param index the position of the new item
+     * 
+     * @return the new item node
+     */
+    public XSTypeNode addItem(XSParticleNode particle, int index) {
+        XSTypeNode node = (XSTypeNode)getRoot().addItem(particle, index);
+        nodesWereInserted(particle, new int[] {index});
+        return node;
+    }
+
     /**
      * Constructs the model based on XML obtained from the provided stream
      *
@@ -99,6 +218,79 @@ public class SchemaTreeModel extends DefaultTreeModel {
         nodeStructureChanged(root);
     }
 
+    /**
+     * Constructs the model from the parts of the XML selected by the XPaths.
+     * The rest of the document is skipped without creating the nodes.
+     * 
+     * @param stream The XML reader where the XML is read from
+     * @param xpaths XPaths of the nodes to read (as produced by getXPath() of the nodes)
+     * 
+     * @throws javax.xml.stream.XMLStreamException
+     */
+    public void read(XMLStreamReader stream, Collection<String> xpaths) throws XMLStreamException {
+        getRoot().read(stream, null, new XSProjection(xpaths));
+        nodeStructureChanged(root);
+    }
+
+    /**
+     * Constructs the model based on XML in background.
+     * The XML is read into a new root node which replaces the current one 
+     * (on the event dispatch thread) when the reading is finished, 
+     * so the tree gets the only event and is not blocked while reading.
+     * The stream is closed when the reading is finished.
+     * The returned future must not be waited for on the event dispatch thread.
+     * {@code
+     * blockablePanel.block(model.read(in, new ReadProgressListener() {
+     *     public void progress(long bytes, long elements) {
+     *         blockablePanel.setMessage(bytes + " bytes read");
+     *     }
+     * }));
+     * }
+     * 
+     * @param in the input stream to read the XML from
+     * @param listener the listener to notify about the progress on the event dispatch thread (may be null)
+     * 
+     * @return the future to wait for the reading completion or to cancel it.
+     */
+    public Future<Void> read(InputStream in, ReadProgressListener listener) {
+        final ReadTask task = new ReadTask(in, listener);
+        task.execute();
+        return task;
+    }
+
+    /**
+     * Reads many XML documents in parallel into the new root nodes which share 
+     * the schemas and the settings of this model. The model itself is not changed.
+     * 
+     * @param sources the documents to read (see XSBatchReader)
+     * @param executor the executor to read the documents on
+     * 
+     * @return the read root nodes or the reading errors in the order of the sources
+     * 
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    public List<XSBatchReader.Result<XSRootNode>> read(List<? extends StreamSource> sources, ExecutorService executor) throws InterruptedException {
+        final XSBatchReader<XSRootNode> reader = new XSBatchReader<>(getRoot(), new XSBatchReader.ModelFactory<XSRootNode>() {
+            @Override
+            public XSRootNode newModel() {
+                return new XSRootNode();
+            }
+        }, executor);
+        return reader.read(sources);
+    }
+
+    /**
+     * The listener that is notified about the background reading progress.
+     */
+    public interface ReadProgressListener {
+
+        /**
+         * @param bytes the number of bytes read so far
+         * @param elements the number of elements read so far
+         */
+        void progress(long bytes, long elements);
+    }
+
     /**
      * Constructs an XML based on the data provided by the model
      * @param stream XML writer to write generated XML
@@ -107,7 +299,46 @@ public class SchemaTreeModel extends DefaultTreeModel {
     public void write(XMLStreamWriter stream) throws XMLStreamException {
         getRoot().write(stream);
     }
+
+    /**
+     * Writes the UTF-8 encoded XML directly into the output stream
+     * @param out the output stream to write generated XML
+     * @throws IOException
+     */
+    public void write(OutputStream out) throws IOException {
+        getRoot().write(out);
+    }
+
+    /**
+     * Writes the UTF-8 encoded XML directly into the output stream writing
+     * long lists of repeated elements in parallel
+     * @param out the output stream to write generated XML
+     * @param pool the pool to write the chunks of the lists
+     * @throws IOException
+     */
+    public void write(OutputStream out, ForkJoinPool pool) throws IOException {
+        getRoot().write(out, pool);
+    }
     
+    /**
+     * Writes the compact binary snapshot of the model (see XSModel.writeSnapshot())
+     * @param channel the channel to write the snapshot to
+     * @throws IOException
+     */
+    public void writeSnapshot(WritableByteChannel channel) throws IOException {
+        getRoot().writeSnapshot(channel);
+    }
+
+    /**
+     * Restores the model from the snapshot written against the same schemas
+     * @param channel the channel to read the snapshot from
+     * @throws IOException if the snapshot doesn't match the model schemas
+     */
+    public void readSnapshot(ReadableByteChannel channel) throws IOException {
+        getRoot().readSnapshot(channel);
+        nodeStructureChanged(root);
+    }
+
     /**
      * Returns the value of the node identified by the XPath query
      * 
@@ -133,4 +364,105 @@ public class SchemaTreeModel extends DefaultTreeModel {
             fireTreeNodesChanged(node, getPathToRoot((TreeNode)node), null, null);
         }
     }
+
+    /**
+     * The task that reads the XML into the detached root node.
+     */
+    private class ReadTask extends SwingWorker<Void, long[]> implements XSReadMonitor {
+        private final CountingInputStream in;
+        private final ReadProgressListener listener;
+        private final XSRootNode node;
+
+        public ReadTask(InputStream in, ReadProgressListener listener) {
+            this.in = new CountingInputStream(in);
+            this.listener = listener;
+
+            // the new root shares the schemas and the settings of the current one
+            node = new XSRootNode();
+            node.copySettings(getRoot());
+        }
+
+        @Override
+        protected Void doInBackground() throws Exception {
+            try {
+                final XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(in);
+                try {
+                    node.read(reader, this);
+                } finally {
+                    reader.close();
+                }
+            } finally {
+                in.close();
+            }
+
+            // the future completes when the new root is already in the model
+            SwingUtilities.invokeAndWait(new Runnable() {
+                @Override
+                public void run() {
+                    if (!isCancelled()) {
+                        setRoot(node);
+                    }
+                }
+            });
+            return null;
+        }
+
+        @Override
+        public void progress(long elements) {
+            if (isCancelled()) {
+                throw new CancellationException();
+            }
+            publish(new long[] {in.count, elements});
+        }
+
+        @Override
+        protected void process(List<long[]> chunks) {
+            if (listener != null) {
+                // only the last progress matters
+                final long[] progress = chunks.get(chunks.size() - 1);
+                listener.progress(progress[0], progress[1]);
+            }
+        }
+    }
+
+    /**
+     * The stream that counts the bytes read.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        private volatile long count;
+
+        public CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            final int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            final long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
 }
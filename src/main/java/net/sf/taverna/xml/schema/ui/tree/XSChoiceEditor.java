@@ -27,7 +27,8 @@ package net.sf.taverna.xml.schema.ui.tree;
 import java.awt.Color;
 import java.awt.Component;
 import java.util.List;
-import javax.swing.DefaultComboBoxModel;
+import javax.swing.AbstractListModel;
+import javax.swing.ComboBoxModel;
 import javax.swing.JComboBox;
 import javax.swing.JComponent;
 import javax.swing.JLabel;
@@ -36,10 +37,8 @@ import javax.swing.ListCellRenderer;
 import javax.swing.UIManager;
 import javax.swing.border.EmptyBorder;
 import org.apache.ws.commons.schema.XmlSchemaChoice;
-import org.apache.ws.commons.schema.XmlSchemaElement;
-import org.apache.ws.commons.schema.XmlSchemaObject;
-import org.apache.ws.commons.schema.XmlSchemaSimpleType;
-import org.apache.ws.commons.schema.XmlSchemaType;
+import org.apache.ws.commons.schema.XmlSchemaParticle;
+import net.sf.taverna.xml.schema.parser.XSChoiceIndex;
 import net.sf.taverna.xml.schema.ui.tree.editor.XSEditorInterface;
 
 /**
@@ -49,9 +48,13 @@ import net.sf.taverna.xml.schema.ui.tree.editor.XSEditorInterface;
 public class XSChoiceEditor extends JComboBox implements XSEditorInterface {
 
     public XSChoiceEditor(XmlSchemaChoice xmlSchemaChoice) {
-        super(new ChoiceListModel(xmlSchemaChoice));
+        this(XSChoiceIndex.get(xmlSchemaChoice));
+    }
+
+    public XSChoiceEditor(XSChoiceIndex index) {
+        super(new ChoiceListModel(index));
 
-        setRenderer(new ChoiceListCellRenderer());
+        setRenderer(new ChoiceListCellRenderer(index));
         setBorder(new EmptyBorder(0,0,0,0));
     }
 
@@ -70,20 +73,54 @@ public class XSChoiceEditor extends JComboBox implements XSEditorInterface {
         return this;
     }
 
-    public static class ChoiceListModel extends DefaultComboBoxModel {
+    /**
+     * The combo box model that is backed by the (shared) immutable list of 
+     * the choice branches. Only the selection belongs to the model.
+     */
+    public static class ChoiceListModel extends AbstractListModel implements ComboBoxModel {
+
+        private final List<XmlSchemaParticle> branches;
+        private Object selected;
+
+        public ChoiceListModel(XSChoiceIndex index) {
+            branches = index.getBranches();
+            selected = index.getDefaultBranch();
+        }
+
+        @Override
+        public int getSize() {
+            return branches.size();
+        }
 
-        public ChoiceListModel(XmlSchemaChoice xmlSchemaChoice) {
+        @Override
+        public Object getElementAt(int index) {
+            return branches.get(index);
+        }
 
-            List<XmlSchemaObject> items = xmlSchemaChoice.getItems();
-            for (XmlSchemaObject item : items) {
-                this.addElement(item);
+        @Override
+        public Object getSelectedItem() {
+            return selected;
+        }
+
+        @Override
+        public void setSelectedItem(Object item) {
+            if (selected != item) {
+                selected = item;
+                fireContentsChanged(this, -1, -1);
             }
         }
     }
 
+    /**
+     * Renders the choice branches with the labels cached in the choice index.
+     */
     public static class ChoiceListCellRenderer extends JLabel implements ListCellRenderer {
 
-        public ChoiceListCellRenderer() {
+        private final XSChoiceIndex index;
+
+        public ChoiceListCellRenderer(XSChoiceIndex index) {
+            this.index = index;
+
             setOpaque(true);
             setBorder(new EmptyBorder(0,0,0,0));
         }
@@ -110,17 +147,9 @@ public class XSChoiceEditor extends JComboBox implements XSEditorInterface {
             setForeground(foreground);
             setBackground(background);
 
-            if (value instanceof XmlSchemaElement) {
-                XmlSchemaElement xmlSchemaElement = (XmlSchemaElement)value;
-                XmlSchemaType xmlSchemaType = xmlSchemaElement.getSchemaType(); // TODO: (may be ref
-
-                if (xmlSchemaType instanceof XmlSchemaSimpleType) {
-                    value = xmlSchemaType.getName();
-                } else {
-                    value = "<html>" + xmlSchemaElement.getName() + " (" + xmlSchemaType.getName() + ")</html>";
-                }
-            }
-            setText(value.toString());
+            // the index is -1 for the combo box itself
+            final int branch = index >= 0 ? index : this.index.indexOf(value);
+            setText(branch >= 0 ? this.index.getLabel(branch) : value == null ? "" : value.toString());
 
             return this;
         }
@@ -44,7 +44,6 @@ import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import java.util.EventObject;
-import java.util.List;
 import javax.imageio.ImageIO;
 import javax.swing.Icon;
 import javax.swing.ImageIcon;
@@ -63,18 +62,10 @@ import javax.swing.tree.TreeNode;
 import javax.swing.tree.TreePath;
 import javax.xml.namespace.QName;
 import org.apache.ws.commons.schema.XmlSchemaChoice;
-import org.apache.ws.commons.schema.XmlSchemaComplexContentExtension;
-import org.apache.ws.commons.schema.XmlSchemaComplexContentRestriction;
 import org.apache.ws.commons.schema.XmlSchemaComplexType;
-import org.apache.ws.commons.schema.XmlSchemaContent;
-import org.apache.ws.commons.schema.XmlSchemaContentModel;
 import org.apache.ws.commons.schema.XmlSchemaElement;
-import org.apache.ws.commons.schema.XmlSchemaEnumerationFacet;
-import org.apache.ws.commons.schema.XmlSchemaFacet;
 import org.apache.ws.commons.schema.XmlSchemaParticle;
 import org.apache.ws.commons.schema.XmlSchemaSimpleType;
-import org.apache.ws.commons.schema.XmlSchemaSimpleTypeContent;
-import org.apache.ws.commons.schema.XmlSchemaSimpleTypeRestriction;
 import org.apache.ws.commons.schema.XmlSchemaType;
 import net.sf.taverna.xml.schema.ui.tree.editor.XSEditorFactory;
 import net.sf.taverna.xml.schema.ui.tree.editor.XSEditorInterface;
@@ -85,7 +76,11 @@ import net.sf.taverna.xml.schema.ui.tree.node.XSMixedTextNode;
 import net.sf.taverna.xml.schema.ui.tree.node.XSParticleNode;
 import net.sf.taverna.xml.schema.ui.tree.node.XSTypeNode;
 import net.sf.taverna.ui.swing.IconLoader;
+import net.sf.taverna.xml.schema.parser.XSChoiceIndex;
+import net.sf.taverna.xml.schema.parser.XSCompiledType;
 import net.sf.taverna.xml.schema.parser.XSComponent;
+import net.sf.taverna.xml.schema.parser.XSEnumerationIndex;
+import net.sf.taverna.xml.schema.parser.XSLargeValue;
 import net.sf.taverna.xml.schema.parser.XSModel;
 
 /**
@@ -193,25 +188,16 @@ public class XSElementTreeCellEditor extends JPanel
             XmlSchemaType type = node.getType();
             XmlSchemaComplexType complexType = (XmlSchemaComplexType)type;
             
-            XmlSchemaParticle particle = complexType.getParticle();
-            if (particle == null) {
-                //particle = complexType.getContentTypeParticle();
-                XmlSchemaContentModel contentModel = complexType.getContentModel();
-                if (contentModel != null) {
-                    XmlSchemaContent content = contentModel.getContent();
-                    if (content instanceof XmlSchemaComplexContentExtension) {
-                        XmlSchemaComplexContentExtension complexContentExtension = (XmlSchemaComplexContentExtension)content;
-                        particle = complexContentExtension.getParticle();
-                    } else if (content instanceof XmlSchemaComplexContentRestriction) {
-                        XmlSchemaComplexContentRestriction complexContentRestriction = (XmlSchemaComplexContentRestriction)content;
-                        particle = complexContentRestriction.getParticle();
-                    }
-                }
-            }
-            
+            XmlSchemaParticle particle = XSCompiledType.get(complexType).getParticle();
             if (particle instanceof XmlSchemaChoice) {
-                final XmlSchemaChoice choice = (XmlSchemaChoice)particle;
-                final XSChoiceEditor ed = new XSChoiceEditor(choice);
+                final XSChoiceIndex index = XSChoiceIndex.get((XmlSchemaChoice)particle);
+                final XSChoiceEditor ed = new XSChoiceEditor(index);
+
+                // select the branch the node content currently starts with
+                final int branch = index.getBranch(node);
+                if (branch >= 0) {
+                    ed.setSelectedIndex(branch);
+                }
                 ed.addActionListener(new ActionListener() {
                     @Override
                     public void actionPerformed(ActionEvent e) {
@@ -234,37 +220,23 @@ public class XSElementTreeCellEditor extends JPanel
         } else {
             // either the type itself or its content is simple (last case is a complex type with a simple content)
 
-            XmlSchemaSimpleTypeContent simpleTypeContent = simpleType.getContent();
-            if (simpleTypeContent instanceof XmlSchemaSimpleTypeRestriction) {
-                XmlSchemaSimpleTypeRestriction simpleTypeRestriction = (XmlSchemaSimpleTypeRestriction)simpleTypeContent;
-                
-                List<XmlSchemaEnumerationFacet> enumerationFacets = new ArrayList<>();
-                
-                List<XmlSchemaFacet> facets = simpleTypeRestriction.getFacets();
-                for (XmlSchemaFacet facet : facets){
-                    if (facet instanceof XmlSchemaEnumerationFacet) {
-                        XmlSchemaEnumerationFacet enumerationFacet = (XmlSchemaEnumerationFacet)facet;
-                        enumerationFacets.add(enumerationFacet);
-                    }
-                }
-                
-                if (!enumerationFacets.isEmpty()) {
-                    final XSEnumerationEditor ed = new XSEnumerationEditor(enumerationFacets);
-                    ed.setBackground(tree.getBackground());
+            final XSEnumerationIndex enumeration = XSEnumerationIndex.get(simpleType);
+            if (!enumeration.isEmpty()) {
+                final XSEnumerationEditor ed = new XSEnumerationEditor(enumeration);
+                ed.setBackground(tree.getBackground());
 
-                    ed.setSelectedItem(node.getUserObject());
+                ed.setSelectedItem(node.getLexicalValue(null));
 
-                    ed.addActionListener(new ActionListener() {
-                        @Override
-                        public void actionPerformed(ActionEvent e) {
-                            stopCellEditing();
-                        }
-                    });
-                    add(ed, constraints);
+                ed.addActionListener(new ActionListener() {
+                    @Override
+                    public void actionPerformed(ActionEvent e) {
+                        stopCellEditing();
+                    }
+                });
+                add(ed, constraints);
 
-                    editor = ed; // so node value could be updated on stopCellEditing()
-                    return;                    
-                }
+                editor = ed; // so node value could be updated on stopCellEditing()
+                return;                    
             }
 
             editor = XSEditorFactory.getXSEditorComponent(this, simpleType);
@@ -320,22 +292,7 @@ public class XSElementTreeCellEditor extends JPanel
 
                             if (type instanceof XmlSchemaComplexType) {
                                 XmlSchemaComplexType complexType = (XmlSchemaComplexType)type;
-                                XmlSchemaParticle particle = complexType.getParticle();
-                                if (particle == null) {
-                                    //particle = complexType.getContentTypeParticle();
-                                    XmlSchemaContentModel contentModel = complexType.getContentModel();
-                                    if (contentModel != null) {
-                                        XmlSchemaContent content = contentModel.getContent();
-                                        if (content instanceof XmlSchemaComplexContentExtension) {
-                                            XmlSchemaComplexContentExtension complexContentExtension = (XmlSchemaComplexContentExtension)content;
-                                            particle = complexContentExtension.getParticle();
-                                        } else if (content instanceof XmlSchemaComplexContentRestriction) {
-                                            XmlSchemaComplexContentRestriction complexContentRestriction = (XmlSchemaComplexContentRestriction)content;
-                                            particle = complexContentRestriction.getParticle();
-                                        }
-                                    }
-                                }
-                                
+                                XmlSchemaParticle particle = XSCompiledType.get(complexType).getParticle();
                                 if (particle instanceof XmlSchemaChoice) {
                                     return true;
                                 }
@@ -417,29 +374,14 @@ public class XSElementTreeCellEditor extends JPanel
                 iconName = "icons/simple.png";
             } else {
                 final XmlSchemaType type = node.getType();
-                XmlSchemaComplexType complexType = (XmlSchemaComplexType)type;
-                XmlSchemaParticle particle = complexType.getParticle();
-                if (particle == null) {
-                    //particle = complexType.getContentTypeParticle();
-                    XmlSchemaContentModel contentModel = complexType.getContentModel();
-                    if (contentModel != null) {
-                        XmlSchemaContent content = contentModel.getContent();
-                        if (content instanceof XmlSchemaComplexContentExtension) {
-                            XmlSchemaComplexContentExtension complexContentExtension = (XmlSchemaComplexContentExtension)content;
-                            particle = complexContentExtension.getParticle();
-                        } else if (content instanceof XmlSchemaComplexContentRestriction) {
-                            XmlSchemaComplexContentRestriction complexContentRestriction = (XmlSchemaComplexContentRestriction)content;
-                            particle = complexContentRestriction.getParticle();
-                        }
-                    }
-                }
-                    
+                XSCompiledType compiledType = XSCompiledType.get((XmlSchemaComplexType)type);
+                XmlSchemaParticle particle = compiledType.getParticle();
                 if (particle == null) {
                     iconName = "icons/dummy.png";
                 } else if (particle instanceof XmlSchemaChoice) {
                     iconName = "icons/choice.png";
                 } else {
-                    iconName = complexType.isMixed() ? "icons/complex_mixed.png" : "icons/complex.png";
+                    iconName = compiledType.isMixed() ? "icons/complex_mixed.png" : "icons/complex.png";
                 }
             }
 
@@ -470,8 +412,7 @@ public class XSElementTreeCellEditor extends JPanel
                         iconName = "icons/simple.png";
                     } else {
                         setLabel(node);
-                        final XmlSchemaType type = node.getType();
-                        iconName = type.isMixed() ? "icons/complex_mixed.png" : "icons/complex.png";
+                        iconName = isMixed(node) ? "icons/complex_mixed.png" : "icons/complex.png";
                     }
                 }
             } else {
@@ -489,8 +430,7 @@ public class XSElementTreeCellEditor extends JPanel
                 iconName = "icons/simple.png";
             } else {
                 setLabel(node);
-                final XmlSchemaType type = node.getType();
-                iconName = type.isMixed() ? "icons/complex_mixed.png" : "icons/complex.png";
+                iconName = isMixed(node) ? "icons/complex_mixed.png" : "icons/complex.png";
             }
             icon = IconLoader.load(iconName);
         } else if(value instanceof XSMixedTextNode) {
@@ -509,6 +449,14 @@ public class XSElementTreeCellEditor extends JPanel
         label.setIcon(icon);
     }
 
+    private boolean isMixed(XSComponent node) {
+        final XmlSchemaType type = node.getType();
+        if (type instanceof XmlSchemaComplexType) {
+            return XSCompiledType.get((XmlSchemaComplexType)type).isMixed();
+        }
+        return type.isMixed();
+    }
+
     private Icon getIndexIcon(String path, int number) {
         String string = String.valueOf(number);
 
@@ -573,10 +521,10 @@ public class XSElementTreeCellEditor extends JPanel
     }
 
     private void setValue(XSComponent node) {
-        Object o = node.getUserObject();
-        if (o != null) {
-            String s = o.toString();
-
+        // large values are not loaded just to be rendered
+        final Object value = node.getUserObject();
+        String s = value instanceof XSLargeValue ? value.toString() : node.getLexicalValue(null);
+        if (s != null) {
             final int eol = s.indexOf('\n');
 
             JTextField text = new JTextField(eol < 0 ? s : s.substring(0, eol));
@@ -25,11 +25,12 @@
 package net.sf.taverna.xml.schema.ui.tree;
 
 import java.util.List;
-import javax.swing.DefaultComboBoxModel;
+import javax.swing.AbstractListModel;
+import javax.swing.ComboBoxModel;
 import javax.swing.JComboBox;
 import javax.swing.JComponent;
 import javax.swing.border.EmptyBorder;
-import org.apache.ws.commons.schema.XmlSchemaEnumerationFacet;
+import net.sf.taverna.xml.schema.parser.XSEnumerationIndex;
 import net.sf.taverna.xml.schema.ui.tree.editor.XSEditorInterface;
 
 /**
@@ -38,9 +39,10 @@ import net.sf.taverna.xml.schema.ui.tree.editor.XSEditorInterface;
 
 public class XSEnumerationEditor extends JComboBox implements XSEditorInterface {
 
-    public XSEnumerationEditor(List<XmlSchemaEnumerationFacet> facets) {
-        super(new EnumerationListModel(facets));
+    public XSEnumerationEditor(XSEnumerationIndex index) {
+        super(new EnumerationListModel(index));
         setBorder(new EmptyBorder(0,0,0,0));
+        setKeySelectionManager(new PrefixKeySelectionManager(index));
     }
 
     @Override 
@@ -58,13 +60,78 @@ public class XSEnumerationEditor extends JComboBox implements XSEditorInterface
         return this;
     }
 
-    public static class EnumerationListModel extends DefaultComboBoxModel {
+    /**
+     * The combo box model that is backed by the (shared) immutable list of 
+     * the enumeration index. Only the selection belongs to the model.
+     */
+    public static class EnumerationListModel extends AbstractListModel implements ComboBoxModel {
 
-        public EnumerationListModel(List<XmlSchemaEnumerationFacet> facets) {
-            for (XmlSchemaEnumerationFacet facet : facets) {
-                Object value = facet.getValue();
-                addElement(value);
+        private final List<String> values;
+        private Object selected;
+
+        public EnumerationListModel(XSEnumerationIndex index) {
+            values = index.getValues();
+            selected = values.isEmpty() ? null : values.get(0);
+        }
+
+        @Override
+        public int getSize() {
+            return values.size();
+        }
+
+        @Override
+        public Object getElementAt(int index) {
+            return values.get(index);
+        }
+
+        @Override
+        public Object getSelectedItem() {
+            return selected;
+        }
+
+        @Override
+        public void setSelectedItem(Object item) {
+            if (selected == null ? item != null : !selected.equals(item)) {
+                selected = item;
+                fireContentsChanged(this, -1, -1);
+            }
+        }
+    }
+
+    /**
+     * Selects the value that starts with the typed prefix.
+     * Keys typed within a second are accumulated into the prefix.
+     */
+    private static class PrefixKeySelectionManager implements JComboBox.KeySelectionManager {
+
+        private final static long TIMEOUT = 1000;
+
+        private final XSEnumerationIndex index;
+        private final StringBuilder prefix;
+        private long time;
+
+        public PrefixKeySelectionManager(XSEnumerationIndex index) {
+            this.index = index;
+            prefix = new StringBuilder();
+        }
+
+        @Override
+        public int selectionForKey(char key, ComboBoxModel model) {
+            final long now = System.currentTimeMillis();
+            if (now - time > TIMEOUT) {
+                prefix.setLength(0);
+            }
+            time = now;
+            prefix.append(key);
+
+            String value = index.getFirstValue(prefix.toString());
+            if (value == null && prefix.length() > 1) {
+                // start the new prefix with the last typed key
+                prefix.setLength(0);
+                prefix.append(key);
+                value = index.getFirstValue(prefix.toString());
             }
+            return value == null ? -1 : index.indexOf(value);
         }
     }
 }
@@ -64,14 +64,21 @@ import javax.swing.event.DocumentListener;
 import javax.swing.text.BadLocationException;
 import javax.swing.tree.TreeCellEditor;
 import javax.xml.bind.DatatypeConverter;
+import net.sf.taverna.xml.schema.parser.XSLargeValue;
 
 /**
  * @author Dmitry Repchevsky
  */
 
 public class XSBase64BinaryEditorComponent extends XSTextAreaEditorComponent implements ClipboardOwner {
+    // files larger than that are loaded into the temporary store rather than the text
+    private final static long LARGE_FILE = 1 << 16;
+
     private final Base64Component editor;
 
+    // the value which is edited from its store (not shown as the text)
+    private XSLargeValue largeValue;
+
     public XSBase64BinaryEditorComponent(final TreeCellEditor cEditor) {
         super(cEditor);
 
@@ -118,6 +125,25 @@ public class XSBase64BinaryEditorComponent extends XSTextAreaEditorComponent imp
         return editor;
     }
 
+    @Override
+    public Object getEditorValue() {
+        return largeValue != null ? largeValue : super.getEditorValue();
+    }
+
+    @Override
+    public void setEditorValue(Object value) {
+        if (value instanceof XSLargeValue) {
+            super.setEditorValue(null);
+            largeValue = (XSLargeValue)value;
+            super.textComponent.setToolTipText(largeValue.toString());
+            editor.setImage(largeValue);
+        } else {
+            largeValue = null;
+            super.textComponent.setToolTipText(null);
+            super.setEditorValue(value);
+        }
+    }
+
     public Object parse(String value) throws IllegalArgumentException {
         try {
             DatatypeConverter.parseBase64Binary(value);
@@ -188,6 +214,15 @@ public class XSBase64BinaryEditorComponent extends XSTextAreaEditorComponent imp
                         if(returnVal == JFileChooser.APPROVE_OPTION) {
                             File file = chooser.getSelectedFile();
 
+                            if (file.length() > LARGE_FILE) {
+                                try (InputStream in = new FileInputStream(file)) {
+                                    setEditorValue(XSLargeValue.create(in));
+                                } catch(IOException ex) {
+                                    XSBase64BinaryEditorComponent.super.setEditorValue("");
+                                }
+                                return;
+                            }
+
                             ByteArrayOutputStream out = new ByteArrayOutputStream((int)file.length());
 
                             try {
@@ -322,6 +357,15 @@ public class XSBase64BinaryEditorComponent extends XSTextAreaEditorComponent imp
             return highlighted;
         }
 
+        private void setImage(XSLargeValue value) {
+            try (InputStream in = value.openStream()) {
+                image = ImageIO.read(in);
+            } catch (IOException ex) {
+                image = null;
+            }
+            repaint();
+        }
+
         private void setImage(String string) {
             try {
                 byte[] b = DatatypeConverter.parseBase64Binary(string);
@@ -333,6 +377,9 @@ public class XSBase64BinaryEditorComponent extends XSTextAreaEditorComponent imp
 
         @Override
         public void insertUpdate(DocumentEvent e) {
+            // the new text replaces the stored value
+            largeValue = null;
+            XSBase64BinaryEditorComponent.super.textComponent.setToolTipText(null);
             try {
                 setImage(e.getDocument().getText(0, e.getLength()));
             }
@@ -78,7 +78,7 @@ public class XSBooleanComponent extends Box
 
     @Override
     public void setEditorValue(Object value) {
-        final boolean b = value == null || value.equals(Boolean.FALSE);
+        final boolean b = value == null || Boolean.FALSE.equals(value) || "false".equals(value) || "0".equals(value);
         bFalse.setSelected(b);
         bTrue.setSelected(!b);
     }
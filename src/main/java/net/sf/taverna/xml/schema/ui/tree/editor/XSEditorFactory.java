@@ -27,9 +27,11 @@ package net.sf.taverna.xml.schema.ui.tree.editor;
 import javax.swing.tree.TreeCellEditor;
 import javax.xml.XMLConstants;
 import javax.xml.namespace.QName;
+import net.sf.taverna.xml.schema.parser.XSFacetValidator;
+import net.sf.taverna.xml.schema.parser.XSTypeHierarchy;
+import net.sf.taverna.xml.schema.parser.XSValueType;
 import org.apache.ws.commons.schema.XmlSchemaSimpleType;
-import org.apache.ws.commons.schema.XmlSchemaSimpleTypeContent;
-import org.apache.ws.commons.schema.XmlSchemaSimpleTypeRestriction;
+import org.apache.ws.commons.schema.XmlSchemaType;
 
 /**
  * @author Dmitry Repchevsky
@@ -37,8 +39,22 @@ import org.apache.ws.commons.schema.XmlSchemaSimpleTypeRestriction;
 
 public class XSEditorFactory {
     public static XSEditorInterface getXSEditorComponent(TreeCellEditor cEditor, XmlSchemaSimpleType xmlSchemaSimpleType) {
-        while(true) {
-            final QName qname = xmlSchemaSimpleType.getQName();
+        final XSEditorInterface editor = getEditorComponent(cEditor, xmlSchemaSimpleType);
+        if (editor instanceof XSTextEditorComponent) {
+            ((XSTextEditorComponent)editor).setValueType(XSValueType.get(xmlSchemaSimpleType));
+
+            final XSFacetValidator validator = XSFacetValidator.get(xmlSchemaSimpleType);
+            if (!validator.isEmpty()) {
+                ((XSTextEditorComponent)editor).setValidator(validator);
+            }
+        }
+        return editor;
+    }
+
+    private static XSEditorInterface getEditorComponent(TreeCellEditor cEditor, XmlSchemaSimpleType xmlSchemaSimpleType) {
+        // no support for unions or lists - they have no base type
+        for (XmlSchemaType xmlSchemaType : XSTypeHierarchy.getDerivationChain(xmlSchemaSimpleType)) {
+            final QName qname = xmlSchemaType.getQName();
             if (qname != null && XMLConstants.W3C_XML_SCHEMA_NS_URI.equals(qname.getNamespaceURI())) {
                 String name = qname.getLocalPart();
                 switch(name) {
@@ -62,14 +78,6 @@ public class XSEditorFactory {
                     case "base64Binary": return new XSBase64BinaryEditorComponent(cEditor);
                 }
             }
-
-            XmlSchemaSimpleTypeContent xmlSchemaSimpleTypeContent = xmlSchemaSimpleType.getContent();
-            if (xmlSchemaSimpleTypeContent instanceof XmlSchemaSimpleTypeRestriction) {
-                XmlSchemaSimpleTypeRestriction XmlSchemaSimpleTypeRestriction = (XmlSchemaSimpleTypeRestriction)xmlSchemaSimpleTypeContent;
-                xmlSchemaSimpleType = XmlSchemaSimpleTypeRestriction.getBaseType();
-            } else {
-                break; // no support for unions or lists
-            }
         }
 
         return null;
@@ -39,6 +39,8 @@ import javax.swing.text.BadLocationException;
 import javax.swing.text.JTextComponent;
 import javax.swing.text.PlainDocument;
 import javax.swing.tree.TreeCellEditor;
+import net.sf.taverna.xml.schema.parser.XSFacetValidator;
+import net.sf.taverna.xml.schema.parser.XSValueType;
 
 /**
  * @author Dmitry Repchevsky
@@ -52,6 +54,9 @@ public abstract class XSTextEditorComponent<T extends JTextComponent> implements
     protected final T textComponent;
     private final JScrollPane scroll;
 
+    private XSFacetValidator validator;
+    private XSValueType valueType;
+
     public XSTextEditorComponent(final TreeCellEditor cEditor, T textComponent) {
         this.textComponent = textComponent;
 
@@ -88,7 +93,8 @@ public abstract class XSTextEditorComponent<T extends JTextComponent> implements
 
     private Object parse(Object value) {
         if (value != null) {
-            String text = value.toString();
+            // typed values are edited in their lexical form
+            String text = valueType != null ? valueType.print(value, null) : value.toString();
             if (text != null && text.length() > 0) {
                 try {
                     parse(text);
@@ -124,6 +130,25 @@ public abstract class XSTextEditorComponent<T extends JTextComponent> implements
         return scroll;
     }
 
+    /**
+     * Sets the validator of the type facets used to highlight the values 
+     * which are not allowed by the type.
+     * 
+     * @param validator the type facets validator
+     */
+    public void setValidator(XSFacetValidator validator) {
+        this.validator = validator;
+    }
+
+    /**
+     * Sets the converter used to print the typed values of the node.
+     * 
+     * @param valueType the converter of the type values
+     */
+    public void setValueType(XSValueType valueType) {
+        this.valueType = valueType;
+    }
+
     protected abstract class XSAbstractDocument extends PlainDocument implements DocumentListener {
         public XSAbstractDocument() {
             addDocumentListener(this);
@@ -162,7 +187,8 @@ public abstract class XSTextEditorComponent<T extends JTextComponent> implements
         @Override
         protected boolean isValid() {
             try {
-                return parser.parse(getText(0, getLength())) != null;
+                final String text = getText(0, getLength());
+                return parser.parse(text) != null && (validator == null || validator.isValid(text));
             }
             catch(IllegalArgumentException ex) {}
             catch(BadLocationException ex) {}
@@ -0,0 +1,76 @@
+/**
+ * *****************************************************************************
+ * Copyright (C) 2014 Spanish National Bioinformatics Institute (INB),
+ * Barcelona Supercomputing Center and The University of Manchester
+ *
+ * Modifications to the initial code base are copyright of their respective
+ * authors, or their employers as appropriate.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ *****************************************************************************
+ */
+
+package net.sf.taverna.xml.schema.ui.tree;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import net.sf.taverna.xml.schema.ui.tree.node.XSRootNode;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the background reading of the model.
+ * 
+ * @author Dmitry Repchevsky
+ */
+
+public class AsyncReadTest extends TestSchemaTreeModel {
+
+    private final static String PERSON = "/*[namespace-uri()='http://example.com' and local-name()='person']";
+    private final static String NAME = "/*[namespace-uri()='http://example.com' and local-name()='name']";
+
+    @Before
+    public void loadModel() {
+        loadModel("xs/complex_type9.xsd");
+    }
+
+    @Test
+    public void readTest() throws InterruptedException, ExecutionException {
+        final XSRootNode root = model.getRoot();
+
+        InputStream in = AsyncReadTest.class.getClassLoader().getResourceAsStream("xs/complex_type9.xml");
+        model.read(in, null).get();
+
+        Assert.assertNotSame("the root must be replaced", root, model.getRoot());
+        Assert.assertSame("the schemas must be kept", root.getSchemaCollection(), model.getRoot().getSchemaCollection());
+        Assert.assertEquals("wrong person name", "Napoleon", model.getNodeValue(PERSON + NAME));
+    }
+
+    @Test
+    public void errorTest() throws InterruptedException {
+        final XSRootNode root = model.getRoot();
+
+        Future<Void> future = model.read(new ByteArrayInputStream("<person".getBytes()), null);
+        try {
+            future.get();
+            Assert.fail("malformed XML must not be read");
+        } catch(ExecutionException ex) {
+            Assert.assertSame("the root must be kept", root, model.getRoot());
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * *****************************************************************************
+ * Copyright (C) 2014 Spanish National Bioinformatics Institute (INB),
+ * Barcelona Supercomputing Center and The University of Manchester
+ *
+ * Modifications to the initial code base are copyright of their respective
+ * authors, or their employers as appropriate.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ *****************************************************************************
+ */
+
+package net.sf.taverna.xml.schema.ui.tree;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.transform.stream.StreamSource;
+import net.sf.taverna.xml.schema.parser.XSBatchReader;
+import net.sf.taverna.xml.schema.ui.tree.node.XSRootNode;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the parallel reading of many documents against the same schema.
+ * 
+ * @author Dmitry Repchevsky
+ */
+
+public class BatchReadTest extends TestSchemaTreeModel {
+
+    private final static String PERSON = "/*[namespace-uri()='http://example.com' and local-name()='person']";
+    private final static String NAME = "/*[namespace-uri()='http://example.com' and local-name()='name']";
+
+    private final static int DOCUMENTS = 1000;
+
+    private byte[] xml;
+    private ExecutorService executor;
+
+    @Before
+    public void loadModel() throws IOException {
+        loadModel("xs/complex_type9.xsd");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = BatchReadTest.class.getClassLoader().getResourceAsStream("xs/complex_type9.xml")) {
+            byte[] buf = new byte[1024];
+            for (int n; (n = in.read(buf)) >= 0;) {
+                out.write(buf, 0, n);
+            }
+        }
+        xml = out.toByteArray();
+
+        executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    @After
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void readTest() throws InterruptedException {
+        final XSRootNode root = model.getRoot();
+
+        List<XSBatchReader.Result<XSRootNode>> results = model.read(getSources(DOCUMENTS), executor);
+
+        Assert.assertEquals(DOCUMENTS, results.size());
+        for (XSBatchReader.Result<XSRootNode> result : results) {
+            Assert.assertTrue("the document must be read", result.isSuccess());
+
+            final XSRootNode node = result.getModel();
+            Assert.assertNotSame("every document must have its own model", root, node);
+            Assert.assertSame("the schemas must be shared", root.getSchemaCollection(), node.getSchemaCollection());
+            Assert.assertEquals("wrong person name", "Napoleon", node.findNode(PERSON + NAME).getUserObject());
+        }
+        Assert.assertSame("the model must not be changed", root, model.getRoot());
+    }
+
+    @Test
+    public void errorTest() throws InterruptedException {
+        List<StreamSource> sources = getSources(3);
+        sources.set(1, new StreamSource(new ByteArrayInputStream("<person".getBytes())));
+
+        List<XSBatchReader.Result<XSRootNode>> results = model.read(sources, executor);
+
+        Assert.assertTrue(results.get(0).isSuccess());
+        Assert.assertFalse("malformed XML must not be read", results.get(1).isSuccess());
+        Assert.assertTrue(results.get(1).getError() instanceof XMLStreamException);
+        Assert.assertNull(results.get(1).getModel());
+        Assert.assertTrue("other documents must be read", results.get(2).isSuccess());
+    }
+
+    private List<StreamSource> getSources(int n) {
+        List<StreamSource> sources = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            sources.add(new StreamSource(new ByteArrayInputStream(xml)));
+        }
+        return sources;
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * *****************************************************************************
+ * Copyright (C) 2014 Spanish National Bioinformatics Institute (INB),
+ * Barcelona Supercomputing Center and The University of Manchester
+ *
+ * Modifications to the initial code base are copyright of their respective
+ * authors, or their employers as appropriate.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ *****************************************************************************
+ */
+
+package net.sf.taverna.xml.schema.ui.tree;
+
+import javax.xml.namespace.QName;
+import net.sf.taverna.xml.schema.parser.XSChoiceIndex;
+import net.sf.taverna.xml.schema.parser.XSCompiledType;
+import net.sf.taverna.xml.schema.parser.XSParticle;
+import net.sf.taverna.xml.schema.parser.XSSymbolTable;
+import net.sf.taverna.xml.schema.ui.tree.node.XSGlobalElementNode;
+import org.apache.ws.commons.schema.XmlSchemaChoice;
+import org.apache.ws.commons.schema.XmlSchemaComplexType;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the choice branches lookup.
+ * 
+ * @author Dmitry Repchevsky
+ */
+
+public class ChoiceIndexTest extends TestSchemaTreeModel {
+
+    private final static String NS = "http://example.com";
+
+    @Before
+    public void loadModel() {
+        loadModel("xs/complex_type10.xsd");
+    }
+
+    @Test
+    public void branchTest() {
+        model.addGlobalElement(new QName(NS, "shape"));
+
+        XSGlobalElementNode element = (XSGlobalElementNode)model.getRoot().getChildAt(0);
+        XSChoiceIndex index = getIndex(element);
+        Assert.assertSame("the index must be built only once", index, getIndex(element));
+
+        Assert.assertEquals(2, index.getBranches().size());
+        Assert.assertEquals(0, index.getBranch(XSSymbolTable.intern(NS, "circle")));
+        Assert.assertEquals("optional element must not hide the next one", 1, index.getBranch(XSSymbolTable.intern(NS, "width")));
+        Assert.assertEquals(1, index.getBranch(XSSymbolTable.intern(NS, "height")));
+        Assert.assertEquals(-1, index.getBranch(XSSymbolTable.intern(NS, "radius")));
+        Assert.assertEquals("circle (circle)", index.getLabel(0));
+
+        Assert.assertEquals("the default branch must be added", new QName(NS, "circle"), ((XSParticle)element.getChildAt(0)).getName());
+        Assert.assertEquals(0, index.getBranch(element));
+    }
+
+    @Test
+    public void readTest() {
+        fillModel("xs/complex_type10.xml");
+
+        XSGlobalElementNode element = (XSGlobalElementNode)model.getRoot().getChildAt(0);
+        Assert.assertEquals("the second branch must be found", 1, getIndex(element).getBranch(element));
+    }
+
+    @Test
+    public void extensionTest() {
+        model = new SchemaTreeModel();
+        loadModel("xs/complex_type16.xsd");
+        fillModel("xs/complex_type16.xml");
+
+        XSGlobalElementNode element = (XSGlobalElementNode)model.getRoot().getChildAt(0);
+        XSChoiceIndex index = getIndex(element);
+        Assert.assertEquals("the base type particles must be ignored", 1, index.getBranch(element));
+        Assert.assertEquals("simple type branches must be shown by the type name", "token", index.getLabel(1));
+    }
+
+    private static XSChoiceIndex getIndex(XSGlobalElementNode element) {
+        XmlSchemaComplexType type = (XmlSchemaComplexType)element.getType();
+        return XSChoiceIndex.get((XmlSchemaChoice)XSCompiledType.get(type).getParticle());
+    }
+}
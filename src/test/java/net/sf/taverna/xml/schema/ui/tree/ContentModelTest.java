@@ -0,0 +1,125 @@
+/**
+ * *****************************************************************************
+ * Copyright (C) 2014 Spanish National Bioinformatics Institute (INB),
+ * Barcelona Supercomputing Center and The University of Manchester
+ *
+ * Modifications to the initial code base are copyright of their respective
+ * authors, or their employers as appropriate.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ *****************************************************************************
+ */
+
+package net.sf.taverna.xml.schema.ui.tree;
+
+import java.io.StringReader;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import net.sf.taverna.xml.schema.parser.XSContentModel;
+import net.sf.taverna.xml.schema.parser.XSSymbolTable;
+import net.sf.taverna.xml.schema.ui.tree.node.XSGlobalElementNode;
+import net.sf.taverna.xml.schema.ui.tree.node.XSParticleNode;
+import org.apache.ws.commons.schema.XmlSchemaComplexType;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the order aware reading of the content.
+ * 
+ * @author Dmitry Repchevsky
+ */
+
+public class ContentModelTest extends TestSchemaTreeModel {
+
+    private final static String NS = "http://example.com";
+
+    @Before
+    public void loadModel() {
+        loadModel("xs/complex_type11.xsd");
+    }
+
+    @Test
+    public void automatonTest() {
+        model.addGlobalElement(new QName(NS, "map"));
+        XSGlobalElementNode element = (XSGlobalElementNode)model.getRoot().getChildAt(0);
+
+        XSContentModel contentModel = XSContentModel.get((XmlSchemaComplexType)element.getType());
+        Assert.assertFalse("the content must not be empty", contentModel.isFinal(XSContentModel.START));
+        Assert.assertEquals("'key' must not go first", -1, contentModel.next(XSContentModel.START, XSSymbolTable.intern(NS, "key")));
+
+        int state = contentModel.next(XSContentModel.START, XSSymbolTable.intern(NS, "title"));
+        state = contentModel.next(state, XSSymbolTable.intern(NS, "key"));
+        state = contentModel.next(state, XSSymbolTable.intern(NS, "value"));
+        Assert.assertTrue("'value' may be repeated", contentModel.next(state, XSSymbolTable.intern(NS, "value")) == state);
+        Assert.assertTrue("the content may end after 'value'", contentModel.isFinal(state));
+
+        state = contentModel.next(state, XSSymbolTable.intern(NS, "note"));
+        Assert.assertTrue(state > 0);
+        Assert.assertEquals("nothing may follow 'note'", -1, contentModel.next(state, XSSymbolTable.intern(NS, "key")));
+    }
+
+    @Test
+    public void readTest() {
+        fillModel("xs/complex_type11.xml");
+        XSGlobalElementNode element = (XSGlobalElementNode)model.getRoot().getChildAt(0);
+
+        final String[] names = {"title", "key", "value", "key", "value", "note"};
+        Assert.assertEquals(names.length, element.getChildCount());
+        for (int i = 0; i < names.length; i++) {
+            XSParticleNode particle = (XSParticleNode)element.getChildAt(i);
+            Assert.assertEquals(new QName(NS, names[i]), particle.getName());
+        }
+
+        Assert.assertEquals("the first 'value' must have two occurrences", 2, element.getChildAt(2).getChildCount());
+        Assert.assertEquals("the second 'value' must have one occurrence", 1, element.getChildAt(4).getChildCount());
+    }
+
+    @Test
+    public void allTest() {
+        model = new SchemaTreeModel();
+        loadModel("xs/complex_type15.xsd");
+        model.addGlobalElement(new QName(NS, "address"));
+        XSGlobalElementNode element = (XSGlobalElementNode)model.getRoot().getChildAt(0);
+
+        XSContentModel contentModel = XSContentModel.get((XmlSchemaComplexType)element.getType());
+        Assert.assertFalse("the content must not be empty while 'city' and 'street' are required", contentModel.isFinal(XSContentModel.START));
+
+        final int state = contentModel.next(XSContentModel.START, XSSymbolTable.intern(NS, "street"));
+        Assert.assertTrue(state > 0);
+        Assert.assertTrue("'city' may follow 'street'", contentModel.next(state, XSSymbolTable.intern(NS, "city")) > 0);
+    }
+
+    @Test
+    public void envelopeTest() throws XMLStreamException {
+        final String xml = "<soap:Envelope xmlns:soap='http://schemas.xmlsoap.org/soap/envelope/'>" +
+                           "<soap:Header/><soap:Body>" +
+                           "<map xmlns='http://example.com'><title>numbers</title><key>one</key><value>1</value></map>" +
+                           "</soap:Body></soap:Envelope>";
+        model.read(XMLInputFactory.newInstance().createXMLStreamReader(new StringReader(xml)));
+
+        Assert.assertEquals("the element inside the unknown ones must be read", 1, model.getRoot().getChildCount());
+        XSGlobalElementNode element = (XSGlobalElementNode)model.getRoot().getChildAt(0);
+        Assert.assertEquals(new QName(NS, "map"), element.getName());
+        Assert.assertEquals(3, element.getChildCount());
+    }
+
+    @Test(expected = XMLStreamException.class)
+    public void unexpectedElementTest() throws XMLStreamException {
+        final String xml = "<map xmlns='http://example.com'><key>odd</key></map>";
+        model.read(XMLInputFactory.newInstance().createXMLStreamReader(new StringReader(xml)));
+    }
+}
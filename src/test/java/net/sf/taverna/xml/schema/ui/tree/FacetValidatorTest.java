@@ -0,0 +1,119 @@
+/**
+ * *****************************************************************************
+ * Copyright (C) 2014 Spanish National Bioinformatics Institute (INB),
+ * Barcelona Supercomputing Center and The University of Manchester
+ *
+ * Modifications to the initial code base are copyright of their respective
+ * authors, or their employers as appropriate.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ *****************************************************************************
+ */
+
+package net.sf.taverna.xml.schema.ui.tree;
+
+import java.util.Arrays;
+import javax.xml.namespace.QName;
+import net.sf.taverna.xml.schema.parser.XSEnumerationIndex;
+import net.sf.taverna.xml.schema.parser.XSFacetValidator;
+import net.sf.taverna.xml.schema.ui.tree.node.XSGlobalElementNode;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the values validation against the simple type facets.
+ * 
+ * @author Dmitry Repchevsky
+ */
+
+public class FacetValidatorTest extends TestSchemaTreeModel {
+
+    @Before
+    public void loadModel() {
+        loadModel("xs/simple_type3.xsd");
+    }
+
+    @Test
+    public void patternTest() {
+        XSFacetValidator validator = getValidator("code");
+        Assert.assertSame("the validator must be built only once", validator, getValidator("code"));
+
+        Assert.assertTrue(validator.isValid("AB123"));
+        Assert.assertFalse("derived type pattern must be checked", validator.isValid("ab123"));
+        Assert.assertFalse("base type pattern must be checked", validator.isValid("AB 12"));
+    }
+
+    @Test
+    public void rangeTest() {
+        XSFacetValidator validator = getValidator("age");
+        Assert.assertTrue(validator.isValid("0"));
+        Assert.assertTrue(validator.isValid("149"));
+        Assert.assertFalse(validator.isValid("-1"));
+        Assert.assertFalse(validator.isValid("150"));
+        Assert.assertFalse(validator.isValid("old"));
+    }
+
+    @Test
+    public void digitsTest() {
+        XSFacetValidator validator = getValidator("price");
+        Assert.assertTrue(validator.isValid("123.45"));
+        Assert.assertTrue(validator.isValid("1.50"));
+        Assert.assertFalse(validator.isValid("123456"));
+        Assert.assertFalse(validator.isValid("1.505"));
+    }
+
+    @Test
+    public void enumerationTest() {
+        XSFacetValidator validator = getValidator("color");
+        Assert.assertTrue(validator.isValid(" red "));
+        Assert.assertFalse(validator.isValid("blue"));
+    }
+
+    @Test
+    public void enumerationIndexTest() {
+        model.addGlobalElement(new QName("http://example.com", "color"));
+        XSGlobalElementNode node = (XSGlobalElementNode)model.getRoot().getChildAt(0);
+        XSEnumerationIndex index = XSEnumerationIndex.get(node.getSimpleType());
+        Assert.assertSame("the index must be built only once", index, XSEnumerationIndex.get(node.getSimpleType()));
+
+        Assert.assertEquals(Arrays.asList("red", "green", "grey"), index.getValues());
+        Assert.assertTrue(index.contains("grey"));
+        Assert.assertFalse(index.contains("blue"));
+        Assert.assertEquals(2, index.indexOf("grey"));
+        Assert.assertEquals(Arrays.asList("green", "grey"), index.getValues("gr"));
+        Assert.assertEquals("green", index.getFirstValue("g"));
+        Assert.assertNull(index.getFirstValue("b"));
+    }
+
+    @Test
+    public void validateTest() {
+        final String code = "/*[namespace-uri()='http://example.com' and local-name()='code']";
+
+        model.addGlobalElement(new QName("http://example.com", "code"));
+        model.setNodeValue(code, "AB123");
+        Assert.assertTrue("valid value must be accepted", model.validate());
+
+        model.setNodeValue(code, "AB1234");
+        Assert.assertFalse("the value is too long", model.validate());
+    }
+
+    private XSFacetValidator getValidator(String element) {
+        model.clear();
+        model.addGlobalElement(new QName("http://example.com", element));
+        XSGlobalElementNode node = (XSGlobalElementNode)model.getRoot().getChildAt(0);
+        return XSFacetValidator.get(node.getSimpleType());
+    }
+}
@@ -0,0 +1,221 @@
+/**
+ * *****************************************************************************
+ * Copyright (C) 2014 Spanish National Bioinformatics Institute (INB),
+ * Barcelona Supercomputing Center and The University of Manchester
+ *
+ * Modifications to the initial code base are copyright of their respective
+ * authors, or their employers as appropriate.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ *****************************************************************************
+ */
+
+package net.sf.taverna.xml.schema.ui.tree;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Random;
+import javax.xml.bind.DatatypeConverter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import net.sf.taverna.xml.schema.parser.XSComponent;
+import net.sf.taverna.xml.schema.parser.XSLargeValue;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that the values above the threshold are kept out of the heap 
+ * and are written back unchanged.
+ * 
+ * @author Dmitry Repchevsky
+ */
+
+public class LargeValueTest extends TestSchemaTreeModel {
+
+    private final static String RECORD = "/*[namespace-uri()='http://example.com' and local-name()='record']";
+
+    @Before
+    public void loadModel() {
+        loadModel("xs/complex_type12.xsd");
+        model.setLargeValueThreshold(3);
+    }
+
+    @Test
+    public void readTest() throws IOException {
+        fillModel("xs/complex_type12.xml");
+
+        Object data = model.getNodeValue(getPath("data"));
+        Assert.assertTrue("base64 value must be stored", data instanceof XSLargeValue);
+        Assert.assertTrue(((XSLargeValue)data).isBinary());
+        Assert.assertEquals(3, ((XSLargeValue)data).length());
+        try (InputStream in = ((XSLargeValue)data).openStream()) {
+            Assert.assertEquals(1, in.read());
+            Assert.assertEquals(2, in.read());
+            Assert.assertEquals(3, in.read());
+            Assert.assertEquals(-1, in.read());
+        }
+
+        Object name = model.getNodeValue(getPath("name"));
+        Assert.assertTrue("long text must be stored", name instanceof XSLargeValue);
+        Assert.assertFalse(((XSLargeValue)name).isBinary());
+        Assert.assertEquals(" Napoleon ", ((XSLargeValue)name).getText());
+
+        Assert.assertEquals("short values must be kept as is", "1", model.getNodeValue(getPath("flag")));
+
+        Assert.assertTrue(model.validate());
+    }
+
+    @Test
+    public void writeTest() throws XMLStreamException {
+        fillModel("xs/complex_type12.xml");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        XMLOutputFactory f = XMLOutputFactory.newInstance();
+        f.setProperty(XMLOutputFactory.IS_REPAIRING_NAMESPACES, Boolean.TRUE);
+        XMLStreamWriter writer = f.createXMLStreamWriter(out, "UTF-8");
+        try {
+            model.write(writer);
+        } finally {
+            writer.close();
+        }
+
+        // read the written XML back into the memory
+        model.setLargeValueThreshold(Integer.MAX_VALUE);
+        model.read(XMLInputFactory.newInstance().createXMLStreamReader(new ByteArrayInputStream(out.toByteArray())));
+
+        Assert.assertEquals("AQID", model.getNodeValue(getPath("data")));
+        Assert.assertEquals(" Napoleon ", model.getNodeValue(getPath("name")));
+        Assert.assertEquals(" 007 ", model.getNodeValue(getPath("count")));
+    }
+
+    @Test
+    public void disposeTest() throws IOException {
+        fillModel("xs/complex_type12.xml");
+
+        XSLargeValue name = (XSLargeValue)model.getNodeValue(getPath("name"));
+        model.setNodeValue(getPath("name"), "Bonaparte");
+        Assert.assertFalse("the store of the replaced value must be deleted", exists(name));
+
+        XSLargeValue data = (XSLargeValue)model.getNodeValue(getPath("data"));
+        Assert.assertTrue(exists(data));
+        model.clear();
+        Assert.assertFalse("the stores must be deleted with the model content", exists(data));
+    }
+
+    @Test
+    public void invalidTest() throws XMLStreamException, IOException {
+        final String xml = "<record xmlns=\"http://example.com\"><count>7</count><total>1.50</total><ratio>INF</ratio>" +
+                           "<flag>1</flag><born>1769-08-15</born><data>AQID*AQ==</data><name>Napoleon</name></record>";
+        model.read(XMLInputFactory.newInstance().createXMLStreamReader(new StringReader(xml)));
+
+        Object data = model.getNodeValue(getPath("data"));
+        Assert.assertTrue("invalid base64 value must be kept", data instanceof XSLargeValue);
+        Assert.assertFalse(((XSLargeValue)data).isBinary());
+        Assert.assertEquals("AQID*AQ==", ((XSLargeValue)data).getText());
+        Assert.assertEquals(Boolean.FALSE, validate("data"));
+
+        // the same value kept in the memory
+        model.setLargeValueThreshold(Integer.MAX_VALUE);
+        model.read(XMLInputFactory.newInstance().createXMLStreamReader(new StringReader(xml)));
+        Assert.assertEquals("AQID*AQ==", model.getNodeValue(getPath("data")));
+        Assert.assertEquals(Boolean.FALSE, validate("data"));
+
+        // incomplete base64 value
+        XSLargeValue.Builder builder = new XSLargeValue.Builder(true);
+        builder.append("AQIDA");
+        XSLargeValue value = builder.build();
+        Assert.assertFalse(value.isBinary());
+        Assert.assertEquals("AQIDA", value.getText());
+        value.dispose();
+    }
+
+    @Test
+    public void abortTest() {
+        final String xml = "<record xmlns=\"http://example.com\"><count>7</count><total>1.50</total><ratio>INF</ratio>" +
+                           "<flag>1</flag><born>1769-08-15</born><data>AQIDAQIDAQID<data/></data></record>";
+        model.setLargeValueThreshold(10); // only the data value is stored
+
+        final int stores = countStores();
+        try {
+            model.read(XMLInputFactory.newInstance().createXMLStreamReader(new StringReader(xml)));
+            Assert.fail("the element in the simple content must fail the read");
+        } catch(XMLStreamException ex) {
+            Assert.assertEquals("the unfinished store must be deleted", stores, countStores());
+        }
+    }
+
+    @Test
+    public void chunksTest() throws IOException, XMLStreamException {
+        final byte[] bytes = new byte[100000];
+        new Random(42).nextBytes(bytes);
+        final String base64 = DatatypeConverter.printBase64Binary(bytes);
+
+        // the characters come in arbitrary pieces (as the reader reports them)
+        final char[] chars = base64.toCharArray();
+        XSLargeValue.Builder builder = new XSLargeValue.Builder(true);
+        for (int i = 0; i < chars.length; i += 1001) {
+            builder.append(chars, i, Math.min(1001, chars.length - i));
+        }
+        XSLargeValue value = builder.build();
+        Assert.assertEquals(bytes.length, value.length());
+
+        StringWriter out = new StringWriter();
+        XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(out);
+        try {
+            value.write(writer);
+        } finally {
+            writer.close();
+        }
+        Assert.assertEquals(base64, out.toString());
+
+        value.dispose();
+    }
+
+    private Boolean validate(String element) {
+        return ((XSComponent)model.getRoot().findNode(getPath(element))).validate();
+    }
+
+    private static int countStores() {
+        final String[] files = new File(System.getProperty("java.io.tmpdir")).list();
+        int count = 0;
+        for (String file : files) {
+            if (file.startsWith("xsvalue")) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static boolean exists(XSLargeValue value) throws IOException {
+        try (InputStream in = value.openStream()) {
+            return true;
+        } catch(FileNotFoundException ex) {
+            return false;
+        }
+    }
+
+    private static String getPath(String element) {
+        return RECORD + "/*[namespace-uri()='http://example.com' and local-name()='" + element + "']";
+    }
+}
@@ -0,0 +1,103 @@
+/**
+ * *****************************************************************************
+ * Copyright (C) 2014 Spanish National Bioinformatics Institute (INB),
+ * Barcelona Supercomputing Center and The University of Manchester
+ *
+ * Modifications to the initial code base are copyright of their respective
+ * authors, or their employers as appropriate.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ *****************************************************************************
+ */
+
+package net.sf.taverna.xml.schema.ui.tree;
+
+import java.io.ByteArrayOutputStream;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import net.sf.taverna.xml.schema.ui.tree.node.XSGlobalElementNode;
+import net.sf.taverna.xml.schema.ui.tree.node.XSParticleNode;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the lazy model where the nodes are created on demand.
+ * 
+ * @author Dmitry Repchevsky
+ */
+
+public class LazyModelTest extends TestSchemaTreeModel {
+
+    private final static String PERSON = "/*[namespace-uri()='http://example.com' and local-name()='person']";
+    private final static String FULLNAME = PERSON + "/*[namespace-uri()='http://example.com' and local-name()='fullname']";
+    private final static String NAME = FULLNAME + "/*[namespace-uri()='http://example.com' and local-name()='name']";
+    private final static String SURNAME = FULLNAME + "/*[namespace-uri()='http://example.com' and local-name()='surname']";
+
+    @Before
+    public void loadModel() {
+        loadModel("xs/complex_type7.xsd");
+    }
+
+    @Test
+    public void lazyExpansionTest() throws XMLStreamException {
+        model.setLazy(true);
+        model.addGlobalElement(new QName("http://example.com", "person"));
+
+        XSGlobalElementNode element = (XSGlobalElementNode)model.getRoot().getChildAt(0);
+        Assert.assertFalse("the 'person' node must not be expanded", element.isMaterialized());
+        Assert.assertFalse("the 'person' node must not be a leaf", element.isLeaf());
+        Assert.assertNull("unexpanded 'person' node must be empty", element.validate());
+        Assert.assertEquals("unexpanded 'person' node must not be written", "", write());
+
+        Assert.assertEquals("the 'person' node should have one child node", 1, element.getChildCount());
+        Assert.assertTrue("the 'person' node must be expanded", element.isMaterialized());
+
+        XSParticleNode particle = (XSParticleNode)element.getChildAt(0);
+        Assert.assertFalse("the 'fullname' node must not be expanded", particle.isMaterialized());
+    }
+
+    @Test
+    public void lazyWriteTest() throws XMLStreamException {
+        model.addGlobalElement(new QName("http://example.com", "person"));
+        model.setNodeValue(NAME, "Napoleon");
+        model.setNodeValue(SURNAME, "Bonaparte");
+        final String expected = write();
+
+        model.clear();
+        model.setLazy(true);
+        model.addGlobalElement(new QName("http://example.com", "person"));
+        model.setNodeValue(NAME, "Napoleon");
+        model.setNodeValue(SURNAME, "Bonaparte");
+
+        Assert.assertEquals("lazy model must produce the same XML", expected, write());
+    }
+
+    private String write() throws XMLStreamException {
+        XMLOutputFactory f = XMLOutputFactory.newInstance();
+        f.setProperty(XMLOutputFactory.IS_REPAIRING_NAMESPACES, Boolean.TRUE);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        XMLStreamWriter writer = f.createXMLStreamWriter(out);
+        try {
+            model.write(writer);
+        } finally {
+            writer.close();
+        }
+        return out.toString();
+    }
+}
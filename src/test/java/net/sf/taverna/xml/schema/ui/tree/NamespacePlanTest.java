@@ -0,0 +1,138 @@
+/**
+ * *****************************************************************************
+ * Copyright (C) 2014 Spanish National Bioinformatics Institute (INB),
+ * Barcelona Supercomputing Center and The University of Manchester
+ *
+ * Modifications to the initial code base are copyright of their respective
+ * authors, or their employers as appropriate.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ *****************************************************************************
+ */
+
+package net.sf.taverna.xml.schema.ui.tree;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that all the namespaces of the document are declared on its root element.
+ * 
+ * @author Dmitry Repchevsky
+ */
+
+public class NamespacePlanTest extends TestSchemaTreeModel {
+
+    private final static String SHAPE = "/*[namespace-uri()='http://example.com' and local-name()='shapes']" +
+                                        "/*[namespace-uri()='http://example.com' and local-name()='shape']";
+    private final static String KIND = "/@[namespace-uri()='http://example.com' and local-name()='kind']";
+
+    private final static String NOTE = "/*[namespace-uri()='http://example.com' and local-name()='order']/item" +
+                                       "/*[namespace-uri()='http://example.com' and local-name()='note']";
+
+    @Before
+    public void loadModel() {
+        loadModel("xs/complex_type13.xsd");
+    }
+
+    @Test
+    public void declarationsTest() throws XMLStreamException, UnsupportedEncodingException {
+        fillModel("xs/complex_type13.xml");
+
+        final byte[] xml = write();
+        final String text = new String(xml, "UTF-8");
+
+        final int root = text.indexOf('>', text.indexOf("shapes"));
+        Assert.assertEquals("both namespaces must be declared", 2, count(text.substring(0, root), "xmlns:"));
+        Assert.assertEquals("namespaces must be declared on the root element only", 2, count(text, "xmlns"));
+
+        model.read(XMLInputFactory.newInstance().createXMLStreamReader(new ByteArrayInputStream(xml)));
+
+        final QName circle = new QName("http://example.com/other", "circle");
+        Assert.assertEquals(circle, model.getNodeValue(SHAPE + "[position()=1]" + KIND));
+        Assert.assertEquals(new QName("http://example.com/other", "square"), model.getNodeValue(SHAPE + "[position()=2]" + KIND));
+        Assert.assertEquals(circle, model.getNodeValue(SHAPE + "[position()=3]" + KIND));
+    }
+
+    @Test
+    public void freePrefixTest() throws XMLStreamException, UnsupportedEncodingException {
+        fillModel("xs/complex_type13.xml");
+
+        // the schema has no prefix for the QName values namespace, so it gets the first free "nsN" one
+        final String text = new String(write(), "UTF-8");
+        Assert.assertEquals(1, count(text, "xmlns:ns0=\"http://example.com/other\""));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+        try {
+            writer.setPrefix("ns0", "http://example.com/bound");
+            model.write(writer);
+        } finally {
+            writer.close();
+        }
+
+        final String bound = new String(out.toByteArray(), "UTF-8");
+        Assert.assertEquals("the bound prefix must not be reused", 1, count(bound, "xmlns:ns1=\"http://example.com/other\""));
+    }
+
+    @Test
+    public void unqualifiedTest() throws XMLStreamException, IOException {
+        model = new SchemaTreeModel();
+        loadModel("xs/complex_type14.xsd");
+        fillModel("xs/complex_type14.xml");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        model.write(out);
+
+        for (byte[] xml : new byte[][] {write(), out.toByteArray()}) {
+            final String text = new String(xml, "UTF-8");
+            Assert.assertEquals("the target namespace must not be the default one", 0, count(text, "xmlns=\"\""));
+
+            model.read(XMLInputFactory.newInstance().createXMLStreamReader(new ByteArrayInputStream(xml)));
+            Assert.assertEquals("the referenced element must stay in the target namespace", "fragile", model.getNodeValue(NOTE));
+        }
+    }
+
+    private byte[] write() throws XMLStreamException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        XMLOutputFactory f = XMLOutputFactory.newInstance();
+        f.setProperty(XMLOutputFactory.IS_REPAIRING_NAMESPACES, Boolean.TRUE);
+        XMLStreamWriter writer = f.createXMLStreamWriter(out, "UTF-8");
+        try {
+            model.write(writer);
+        } finally {
+            writer.close();
+        }
+        return out.toByteArray();
+    }
+
+    private static int count(String text, String pattern) {
+        int count = 0;
+        for (int i = text.indexOf(pattern); i >= 0; i = text.indexOf(pattern, i + 1)) {
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ * *****************************************************************************
+ * Copyright (C) 2014 Spanish National Bioinformatics Institute (INB),
+ * Barcelona Supercomputing Center and The University of Manchester
+ *
+ * Modifications to the initial code base are copyright of their respective
+ * authors, or their employers as appropriate.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ *****************************************************************************
+ */
+
+package net.sf.taverna.xml.schema.ui.tree;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ForkJoinPool;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import net.sf.taverna.xml.schema.parser.XSUTF8Serializer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that long lists of repeated elements written in parallel are 
+ * the same as the ones written sequentially.
+ * 
+ * @author Dmitry Repchevsky
+ */
+
+public class ParallelSerializerTest extends TestSchemaTreeModel {
+
+    private final static int SHAPES = 10000;
+
+    private ForkJoinPool pool;
+
+    @Before
+    public void loadModel() throws XMLStreamException {
+        loadModel("xs/complex_type13.xsd");
+
+        StringBuilder xml = new StringBuilder();
+        xml.append("<shapes xmlns=\"http://example.com\" xmlns:tns=\"http://example.com\" xmlns:o=\"http://example.com/other\">");
+        for (int i = 0; i < SHAPES; i++) {
+            xml.append("<shape tns:kind=\"o:").append(i % 2 == 0 ? "circle" : "square").append("\">");
+            xml.append("<name>&lt;shape ").append(i).append("&gt;</name></shape>");
+        }
+        xml.append("</shapes>");
+
+        XMLInputFactory f = XMLInputFactory.newInstance();
+        model.read(f.createXMLStreamReader(new ByteArrayInputStream(xml.toString().getBytes(StandardCharsets.UTF_8))));
+
+        pool = new ForkJoinPool();
+    }
+
+    @After
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void chunksTest() throws IOException {
+        final byte[] expected = writeSequential();
+
+        for (int chunkSize : new int[] {1, 7, 1000, SHAPES - 1, SHAPES}) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            XSUTF8Serializer serializer = new XSUTF8Serializer(out);
+            serializer.setPool(pool);
+            serializer.setChunkSize(chunkSize);
+            serializer.write(model.getRoot());
+
+            Assert.assertArrayEquals("different serialization with chunks of " + chunkSize, expected, out.toByteArray());
+        }
+    }
+
+    @Test
+    public void modelTest() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        model.write(out, pool);
+
+        Assert.assertArrayEquals(writeSequential(), out.toByteArray());
+    }
+
+    private byte[] writeSequential() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        model.write(out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * *****************************************************************************
+ * Copyright (C) 2014 Spanish National Bioinformatics Institute (INB),
+ * Barcelona Supercomputing Center and The University of Manchester
+ *
+ * Modifications to the initial code base are copyright of their respective
+ * authors, or their employers as appropriate.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ *****************************************************************************
+ */
+
+package net.sf.taverna.xml.schema.ui.tree;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import net.sf.taverna.xml.schema.parser.XSProjection;
+import net.sf.taverna.xml.schema.ui.tree.node.XSGlobalElementNode;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks that only the projected parts of the document are read.
+ * 
+ * @author Dmitry Repchevsky
+ */
+
+public class ProjectionTest extends TestSchemaTreeModel {
+
+    private final static String RECORD = "/*[namespace-uri()='http://example.com' and local-name()='record']";
+    private final static String MAP = "/*[namespace-uri()='http://example.com' and local-name()='map']";
+
+    @Test
+    public void valuesTest() throws XMLStreamException, IOException {
+        loadModel("xs/complex_type12.xsd");
+        read("xs/complex_type12.xml", RECORD + "/@id", RECORD + getStep("name"));
+
+        Assert.assertEquals("+42", model.getNodeValue(RECORD + "/@id"));
+        Assert.assertEquals(" Napoleon ", model.getNodeValue(RECORD + getStep("name")));
+
+        Assert.assertNull("not projected elements must be skipped", model.getRoot().findNode(RECORD + getStep("count")));
+        Assert.assertEquals("only projected nodes must be created", 2, model.getRoot().getChildAt(0).getChildCount());
+    }
+
+    @Test
+    public void occurrenceTest() throws XMLStreamException, IOException {
+        loadModel("xs/complex_type11.xsd");
+        read("xs/complex_type11.xml", MAP + getStep("value") + "[position()=2]");
+
+        Assert.assertEquals("3", model.getNodeValue(MAP + getStep("value") + "[position()=2]"));
+        Assert.assertNull("preceding occurrences must be kept empty", model.getNodeValue(MAP + getStep("value") + "[position()=1]"));
+        Assert.assertNull(model.getRoot().findNode(MAP + getStep("title")));
+        Assert.assertNull(model.getRoot().findNode(MAP + getStep("key")));
+
+        XSGlobalElementNode map = (XSGlobalElementNode)model.getRoot().getChildAt(0);
+        Assert.assertEquals("only the projected 'value' occurrences must be created", 1, map.getChildCount());
+        Assert.assertEquals(2, map.getChildAt(0).getChildCount());
+        Assert.assertEquals(0, map.getChildAt(0).getChildAt(0).getChildCount());
+    }
+
+    @Test
+    public void subtreeTest() throws XMLStreamException, IOException {
+        loadModel("xs/complex_type11.xsd");
+        read("xs/complex_type11.xml", MAP + getStep("title"), MAP);
+
+        XSGlobalElementNode map = (XSGlobalElementNode)model.getRoot().getChildAt(0);
+        Assert.assertEquals("the whole subtree must be read", 6, map.getChildCount());
+        Assert.assertEquals("small", model.getNodeValue(MAP + getStep("note")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void malformedTest() {
+        new XSProjection(Collections.singletonList(MAP + "/*[local-name()='title'"));
+    }
+
+    private void read(String xml, String... xpaths) throws XMLStreamException, IOException {
+        try (InputStream in = ProjectionTest.class.getClassLoader().getResourceAsStream(xml)) {
+            model.read(XMLInputFactory.newInstance().createXMLStreamReader(in), Arrays.asList(xpaths));
+        }
+    }
+
+    private static String getStep(String element) {
+        return "/*[namespace-uri()='http://example.com' and local-name()='" + element + "']";
+    }
+}
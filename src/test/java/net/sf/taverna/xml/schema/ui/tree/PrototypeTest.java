@@ -0,0 +1,103 @@
+/**
+ * *****************************************************************************
+ * Copyright (C) 2014 Spanish National Bioinformatics Institute (INB),
+ * Barcelona Supercomputing Center and The University of Manchester
+ *
+ * Modifications to the initial code base are copyright of their respective
+ * authors, or their employers as appropriate.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ *****************************************************************************
+ */
+
+package net.sf.taverna.xml.schema.ui.tree;
+
+import java.io.ByteArrayOutputStream;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import net.sf.taverna.xml.schema.ui.tree.node.XSGlobalElementNode;
+import net.sf.taverna.xml.schema.ui.tree.node.XSParticleNode;
+import net.sf.taverna.xml.schema.ui.tree.node.XSTypeNode;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that the nodes copied from the type prototypes are independent.
+ * 
+ * @author Dmitry Repchevsky
+ */
+
+public class PrototypeTest extends TestSchemaTreeModel {
+
+    @Before
+    public void loadModel() {
+        loadModel("xs/complex_type4.xsd");
+    }
+
+    @Test
+    public void globalElementCopyTest() {
+        model.addGlobalElement(new QName("http://example.com", "person"));
+        model.addGlobalElement(new QName("http://example.com", "person"));
+
+        XSGlobalElementNode person1 = (XSGlobalElementNode)model.getRoot().getChildAt(0);
+        XSGlobalElementNode person2 = (XSGlobalElementNode)model.getRoot().getChildAt(1);
+        
+        XSParticleNode hobby1 = (XSParticleNode)person1.getChildAt(0);
+        XSParticleNode hobby2 = (XSParticleNode)person2.getChildAt(0);
+        Assert.assertNotSame("the copies must not share the nodes", hobby1, hobby2);
+        Assert.assertSame("wrong parent of the copied node", person2, hobby2.getParent());
+        Assert.assertEquals("the copies must have the same structure", hobby1.getChildCount(), hobby2.getChildCount());
+
+        ((XSTypeNode)hobby1.getChildAt(0)).setUserObject("war");
+        Assert.assertNull("the copies must not share the values", ((XSTypeNode)hobby2.getChildAt(0)).getUserObject());
+    }
+
+    @Test
+    public void addItemTest() throws XMLStreamException {
+        model.addGlobalElement(new QName("http://example.com", "person"));
+
+        XSGlobalElementNode person = (XSGlobalElementNode)model.getRoot().getChildAt(0);
+        XSParticleNode hobby = (XSParticleNode)person.getChildAt(0);
+        ((XSTypeNode)hobby.getChildAt(0)).setUserObject("war");
+
+        XSTypeNode item = model.addItem(hobby, hobby.getChildCount());
+        Assert.assertEquals("the 'hobby' node should have two items", 2, hobby.getChildCount());
+        Assert.assertSame("wrong parent of the new item", hobby, item.getParent());
+        item.setUserObject("archeology");
+
+        final String expected = write();
+
+        model.clear();
+        fillModel("xs/complex_type4.xml");
+        Assert.assertEquals("added item must produce the same XML", expected, write());
+    }
+
+    private String write() throws XMLStreamException {
+        XMLOutputFactory f = XMLOutputFactory.newInstance();
+        f.setProperty(XMLOutputFactory.IS_REPAIRING_NAMESPACES, Boolean.TRUE);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        XMLStreamWriter writer = f.createXMLStreamWriter(out);
+        try {
+            model.write(writer);
+        } finally {
+            writer.close();
+        }
+        return out.toString();
+    }
+}
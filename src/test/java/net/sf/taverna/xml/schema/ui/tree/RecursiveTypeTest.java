@@ -0,0 +1,127 @@
+/**
+ * *****************************************************************************
+ * Copyright (C) 2014 Spanish National Bioinformatics Institute (INB),
+ * Barcelona Supercomputing Center and The University of Manchester
+ *
+ * Modifications to the initial code base are copyright of their respective
+ * authors, or their employers as appropriate.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ *****************************************************************************
+ */
+
+package net.sf.taverna.xml.schema.ui.tree;
+
+import java.io.StringReader;
+import javax.swing.tree.TreeNode;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import net.sf.taverna.xml.schema.ui.tree.node.XSGlobalElementNode;
+import net.sf.taverna.xml.schema.ui.tree.node.XSParticleNode;
+import net.sf.taverna.xml.schema.ui.tree.node.XSTypeNode;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that recursive types are expanded only on demand.
+ * 
+ * @author Dmitry Repchevsky
+ */
+
+public class RecursiveTypeTest extends TestSchemaTreeModel {
+
+    private final static String PERSON = "/*[namespace-uri()='http://example.com' and local-name()='person']";
+    private final static String FATHER = PERSON + "/*[namespace-uri()='http://example.com' and local-name()='father']";
+    private final static String NAME = "/*[namespace-uri()='http://example.com' and local-name()='name']";
+
+    @Before
+    public void loadModel() {
+        loadModel("xs/complex_type9.xsd");
+    }
+
+    @Test
+    public void recursiveExpansionTest() {
+        model.addGlobalElement(new QName("http://example.com", "person"));
+
+        XSGlobalElementNode element = (XSGlobalElementNode)model.getRoot().getChildAt(0);
+        Assert.assertTrue("the 'person' node must be expanded", element.isMaterialized());
+
+        XSParticleNode father = (XSParticleNode)element.getChildAt(1);
+        Assert.assertFalse("the recursive 'father' node must not be expanded", father.isMaterialized());
+
+        XSTypeNode child = (XSTypeNode)element.getChildAt(2).getChildAt(0);
+        Assert.assertFalse("the recursive 'child' node must not be expanded", child.isMaterialized());
+
+        Assert.assertEquals("the 'father' node should have three child nodes", 3, father.getChildCount());
+        Assert.assertTrue("the 'father' node must be expanded", father.isMaterialized());
+        
+        XSParticleNode grandfather = (XSParticleNode)father.getChildAt(1);
+        Assert.assertFalse("the recursive 'father' node must not be expanded", grandfather.isMaterialized());
+    }
+
+    @Test
+    public void recursiveReadTest() {
+        model.addGlobalElement(new QName("http://example.com", "person"));
+        fillModel("xs/complex_type9.xml");
+
+        Assert.assertEquals("wrong person name", "Napoleon", model.getNodeValue(PERSON + NAME));
+        Assert.assertEquals("wrong father name", "Carlo", model.getNodeValue(FATHER + NAME));
+    }
+
+    @Test
+    public void maxExpansionDepthTest() {
+        loadModel("xs/complex_type7.xsd");
+        model.setMaxExpansionDepth(1);
+        model.addGlobalElement(new QName("http://example.com", "person"));
+
+        XSGlobalElementNode element = (XSGlobalElementNode)model.getRoot().getChildAt(0);
+        Assert.assertTrue("the 'person' node must be expanded", element.isMaterialized());
+
+        XSParticleNode fullname = (XSParticleNode)element.getChildAt(0);
+        Assert.assertFalse("the 'fullname' node must not be expanded", fullname.isMaterialized());
+
+        TreeNode name = fullname.getChildAt(0);
+        Assert.assertTrue("the 'name' node must be the represented by a particle node", name instanceof XSParticleNode);
+        Assert.assertTrue("the 'fullname' node must be expanded", fullname.isMaterialized());
+    }
+
+    @Test
+    public void deepReadTest() throws XMLStreamException {
+        final int depth = 5000;
+
+        StringBuilder xml = new StringBuilder("<person xmlns='http://example.com'>");
+        for (int i = 0; i < depth; i++) {
+            xml.append("<name>").append(i).append("</name><father>");
+        }
+        xml.append("<name>Adam</name>");
+        for (int i = 0; i < depth; i++) {
+            xml.append("</father>");
+        }
+        xml.append("</person>");
+
+        model.read(XMLInputFactory.newInstance().createXMLStreamReader(new StringReader(xml.toString())));
+
+        int fathers = 0;
+        TreeNode node = model.getRoot().getChildAt(0);
+        while (node.getChildCount() > 1) {
+            node = node.getChildAt(1);
+            fathers++;
+        }
+        Assert.assertEquals("wrong number of nested 'father' nodes", depth, fathers);
+        Assert.assertEquals("wrong name of the last father", "Adam", ((XSParticleNode)node.getChildAt(0)).getUserObject());
+    }
+}
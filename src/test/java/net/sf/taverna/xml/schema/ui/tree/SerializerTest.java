@@ -0,0 +1,94 @@
+/**
+ * *****************************************************************************
+ * Copyright (C) 2014 Spanish National Bioinformatics Institute (INB),
+ * Barcelona Supercomputing Center and The University of Manchester
+ *
+ * Modifications to the initial code base are copyright of their respective
+ * authors, or their employers as appropriate.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ *****************************************************************************
+ */
+
+package net.sf.taverna.xml.schema.ui.tree;
+
+import java.io.ByteArrayOutputStream;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import net.sf.taverna.xml.schema.parser.XSComponent;
+import net.sf.taverna.xml.schema.ui.tree.node.XSRootNode;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks that the model serializer produces exactly the same XML as 
+ * the components write() methods do.
+ * 
+ * @author Dmitry Repchevsky
+ */
+
+public class SerializerTest extends TestSchemaTreeModel {
+
+    private final static String[] FIXTURES = {"complex_type1", "complex_type2", "complex_type3", "complex_type4",
+                                              "complex_type5", "complex_type6", "complex_type7", "complex_type8", "complex_type13",
+                                              "simple_type1", "simple_type2"};
+
+    @Test
+    public void serializerTest() throws XMLStreamException {
+        for (String fixture : FIXTURES) {
+            model = new SchemaTreeModel();
+            loadModel("xs/" + fixture + ".xsd");
+            fillModel("xs/" + fixture + ".xml");
+
+            final byte[] expected = writeComponents();
+            final byte[] actual = writeModel();
+
+            Assert.assertArrayEquals("different serialization of " + fixture, expected, actual);
+        }
+    }
+
+    private byte[] writeModel() throws XMLStreamException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        XMLStreamWriter writer = createWriter(out);
+        try {
+            model.write(writer);
+        } finally {
+            writer.close();
+        }
+        return out.toByteArray();
+    }
+
+    private byte[] writeComponents() throws XMLStreamException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        XMLStreamWriter writer = createWriter(out);
+        try {
+            XSRootNode root = model.getRoot();
+            for (int i = 0, n = root.getChildCount(); i < n; i++) {
+                XSComponent component = (XSComponent)root.getChildAt(i);
+                component.write(writer);
+            }
+        } finally {
+            writer.close();
+        }
+        return out.toByteArray();
+    }
+
+    private XMLStreamWriter createWriter(ByteArrayOutputStream out) throws XMLStreamException {
+        XMLOutputFactory f = XMLOutputFactory.newInstance();
+        f.setProperty(XMLOutputFactory.IS_REPAIRING_NAMESPACES, Boolean.TRUE);
+        return f.createXMLStreamWriter(out, "UTF-8");
+    }
+}
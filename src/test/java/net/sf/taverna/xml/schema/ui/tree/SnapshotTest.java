@@ -0,0 +1,136 @@
+/**
+ * *****************************************************************************
+ * Copyright (C) 2014 Spanish National Bioinformatics Institute (INB),
+ * Barcelona Supercomputing Center and The University of Manchester
+ *
+ * Modifications to the initial code base are copyright of their respective
+ * authors, or their employers as appropriate.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ *****************************************************************************
+ */
+
+package net.sf.taverna.xml.schema.ui.tree;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import javax.xml.namespace.QName;
+import net.sf.taverna.xml.schema.parser.XSComponent;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks that the model restored from its binary snapshot is the same as 
+ * the original one.
+ * 
+ * @author Dmitry Repchevsky
+ */
+
+public class SnapshotTest extends TestSchemaTreeModel {
+
+    private final static String[] FIXTURES = {"complex_type1", "complex_type2", "complex_type3", "complex_type4",
+                                              "complex_type5", "complex_type6", "complex_type7", "complex_type8",
+                                              "complex_type9", "complex_type12", "complex_type13",
+                                              "simple_type1", "simple_type2"};
+
+    @Test
+    public void snapshotTest() throws IOException {
+        for (String fixture : FIXTURES) {
+            model = new SchemaTreeModel();
+            loadModel("xs/" + fixture + ".xsd");
+            fillModel("xs/" + fixture + ".xml");
+
+            Assert.assertArrayEquals("different model of " + fixture, write(model), write(restore(snapshot())));
+        }
+    }
+
+    @Test
+    public void typedValuesTest() throws IOException {
+        loadModel("xs/complex_type12.xsd");
+        model.setTypedValues(true);
+        fillModel("xs/complex_type12.xml");
+
+        final SchemaTreeModel restored = restore(snapshot());
+        Assert.assertArrayEquals(write(model), write(restored));
+
+        // the values are restored in their typed form
+        final XSComponent record = (XSComponent)model.getRoot().getChildAt(0);
+        final XSComponent restoredRecord = (XSComponent)restored.getRoot().getChildAt(0);
+        for (int i = 0, n = record.getChildCount(); i < n; i++) {
+            final Object value = ((XSComponent)record.getChildAt(i)).getUserObject();
+            final Object restoredValue = ((XSComponent)restoredRecord.getChildAt(i)).getUserObject();
+            Assert.assertEquals(value == null ? null : value.getClass(), restoredValue == null ? null : restoredValue.getClass());
+        }
+    }
+
+    @Test
+    public void largeValuesTest() throws IOException {
+        loadModel("xs/complex_type12.xsd");
+        model.setLargeValueThreshold(3);
+        fillModel("xs/complex_type12.xml");
+
+        Assert.assertArrayEquals(write(model), write(restore(snapshot())));
+    }
+
+    @Test
+    public void lazyTest() throws IOException {
+        loadModel("xs/complex_type7.xsd");
+        model.setLazy(true);
+        model.addGlobalElement(new QName("http://example.com", "person"));
+
+        final SchemaTreeModel restored = restore(snapshot());
+
+        final XSComponent person = (XSComponent)restored.getRoot().getChildAt(0);
+        Assert.assertFalse("the lazy node must stay lazy", person.isMaterialized());
+        Assert.assertEquals(((XSComponent)model.getRoot().getChildAt(0)).getChildCount(), person.getChildCount());
+    }
+
+    @Test
+    public void fingerprintTest() throws IOException {
+        loadModel("xs/complex_type9.xsd");
+        fillModel("xs/complex_type9.xml");
+        final byte[] snapshot = snapshot();
+
+        // the same "person" element of the different type
+        model = new SchemaTreeModel();
+        loadModel("xs/complex_type7.xsd");
+        try {
+            model.readSnapshot(Channels.newChannel(new ByteArrayInputStream(snapshot)));
+            Assert.fail("the snapshot of other schemas must be rejected");
+        } catch(IOException ex) {
+        }
+    }
+
+    private byte[] snapshot() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        model.writeSnapshot(Channels.newChannel(out));
+        return out.toByteArray();
+    }
+
+    private SchemaTreeModel restore(byte[] snapshot) throws IOException {
+        SchemaTreeModel restored = new SchemaTreeModel();
+        restored.getRoot().copySettings(model.getRoot());
+        restored.readSnapshot(Channels.newChannel(new ByteArrayInputStream(snapshot)));
+        return restored;
+    }
+
+    private static byte[] write(SchemaTreeModel model) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        model.write(out);
+        return out.toByteArray();
+    }
+}
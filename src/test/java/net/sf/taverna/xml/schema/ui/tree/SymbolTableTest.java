@@ -0,0 +1,90 @@
+/**
+ * *****************************************************************************
+ * Copyright (C) 2014 Spanish National Bioinformatics Institute (INB),
+ * Barcelona Supercomputing Center and The University of Manchester
+ *
+ * Modifications to the initial code base are copyright of their respective
+ * authors, or their employers as appropriate.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ *****************************************************************************
+ */
+
+package net.sf.taverna.xml.schema.ui.tree;
+
+import javax.xml.namespace.QName;
+import net.sf.taverna.xml.schema.parser.XSSymbolTable;
+import net.sf.taverna.xml.schema.ui.tree.node.XSAttributeNode;
+import net.sf.taverna.xml.schema.ui.tree.node.XSGlobalElementNode;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that the model names are interned and are not created again.
+ * 
+ * @author Dmitry Repchevsky
+ */
+
+public class SymbolTableTest extends TestSchemaTreeModel {
+
+    @Before
+    public void loadModel() {
+        loadModel("xs/complex_type6.xsd");
+    }
+
+    @Test
+    public void internTest() {
+        QName symbol = XSSymbolTable.intern("http://example.com", "symbol");
+        Assert.assertSame("equal names must be the same symbol", symbol, XSSymbolTable.intern(new QName("http://example.com", "symbol", "ex")));
+
+        final int size = XSSymbolTable.size();
+        Assert.assertNull("unknown name must not be found", XSSymbolTable.lookup("http://example.com", "unknown"));
+        Assert.assertEquals("lookup must not intern the name", size, XSSymbolTable.size());
+    }
+
+    @Test
+    public void releaseTest() throws InterruptedException {
+        QName symbol = XSSymbolTable.intern("http://example.com/released", "symbol");
+        Assert.assertSame(symbol, XSSymbolTable.lookup("http://example.com/released", "symbol"));
+
+        symbol = null;
+        for (int i = 0; i < 100 && XSSymbolTable.lookup("http://example.com/released", "symbol") != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        Assert.assertNull("the symbol which is not referenced must be released", 
+                          XSSymbolTable.lookup("http://example.com/released", "symbol"));
+    }
+
+    @Test
+    public void nodeNamesTest() {
+        model.addGlobalElement(new QName("http://example.com", "person"));
+
+        XSGlobalElementNode person = (XSGlobalElementNode)model.getRoot().getChildAt(0);
+        Assert.assertSame("the type name must not be created on every call", person.getTypeName(), person.getTypeName());
+
+        XSAttributeNode attribute = (XSAttributeNode)person.getChildAt(0);
+        Assert.assertSame("the attribute name must be interned", XSSymbolTable.intern(attribute.getName()), attribute.getName());
+    }
+
+    @Test
+    public void readTest() {
+        fillModel("xs/complex_type6.xml");
+
+        XSGlobalElementNode person = (XSGlobalElementNode)model.getRoot().getChildAt(0);
+        Assert.assertEquals("the 'person' node should have three attributes", 3, person.getChildCount());
+    }
+}
@@ -0,0 +1,314 @@
+/**
+ * *****************************************************************************
+ * Copyright (C) 2014 Spanish National Bioinformatics Institute (INB),
+ * Barcelona Supercomputing Center and The University of Manchester
+ *
+ * Modifications to the initial code base are copyright of their respective
+ * authors, or their employers as appropriate.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ *****************************************************************************
+ */
+
+package net.sf.taverna.xml.schema.ui.tree;
+
+import com.sun.management.ThreadMXBean;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import javax.swing.JTree;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import javax.xml.transform.stream.StreamSource;
+import net.sf.taverna.xml.schema.parser.XSBatchReader;
+import net.sf.taverna.xml.schema.parser.XSComponent;
+import net.sf.taverna.xml.schema.parser.XSUTF8Serializer;
+import net.sf.taverna.xml.schema.ui.tree.node.XSRootNode;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * Measures the throughput of the reading and writing paths and prints 
+ * the timings. The measurements check nothing, so they are not the part 
+ * of the unit tests and are run on demand only.
+ * 
+ * @author Dmitry Repchevsky
+ */
+
+@Ignore("benchmark")
+public class ThroughputBenchmark extends TestSchemaTreeModel {
+
+    private final static String SHAPE = "/*[namespace-uri()='http://example.com' and local-name()='shapes']" +
+                                        "/*[namespace-uri()='http://example.com' and local-name()='shape']";
+    private final static String NAME = "/*[namespace-uri()='http://example.com' and local-name()='name']";
+
+    private final static int DOCUMENTS = 2000;
+    private final static int SHAPES = 10000;
+    private final static int ROUNDS = 10;
+
+    /**
+     * Compares the XMLStreamWriter based serialization with the UTF-8 serializer.
+     */
+    @Test
+    public void writeTest() throws XMLStreamException, IOException {
+        loadModel("xs/complex_type9.xsd");
+        fillModel("xs/complex_type9.xml");
+
+        final XMLOutputFactory f = XMLOutputFactory.newInstance();
+        f.setProperty(XMLOutputFactory.IS_REPAIRING_NAMESPACES, Boolean.TRUE);
+
+        // the first round warms up the JIT
+        for (int round = 0; round < 2; round++) {
+            long time = System.nanoTime();
+            for (int i = 0; i < DOCUMENTS; i++) {
+                XMLStreamWriter writer = f.createXMLStreamWriter(new ByteArrayOutputStream(), "UTF-8");
+                model.write(writer);
+                writer.close();
+            }
+            final long stax = System.nanoTime() - time;
+
+            time = System.nanoTime();
+            for (int i = 0; i < DOCUMENTS; i++) {
+                model.write(new ByteArrayOutputStream());
+            }
+            final long utf8 = System.nanoTime() - time;
+
+            System.out.println(String.format("writing: XMLStreamWriter %.0f docs/s, UTF-8 serializer %.0f docs/s",
+                    DOCUMENTS * 1e9 / stax, DOCUMENTS * 1e9 / utf8));
+        }
+    }
+
+    /**
+     * Compares the sequential and the parallel reading of many documents.
+     */
+    @Test
+    public void batchReadTest() throws InterruptedException, XMLStreamException, IOException {
+        loadModel("xs/complex_type9.xsd");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = ThroughputBenchmark.class.getClassLoader().getResourceAsStream("xs/complex_type9.xml")) {
+            byte[] buf = new byte[1024];
+            for (int n; (n = in.read(buf)) >= 0;) {
+                out.write(buf, 0, n);
+            }
+        }
+        final byte[] xml = out.toByteArray();
+
+        final XMLInputFactory f = XMLInputFactory.newInstance();
+        final ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            // the first round warms up the schemas caches and the JIT
+            for (int round = 0; round < 2; round++) {
+                long time = System.nanoTime();
+                for (int i = 0; i < DOCUMENTS; i++) {
+                    XSRootNode node = new XSRootNode();
+                    node.copySettings(model.getRoot());
+                    node.read(f.createXMLStreamReader(new ByteArrayInputStream(xml)));
+                }
+                final long sequential = System.nanoTime() - time;
+
+                List<StreamSource> sources = new ArrayList<>(DOCUMENTS);
+                for (int i = 0; i < DOCUMENTS; i++) {
+                    sources.add(new StreamSource(new ByteArrayInputStream(xml)));
+                }
+
+                time = System.nanoTime();
+                List<XSBatchReader.Result<XSRootNode>> results = model.read(sources, executor);
+                final long parallel = System.nanoTime() - time;
+
+                Assert.assertEquals(DOCUMENTS, results.size());
+
+                System.out.println(String.format("batch reading: sequential %.0f docs/s, parallel %.0f docs/s",
+                        DOCUMENTS * 1e9 / sequential, DOCUMENTS * 1e9 / parallel));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Compares the sequential and the parallel writing of a long list.
+     */
+    @Test
+    public void parallelWriteTest() throws XMLStreamException, IOException {
+        readShapes();
+
+        final ForkJoinPool pool = new ForkJoinPool();
+        try {
+            // the first round warms up the JIT
+            for (int round = 0; round < 2; round++) {
+                long time = System.nanoTime();
+                model.write(new ByteArrayOutputStream());
+                final long sequential = System.nanoTime() - time;
+
+                time = System.nanoTime();
+                model.write(new ByteArrayOutputStream(), pool);
+                final long parallel = System.nanoTime() - time;
+
+                System.out.println(String.format("writing %d shapes: sequential %.1f ms, parallel %.1f ms",
+                        SHAPES, sequential / 1e6, parallel / 1e6));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Compares the full writing with the one that reuses the bytes of unchanged elements.
+     */
+    @Test
+    public void cachedWriteTest() throws XMLStreamException, IOException {
+        readShapes();
+        model.setWriteCaching(true);
+        model.write(new ByteArrayOutputStream());
+
+        // the first round warms up the JIT
+        for (int round = 0; round < 2; round++) {
+            model.setNodeValue(SHAPE + "[position()=" + SHAPES / 2 + "]" + NAME, "round " + round);
+            long time = System.nanoTime();
+            model.write(new ByteArrayOutputStream());
+            final long cached = System.nanoTime() - time;
+
+            time = System.nanoTime();
+            new XSUTF8Serializer(new ByteArrayOutputStream()).write(model.getRoot());
+            final long full = System.nanoTime() - time;
+
+            System.out.println(String.format("writing %d shapes after an edit: full %.1f ms, cached %.1f ms",
+                    SHAPES, full / 1e6, cached / 1e6));
+        }
+    }
+
+    /**
+     * Compares the XML round-trip of the model with the binary snapshot one.
+     */
+    @Test
+    public void snapshotTest() throws XMLStreamException, IOException {
+        readShapes();
+
+        final XMLInputFactory f = XMLInputFactory.newInstance();
+
+        // the first round warms up the JIT
+        for (int round = 0; round < 2; round++) {
+            long time = System.nanoTime();
+            for (int i = 0; i < ROUNDS; i++) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                model.write(out);
+
+                SchemaTreeModel copy = new SchemaTreeModel();
+                copy.getRoot().copySettings(model.getRoot());
+                copy.read(f.createXMLStreamReader(new ByteArrayInputStream(out.toByteArray())));
+            }
+            final long xmlTime = System.nanoTime() - time;
+
+            time = System.nanoTime();
+            for (int i = 0; i < ROUNDS; i++) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                model.writeSnapshot(Channels.newChannel(out));
+
+                SchemaTreeModel copy = new SchemaTreeModel();
+                copy.getRoot().copySettings(model.getRoot());
+                copy.readSnapshot(Channels.newChannel(new ByteArrayInputStream(out.toByteArray())));
+            }
+            final long snapshotTime = System.nanoTime() - time;
+
+            System.out.println(String.format("round-trip of %d shapes: XML %.1f ms, snapshot %.1f ms",
+                    SHAPES, xmlTime / 1e6 / ROUNDS, snapshotTime / 1e6 / ROUNDS));
+        }
+    }
+
+    /**
+     * Measures the bytes allocated by reading a long list and by rendering 
+     * and naming its nodes (the renderer asks for the names on every paint).
+     */
+    @Test
+    public void allocationTest() throws XMLStreamException {
+        loadModel("xs/complex_type13.xsd");
+        final byte[] xml = createShapes();
+
+        final XMLInputFactory f = XMLInputFactory.newInstance();
+        final ThreadMXBean threads = (ThreadMXBean)ManagementFactory.getThreadMXBean();
+        final long thread = Thread.currentThread().getId();
+
+        final JTree tree = new JTree(model);
+        final XSElementTreeCellEditor renderer = new XSElementTreeCellEditor();
+
+        // the first round warms up the JIT
+        for (int round = 0; round < 2; round++) {
+            long bytes = threads.getThreadAllocatedBytes(thread);
+            model.read(f.createXMLStreamReader(new ByteArrayInputStream(xml)));
+            final long read = threads.getThreadAllocatedBytes(thread) - bytes;
+
+            final List<XSComponent> nodes = new ArrayList<>();
+            final List<XSComponent> stack = new ArrayList<>();
+            for (int i = 0, n = model.getRoot().getChildCount(); i < n; i++) {
+                stack.add((XSComponent)model.getRoot().getChildAt(i));
+            }
+            while (!stack.isEmpty()) {
+                final XSComponent node = stack.remove(stack.size() - 1);
+                nodes.add(node);
+                for (int i = 0, n = node.getChildCount(); i < n; i++) {
+                    stack.add((XSComponent)node.getChildAt(i));
+                }
+            }
+
+            bytes = threads.getThreadAllocatedBytes(thread);
+            for (XSComponent node : nodes) {
+                node.getName();
+                node.getTypeName();
+            }
+            final long names = threads.getThreadAllocatedBytes(thread) - bytes;
+
+            bytes = threads.getThreadAllocatedBytes(thread);
+            for (XSComponent node : nodes) {
+                renderer.getTreeCellRendererComponent(tree, node, false, false, node.isLeaf(), 0, false);
+            }
+            final long render = threads.getThreadAllocatedBytes(thread) - bytes;
+
+            System.out.println(String.format("allocated for %d shapes: reading %d bytes/shape, names %.1f bytes/node, rendering %d bytes/node",
+                    SHAPES, read / SHAPES, (double)names / nodes.size(), render / nodes.size()));
+        }
+    }
+
+    private void readShapes() throws XMLStreamException {
+        loadModel("xs/complex_type13.xsd");
+
+        XMLInputFactory f = XMLInputFactory.newInstance();
+        model.read(f.createXMLStreamReader(new ByteArrayInputStream(createShapes())));
+    }
+
+    private static byte[] createShapes() {
+        StringBuilder xml = new StringBuilder();
+        xml.append("<shapes xmlns=\"http://example.com\" xmlns:tns=\"http://example.com\" xmlns:o=\"http://example.com/other\">");
+        for (int i = 0; i < SHAPES; i++) {
+            xml.append("<shape tns:kind=\"o:").append(i % 2 == 0 ? "circle" : "square").append("\">");
+            xml.append("<name>shape ").append(i).append("</name></shape>");
+        }
+        xml.append("</shapes>");
+
+        return xml.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
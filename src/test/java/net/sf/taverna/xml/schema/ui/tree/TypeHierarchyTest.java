@@ -0,0 +1,70 @@
+/**
+ * *****************************************************************************
+ * Copyright (C) 2014 Spanish National Bioinformatics Institute (INB),
+ * Barcelona Supercomputing Center and The University of Manchester
+ *
+ * Modifications to the initial code base are copyright of their respective
+ * authors, or their employers as appropriate.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ *****************************************************************************
+ */
+
+package net.sf.taverna.xml.schema.ui.tree;
+
+import java.util.List;
+import javax.xml.namespace.QName;
+import net.sf.taverna.xml.schema.parser.XSTypeHierarchy;
+import net.sf.taverna.xml.schema.ui.tree.node.XSGlobalElementNode;
+import org.apache.ws.commons.schema.XmlSchemaType;
+import org.apache.ws.commons.schema.constants.Constants;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the derivation chains of the types.
+ * 
+ * @author Dmitry Repchevsky
+ */
+
+public class TypeHierarchyTest extends TestSchemaTreeModel {
+
+    @Before
+    public void loadModel() {
+        loadModel("xs/complex_type3.xsd");
+    }
+
+    @Test
+    public void derivationChainTest() {
+        model.addGlobalElement(new QName("http://example.com", "person"));
+
+        XSGlobalElementNode element = (XSGlobalElementNode)model.getRoot().getChildAt(0);
+        XmlSchemaType person = element.getType();
+
+        List<XmlSchemaType> chain = XSTypeHierarchy.getDerivationChain(person);
+        Assert.assertSame("the chain must be built only once", chain, XSTypeHierarchy.getDerivationChain(person));
+        Assert.assertTrue("the chain must contain the base types", chain.size() >= 3);
+        Assert.assertSame("the chain must start with the type itself", person, chain.get(0));
+        Assert.assertEquals("wrong base type", new QName("http://example.com", "human"), chain.get(1).getQName());
+        Assert.assertEquals("wrong simple content type", Constants.XSD_STRING, chain.get(2).getQName());
+
+        Assert.assertTrue("'person' must be derived from 'human'", XSTypeHierarchy.isDerivedFrom(person, chain.get(1)));
+        Assert.assertTrue("'person' must be derived from 'xs:string'", XSTypeHierarchy.isDerivedFrom(person, chain.get(2)));
+        Assert.assertFalse("'human' must not be derived from 'person'", XSTypeHierarchy.isDerivedFrom(chain.get(1), person));
+
+        Assert.assertSame("wrong simple type of the 'person' node", chain.get(2), element.getSimpleType());
+    }
+}
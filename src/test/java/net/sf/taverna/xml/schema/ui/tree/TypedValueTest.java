@@ -0,0 +1,102 @@
+/**
+ * *****************************************************************************
+ * Copyright (C) 2014 Spanish National Bioinformatics Institute (INB),
+ * Barcelona Supercomputing Center and The University of Manchester
+ *
+ * Modifications to the initial code base are copyright of their respective
+ * authors, or their employers as appropriate.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ *****************************************************************************
+ */
+
+package net.sf.taverna.xml.schema.ui.tree;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import javax.xml.datatype.XMLGregorianCalendar;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that the values are parsed at read time and written back in 
+ * their canonical form.
+ * 
+ * @author Dmitry Repchevsky
+ */
+
+public class TypedValueTest extends TestSchemaTreeModel {
+
+    private final static String RECORD = "/*[namespace-uri()='http://example.com' and local-name()='record']";
+
+    @Before
+    public void loadModel() {
+        loadModel("xs/complex_type12.xsd");
+        model.setTypedValues(true);
+    }
+
+    @Test
+    public void readTest() {
+        fillModel("xs/complex_type12.xml");
+
+        Assert.assertEquals(42L, model.getNodeValue(RECORD + "/@id"));
+        Assert.assertEquals(7, model.getNodeValue(getPath("count")));
+        Assert.assertEquals(new BigDecimal("1.50"), model.getNodeValue(getPath("total")));
+        Assert.assertEquals(Double.POSITIVE_INFINITY, model.getNodeValue(getPath("ratio")));
+        Assert.assertEquals(Boolean.TRUE, model.getNodeValue(getPath("flag")));
+        Assert.assertEquals(1769, ((XMLGregorianCalendar)model.getNodeValue(getPath("born"))).getYear());
+        Assert.assertArrayEquals(new byte[] {1, 2, 3}, (byte[])model.getNodeValue(getPath("data")));
+        Assert.assertEquals("strings must be kept as is", " Napoleon ", model.getNodeValue(getPath("name")));
+
+        Assert.assertTrue("typed values must be validated", model.validate());
+    }
+
+    @Test
+    public void writeTest() throws XMLStreamException {
+        fillModel("xs/complex_type12.xml");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        XMLOutputFactory f = XMLOutputFactory.newInstance();
+        f.setProperty(XMLOutputFactory.IS_REPAIRING_NAMESPACES, Boolean.TRUE);
+        XMLStreamWriter writer = f.createXMLStreamWriter(out, "UTF-8");
+        try {
+            model.write(writer);
+        } finally {
+            writer.close();
+        }
+
+        // read the written XML back as strings
+        model.setTypedValues(false);
+        model.read(XMLInputFactory.newInstance().createXMLStreamReader(new ByteArrayInputStream(out.toByteArray())));
+
+        Assert.assertEquals("42", model.getNodeValue(RECORD + "/@id"));
+        Assert.assertEquals("7", model.getNodeValue(getPath("count")));
+        Assert.assertEquals("1.50", model.getNodeValue(getPath("total")));
+        Assert.assertEquals("INF", model.getNodeValue(getPath("ratio")));
+        Assert.assertEquals("true", model.getNodeValue(getPath("flag")));
+        Assert.assertEquals("1769-08-15", model.getNodeValue(getPath("born")));
+        Assert.assertEquals("AQID", model.getNodeValue(getPath("data")));
+    }
+
+    private static String getPath(String element) {
+        return RECORD + "/*[namespace-uri()='http://example.com' and local-name()='" + element + "']";
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * *****************************************************************************
+ * Copyright (C) 2014 Spanish National Bioinformatics Institute (INB),
+ * Barcelona Supercomputing Center and The University of Manchester
+ *
+ * Modifications to the initial code base are copyright of their respective
+ * authors, or their employers as appropriate.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ *****************************************************************************
+ */
+
+package net.sf.taverna.xml.schema.ui.tree;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import net.sf.taverna.xml.schema.parser.XSUTF8Serializer;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks that the UTF-8 serializer produces exactly the same bytes as 
+ * the XMLStreamWriter based serialization does.
+ * 
+ * @author Dmitry Repchevsky
+ */
+
+public class UTF8SerializerTest extends TestSchemaTreeModel {
+
+    private final static String[] FIXTURES = {"complex_type1", "complex_type2", "complex_type3", "complex_type4",
+                                              "complex_type5", "complex_type6", "complex_type7", "complex_type8",
+                                              "complex_type9", "complex_type12", "complex_type13", "complex_type14",
+                                              "simple_type1", "simple_type2"};
+
+    @Test
+    public void streamTest() throws XMLStreamException, IOException {
+        for (String fixture : FIXTURES) {
+            load(fixture);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            model.write(out);
+
+            Assert.assertArrayEquals("different serialization of " + fixture, writeStAX(), out.toByteArray());
+        }
+    }
+
+    @Test
+    public void channelTest() throws XMLStreamException, IOException {
+        for (String fixture : FIXTURES) {
+            load(fixture);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            WritableByteChannel channel = Channels.newChannel(out);
+            new XSUTF8Serializer(channel).write(model.getRoot());
+
+            Assert.assertArrayEquals("different serialization of " + fixture, writeStAX(), out.toByteArray());
+        }
+    }
+
+    @Test
+    public void largeValueTest() throws XMLStreamException, IOException {
+        model = new SchemaTreeModel();
+        loadModel("xs/complex_type12.xsd");
+        model.setLargeValueThreshold(3);
+        fillModel("xs/complex_type12.xml");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        model.write(out);
+
+        Assert.assertArrayEquals("different serialization of large values", writeStAX(), out.toByteArray());
+    }
+
+    private void load(String fixture) {
+        model = new SchemaTreeModel();
+        loadModel("xs/" + fixture + ".xsd");
+        fillModel("xs/" + fixture + ".xml");
+    }
+
+    private byte[] writeStAX() throws XMLStreamException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        XMLOutputFactory f = XMLOutputFactory.newInstance();
+        f.setProperty(XMLOutputFactory.IS_REPAIRING_NAMESPACES, Boolean.TRUE);
+        XMLStreamWriter writer = f.createXMLStreamWriter(out, "UTF-8");
+        try {
+            model.write(writer);
+        } finally {
+            writer.close();
+        }
+        return out.toByteArray();
+    }
+}
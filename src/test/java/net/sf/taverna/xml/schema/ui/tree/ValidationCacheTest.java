@@ -0,0 +1,86 @@
+/**
+ * *****************************************************************************
+ * Copyright (C) 2014 Spanish National Bioinformatics Institute (INB),
+ * Barcelona Supercomputing Center and The University of Manchester
+ *
+ * Modifications to the initial code base are copyright of their respective
+ * authors, or their employers as appropriate.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ *****************************************************************************
+ */
+
+package net.sf.taverna.xml.schema.ui.tree;
+
+import net.sf.taverna.xml.schema.parser.XSComponent;
+import net.sf.taverna.xml.schema.ui.tree.node.XSGlobalElementNode;
+import net.sf.taverna.xml.schema.ui.tree.node.XSParticleNode;
+import net.sf.taverna.xml.schema.ui.tree.node.XSRootNode;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that the validity of the nodes is cached and invalidated on changes.
+ * 
+ * @author Dmitry Repchevsky
+ */
+
+public class ValidationCacheTest extends TestSchemaTreeModel {
+
+    @Before
+    public void loadModel() {
+        loadModel("xs/complex_type1.xsd");
+        fillModel("xs/complex_type1.xml");
+        XSComponent.resetValidationCacheStatistics();
+        XSComponent.setValidationCacheStatistics(true);
+    }
+
+    @After
+    public void disableStatistics() {
+        XSComponent.setValidationCacheStatistics(false);
+    }
+
+    @Test
+    public void validationCacheTest() {
+        Assert.assertTrue("the model must be valid", model.validate());
+        Assert.assertEquals("all three nodes must be validated", 3, XSComponent.getValidationCacheMisses());
+        Assert.assertEquals("nothing must be taken from the cache", 0, XSComponent.getValidationCacheHits());
+
+        Assert.assertTrue("the model must be valid", model.validate());
+        Assert.assertEquals("no node must be validated again", 3, XSComponent.getValidationCacheMisses());
+        Assert.assertEquals("the 'person' validity must be taken from the cache", 1, XSComponent.getValidationCacheHits());
+    }
+
+    @Test
+    public void validationInvalidationTest() {
+        model.validate();
+
+        XSRootNode root = model.getRoot();
+        XSGlobalElementNode element = (XSGlobalElementNode)root.getChildAt(0);
+        XSParticleNode particle = (XSParticleNode)element.getChildAt(0);
+
+        particle.setUserObject("Joseph");
+
+        Assert.assertTrue("the model must be valid", model.validate());
+        Assert.assertEquals("only 'name' and 'person' nodes must be validated again", 5, XSComponent.getValidationCacheMisses());
+        Assert.assertEquals("the 'surname' validity must be taken from the cache", 1, XSComponent.getValidationCacheHits());
+
+        element.remove(particle);
+        Assert.assertTrue("the model must be valid", model.validate());
+        Assert.assertEquals("only 'person' node must be validated again", 6, XSComponent.getValidationCacheMisses());
+    }
+}
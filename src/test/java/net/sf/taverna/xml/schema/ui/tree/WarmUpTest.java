@@ -0,0 +1,65 @@
+/**
+ * *****************************************************************************
+ * Copyright (C) 2014 Spanish National Bioinformatics Institute (INB),
+ * Barcelona Supercomputing Center and The University of Manchester
+ *
+ * Modifications to the initial code base are copyright of their respective
+ * authors, or their employers as appropriate.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ *****************************************************************************
+ */
+
+package net.sf.taverna.xml.schema.ui.tree;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import javax.xml.namespace.QName;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the background warm-up of the schemas.
+ * 
+ * @author Dmitry Repchevsky
+ */
+
+public class WarmUpTest extends TestSchemaTreeModel {
+
+    private final static String NAME = "/*[namespace-uri()='http://example.com' and local-name()='person']" +
+                                       "/*[namespace-uri()='http://example.com' and local-name()='name']";
+
+    @Before
+    public void loadModel() {
+        loadModel("xs/complex_type5.xsd");
+    }
+
+    @Test
+    public void warmUpTest() throws InterruptedException, ExecutionException {
+        Future<Void> future = model.warmUp();
+        Assert.assertSame("the warm-up must be started only once", future, model.warmUp());
+
+        future.get();
+        Assert.assertTrue("the warm-up must be finished", future.isDone());
+
+        model.addGlobalElement(new QName("http://example.com", "person"));
+        model.setNodeValue(NAME, "Napoleon");
+        Assert.assertEquals("wrong person name", "Napoleon", model.getNodeValue(NAME));
+
+        loadModel("xs/complex_type5.xsd");
+        Assert.assertNotSame("new schemas must be warmed up again", future, model.warmUp());
+    }
+}
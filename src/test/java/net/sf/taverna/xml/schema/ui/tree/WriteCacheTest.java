@@ -0,0 +1,119 @@
+/**
+ * *****************************************************************************
+ * Copyright (C) 2014 Spanish National Bioinformatics Institute (INB),
+ * Barcelona Supercomputing Center and The University of Manchester
+ *
+ * Modifications to the initial code base are copyright of their respective
+ * authors, or their employers as appropriate.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ *****************************************************************************
+ */
+
+package net.sf.taverna.xml.schema.ui.tree;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import net.sf.taverna.xml.schema.parser.XSNode;
+import net.sf.taverna.xml.schema.parser.XSUTF8Serializer;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that the writes that reuse the cached bytes of unchanged elements 
+ * produce the same XML as the full writes do.
+ * 
+ * @author Dmitry Repchevsky
+ */
+
+public class WriteCacheTest extends TestSchemaTreeModel {
+
+    private final static String SHAPE = "/*[namespace-uri()='http://example.com' and local-name()='shapes']" +
+                                        "/*[namespace-uri()='http://example.com' and local-name()='shape']";
+    private final static String NAME = "/*[namespace-uri()='http://example.com' and local-name()='name']";
+    private final static String KIND = "/@[namespace-uri()='http://example.com' and local-name()='kind']";
+
+    private final static int SHAPES = 10000;
+
+    @Before
+    public void loadModel() throws XMLStreamException {
+        loadModel("xs/complex_type13.xsd");
+
+        StringBuilder xml = new StringBuilder();
+        xml.append("<shapes xmlns=\"http://example.com\" xmlns:tns=\"http://example.com\" xmlns:o=\"http://example.com/other\">");
+        for (int i = 0; i < SHAPES; i++) {
+            xml.append("<shape tns:kind=\"o:").append(i % 2 == 0 ? "circle" : "square").append("\">");
+            xml.append("<name>shape ").append(i).append("</name></shape>");
+        }
+        xml.append("</shapes>");
+
+        XMLInputFactory f = XMLInputFactory.newInstance();
+        model.read(f.createXMLStreamReader(new ByteArrayInputStream(xml.toString().getBytes(StandardCharsets.UTF_8))));
+
+        model.setWriteCaching(true);
+    }
+
+    @Test
+    public void valueTest() throws IOException {
+        Assert.assertArrayEquals(writeFully(), writeCached());
+        Assert.assertArrayEquals("unchanged model", writeFully(), writeCached());
+
+        model.setNodeValue(shape(SHAPES / 2) + NAME, "changed & escaped");
+        Assert.assertArrayEquals("changed value", writeFully(), writeCached());
+
+        model.setNodeValue(shape(1) + NAME, null);
+        Assert.assertArrayEquals("removed value", writeFully(), writeCached());
+    }
+
+    @Test
+    public void structureTest() throws IOException {
+        writeCached();
+
+        XSNode node = model.getRoot().findNode(shape(3));
+        node.removeFromParent();
+        Assert.assertArrayEquals("removed element", writeFully(), writeCached());
+    }
+
+    @Test
+    public void namespaceTest() throws IOException {
+        writeCached();
+
+        // the new namespace changes the plan of the document
+        model.setNodeValue(shape(SHAPES) + KIND, new QName("http://example.com/third", "triangle"));
+        Assert.assertArrayEquals("new namespace", writeFully(), writeCached());
+    }
+
+    private byte[] writeCached() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        model.write(out);
+        return out.toByteArray();
+    }
+
+    private byte[] writeFully() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new XSUTF8Serializer(out).write(model.getRoot());
+        return out.toByteArray();
+    }
+
+    private static String shape(int position) {
+        return SHAPE + "[position()=" + position + "]";
+    }
+}
@@ -0,0 +1,94 @@
+/**
+ * *****************************************************************************
+ * Copyright (C) 2014 Spanish National Bioinformatics Institute (INB),
+ * Barcelona Supercomputing Center and The University of Manchester
+ *
+ * Modifications to the initial code base are copyright of their respective
+ * authors, or their employers as appropriate.
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 2.1 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ *****************************************************************************
+ */
+
+package net.sf.taverna.xml.schema.ui.tree;
+
+import net.sf.taverna.xml.schema.parser.XSComponent;
+import net.sf.taverna.xml.schema.parser.XSNode;
+import net.sf.taverna.xml.schema.ui.tree.node.XSGlobalElementNode;
+import net.sf.taverna.xml.schema.ui.tree.node.XSParticleNode;
+import net.sf.taverna.xml.schema.ui.tree.node.XSRootNode;
+import net.sf.taverna.xml.schema.ui.tree.node.XSTypeNode;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks XPath based node lookup.
+ * 
+ * @author Dmitry Repchevsky
+ */
+
+public class XPathIndexTest extends TestSchemaTreeModel {
+
+    private final static String PERSON = "/*[namespace-uri()='http://example.com' and local-name()='person']";
+    private final static String HOBBY = PERSON + "/*[namespace-uri()='http://example.com' and local-name()='hobby']";
+
+    @Test
+    public void findNodeTest() {
+        loadModel("xs/complex_type4.xsd");
+        fillModel("xs/complex_type4.xml");
+
+        XSRootNode root = model.getRoot();
+        for (int i = 0, n = root.getChildCount(); i < n; i++) {
+            checkNode(root, (XSComponent)root.getChildAt(i));
+        }
+    }
+
+    @Test
+    public void positionShiftTest() {
+        loadModel("xs/complex_type4.xsd");
+        fillModel("xs/complex_type4.xml");
+
+        Assert.assertEquals("wrong first 'hobby' value", "war", model.getNodeValue(HOBBY + "[position()=1]"));
+        Assert.assertEquals("wrong second 'hobby' value", "archeology", model.getNodeValue(HOBBY + "[position()=2]"));
+
+        XSRootNode root = model.getRoot();
+        XSGlobalElementNode element = (XSGlobalElementNode)root.getChildAt(0);
+        XSParticleNode particle = (XSParticleNode)element.getChildAt(0);
+        XSTypeNode second = (XSTypeNode)particle.getChildAt(1);
+
+        particle.remove(0);
+
+        Assert.assertSame("the second 'hobby' must become the first one", second, root.findNode(HOBBY + "[position()=1]"));
+        Assert.assertNull("there must be no second 'hobby'", root.findNode(HOBBY + "[position()=2]"));
+    }
+
+    @Test
+    public void attributeTest() {
+        loadModel("xs/complex_type3.xsd");
+        fillModel("xs/complex_type3.xml");
+
+        Assert.assertEquals("wrong 'birthday' attribute value", "1769-08-15", model.getNodeValue(PERSON + "/@birthday"));
+        Assert.assertNull("there must be no 'birthday' element", model.getRoot().findNode(PERSON + "/birthday"));
+    }
+
+    private void checkNode(XSRootNode root, XSComponent node) {
+        XSNode found = root.findNode(node.getXPath());
+        Assert.assertSame("wrong node found for " + node.getXPath(), node, found);
+
+        for (int i = 0, n = node.getChildCount(); i < n; i++) {
+            checkNode(root, (XSComponent)node.getChildAt(i));
+        }
+    }
+}